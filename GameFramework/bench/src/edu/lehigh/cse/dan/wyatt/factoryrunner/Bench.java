@@ -0,0 +1,143 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * Bench is a small harness for timing the framework's hot paths on a desktop
+ * JVM, laid out like JMH: each benchmark is warmed up for a few iterations,
+ * then measured for several more, and the average time per operation is
+ * reported with its spread. The project has no build tool to pull in JMH, so
+ * this has no dependencies beyond the game's own.
+ *
+ * Every iteration runs batches of a benchmark's operation until enough time
+ * has passed. setUp() runs before each batch and isn't timed, so a benchmark
+ * that consumes its state (e.g., clearing a scene) can rebuild it there. The
+ * results of the operations are summed into a sink, so that the JIT can't
+ * throw the work away.
+ */
+class Bench
+{
+    /**
+     * Number of iterations used to warm up each benchmark
+     */
+    static int warmupIterations = 5;
+
+    /**
+     * Number of iterations that are measured
+     */
+    static int measureIterations = 10;
+
+    /**
+     * Minimum length of each iteration, in nanoseconds
+     */
+    static long iterationNanos = 200 * 1000 * 1000L;
+
+    /**
+     * One benchmark
+     */
+    static abstract class Case
+    {
+        /**
+         * Name of the benchmark, as printed in the results
+         */
+        final String name;
+
+        /**
+         * Number of operations per batch
+         */
+        final int batch;
+
+        /**
+         * Describe a benchmark
+         *
+         * @param name
+         *            Name of the benchmark
+         * @param batch
+         *            Number of operations to run between calls to setUp()
+         */
+        Case(String name, int batch)
+        {
+            this.name = name;
+            this.batch = batch;
+        }
+
+        /**
+         * Prepare for a batch of operations. This isn't timed.
+         */
+        void setUp() throws Exception
+        {
+        }
+
+        /**
+         * Run the operation once
+         *
+         * @return anything that depends on the work that was done
+         */
+        abstract int op() throws Exception;
+    }
+
+    /**
+     * Where results go, so that they aren't optimized away
+     */
+    private static int sink;
+
+    /**
+     * Run one iteration of a benchmark
+     *
+     * @return the average time per operation, in nanoseconds
+     */
+    private static double iteration(Case c) throws Exception
+    {
+        long spent = 0;
+        long ops = 0;
+        while (spent < iterationNanos) {
+            c.setUp();
+            long start = System.nanoTime();
+            for (int i = 0; i < c.batch; ++i)
+                sink += c.op();
+            spent += System.nanoTime() - start;
+            ops += c.batch;
+        }
+        return (double) spent / ops;
+    }
+
+    /**
+     * Run benchmarks and print their results
+     *
+     * @param cases
+     *            The benchmarks
+     * @param filter
+     *            Only run benchmarks whose name contains this, or null to run
+     *            them all
+     */
+    static void run(Case[] cases, String filter) throws Exception
+    {
+        System.out.println(String.format("%-32s %4s %14s %12s  %s", "Benchmark", "Cnt", "Score", "Error", "Units"));
+        for (Case c : cases) {
+            if (filter != null && c.name.indexOf(filter) < 0)
+                continue;
+            for (int i = 0; i < warmupIterations; ++i)
+                iteration(c);
+            double sum = 0;
+            double min = Double.MAX_VALUE;
+            double max = 0;
+            for (int i = 0; i < measureIterations; ++i) {
+                double t = iteration(c);
+                sum += t;
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+            }
+            System.out.println(String.format("%-32s %4d %14.3f %12.3f  ns/op", c.name, measureIterations, sum
+                    / measureIterations, (max - min) / 2));
+        }
+        // print the sink, so that it is live
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /**
+     * Bench is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private Bench()
+    {
+    }
+}
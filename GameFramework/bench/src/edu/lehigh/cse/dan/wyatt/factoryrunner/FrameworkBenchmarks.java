@@ -0,0 +1,395 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.anddev.andengine.entity.primitive.Rectangle;
+import org.anddev.andengine.opengl.buffer.BufferObjectManager;
+import org.anddev.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlas;
+import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
+import org.anddev.andengine.sensor.accelerometer.AccelerometerData;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.Contact;
+import com.badlogic.gdx.physics.box2d.Fixture;
+
+/**
+ * Benchmarks for the framework's hot paths, run with Bench.
+ *
+ * Box2D's bodies, fixtures and contacts are thin wrappers around native
+ * objects, and the game itself is an Android Activity, so the benchmarks use
+ * stand-ins: bodies, fixtures and contacts that override the native calls
+ * with plain Java, and sprites whose texture is never sent to the GPU. The
+ * framework code being measured is the real code.
+ *
+ * To run, from the GameFramework folder, compile src and bench against
+ * andengine_plus_box2d.jar and the SDK's android.jar, and then run this class
+ * with the same classpath, optionally passing part of a benchmark name to
+ * run only the matching ones:
+ *
+ * java -cp bench-classes:andengine_plus_box2d.jar:android.jar
+ * edu.lehigh.cse.dan.wyatt.factoryrunner.FrameworkBenchmarks [filter]
+ *
+ * Every real enemy needs a body from a native World, so the reproduction
+ * benchmark times the SpawnScheduler's wheel and queue with stand-in enemies
+ * that only count their offspring.
+ */
+class FrameworkBenchmarks
+{
+    /**
+     * SVG file to parse, relative to the GameFramework folder
+     */
+    static final String SVG_FILE = "assets/shape.svg";
+
+    /**
+     * Number of contacts reported per physics step in the contact benchmark
+     */
+    static final int CONTACTS_PER_STEP = 64;
+
+    /**
+     * Number of entities that react to tilt in the tilt benchmark
+     */
+    static final int TILT_BODIES = 256;
+
+    /**
+     * Number of chunks in the window, and of entities in each chunk, in the
+     * segment benchmark
+     */
+    static final int WINDOW_CHUNKS = 8;
+    static final int CHUNK_ENTITIES = 16;
+
+    /**
+     * Number of reproducing enemies in the reproduction benchmark
+     */
+    static final int SPAWN_PARENTS = 256;
+
+    /**
+     * A body that doesn't exist in any World. The calls made on the hot paths
+     * are answered in plain Java.
+     */
+    static final class StandInBody extends Body
+    {
+        final Vector2 center = new Vector2();
+        final Vector2 force = new Vector2();
+        Object data;
+
+        StandInBody()
+        {
+            super(null, 0);
+        }
+
+        @Override
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        @Override
+        public Vector2 getWorldCenter()
+        {
+            return center;
+        }
+
+        @Override
+        public void applyForce(Vector2 f, Vector2 point)
+        {
+            force.add(f);
+        }
+
+        @Override
+        public void setUserData(Object userData)
+        {
+            data = userData;
+        }
+
+        @Override
+        public Object getUserData()
+        {
+            return data;
+        }
+    }
+
+    /**
+     * A fixture on a stand-in body
+     */
+    static final class StandInFixture extends Fixture
+    {
+        StandInFixture(Body body)
+        {
+            super(body, 0);
+        }
+    }
+
+    /**
+     * A contact between two stand-in fixtures
+     */
+    static final class StandInContact extends Contact
+    {
+        final Fixture a;
+        final Fixture b;
+
+        StandInContact(Fixture a, Fixture b)
+        {
+            super(null, 0);
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public Fixture getFixtureA()
+        {
+            return a;
+        }
+
+        @Override
+        public Fixture getFixtureB()
+        {
+            return b;
+        }
+    }
+
+    /**
+     * An entity with a stand-in body
+     */
+    static final class StandInSprite extends PhysicsSprite
+    {
+        int hits;
+
+        StandInSprite(float x, int type)
+        {
+            super(x, 0, 32, 32, region, type);
+            StandInBody b = new StandInBody();
+            b.setUserData(this);
+            physBody = b;
+        }
+
+        @Override
+        void onCollide(PhysicsSprite other)
+        {
+            hits++;
+        }
+    }
+
+    /**
+     * An enemy with no body, whose offspring are only counted
+     */
+    static final class StandInEnemy extends Enemy
+    {
+        static int offspring;
+
+        StandInEnemy(float x)
+        {
+            super(x, 0, 32, 32, region);
+        }
+
+        @Override
+        void spawnChild(int generation)
+        {
+            offspring++;
+        }
+    }
+
+    /**
+     * A texture region for the stand-in sprites. It is never loaded.
+     */
+    static TiledTextureRegion region;
+
+    /**
+     * Read a whole file
+     */
+    static byte[] readFile(String name) throws Exception
+    {
+        InputStream in = new FileInputStream(name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) > 0)
+                bytes.write(chunk, 0, n);
+            return bytes.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Make an SVG document with many curved paths, to stress curve
+     * flattening
+     */
+    static byte[] makeCurvySVG(int paths) throws Exception
+    {
+        StringBuilder sb = new StringBuilder("<svg><g transform=\"translate(-10,-20)\">");
+        for (int p = 0; p < paths; ++p) {
+            sb.append("<path d=\"M ").append(p * 10).append(",100");
+            for (int s = 0; s < 8; ++s)
+                sb.append(" c 20,-40 60,-40 80,0 q 20,30 40,0");
+            sb.append(" z\"/>");
+        }
+        sb.append("</g></svg>");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Run the benchmarks
+     *
+     * @param args
+     *            Optionally, part of the name of the benchmarks to run
+     */
+    public static void main(String[] args) throws Exception
+    {
+        // the Engine normally does this; sprites can't be made without it
+        BufferObjectManager.setActiveInstance(new BufferObjectManager());
+        region = new TiledTextureRegion(new BitmapTextureAtlas(32, 32), 0, 0, 32, 32, 1, 1);
+
+        final byte[] svg = readFile(SVG_FILE);
+        final byte[] curvy = makeCurvySVG(100);
+
+        // every contact in the contact benchmark goes to this handler
+        final int[] handled = new int[1];
+        CollisionTable.register(PhysicsSprite.TYPE_GOODIE, PhysicsSprite.TYPE_BULLET, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                handled[0]++;
+            }
+        });
+        final ContactQueue queue = new ContactQueue(CONTACTS_PER_STEP);
+        final StandInContact[] contacts = new StandInContact[CONTACTS_PER_STEP];
+        for (int i = 0; i < CONTACTS_PER_STEP; ++i) {
+            StandInSprite a = new StandInSprite(i, PhysicsSprite.TYPE_GOODIE);
+            StandInSprite b = new StandInSprite(i, PhysicsSprite.TYPE_BULLET);
+            contacts[i] = new StandInContact(new StandInFixture(a.physBody), new StandInFixture(b.physBody));
+        }
+
+        for (int i = 0; i < TILT_BODIES; ++i)
+            Level.addTiltEntity(new StandInSprite(i, PhysicsSprite.TYPE_ENEMY));
+        final AccelerometerData tilt = new AccelerometerData(0);
+
+        Bench.Case[] cases = {
+            new Bench.Case("svgParse.shape", 1) {
+                @Override
+                int op() throws Exception
+                {
+                    return SVGParser.parse(new ByteArrayInputStream(svg)).length;
+                }
+            },
+            new Bench.Case("svgParse.curves", 1) {
+                @Override
+                int op() throws Exception
+                {
+                    return SVGParser.parse(new ByteArrayInputStream(curvy)).length;
+                }
+            },
+            new Bench.Case("media.roundUpToPowerOf2", 1024) {
+                int x = 0;
+
+                @Override
+                int op()
+                {
+                    x = (x + 37) & 4095;
+                    return Media.roundUpToPowerOf2(x);
+                }
+            },
+            new Bench.Case("contacts.pushAndDrain", 100) {
+                @Override
+                int op()
+                {
+                    for (int i = 0; i < CONTACTS_PER_STEP; ++i)
+                        queue.push(contacts[i]);
+                    queue.drain();
+                    return handled[0];
+                }
+            },
+            new Bench.Case("level.tilt", 100) {
+                int n = 0;
+
+                @Override
+                int op()
+                {
+                    tilt.setX((n++ & 7) - 3.5f);
+                    tilt.setY(1);
+                    Level.onAccelerometerChanged(tilt);
+                    Level.applyTilt();
+                    return n;
+                }
+            },
+            new Bench.Case("segments.slide", 100) {
+                SegmentDeque segments;
+                Rectangle[] shapes;
+                int x;
+
+                @Override
+                void setUp()
+                {
+                    // a window of chunks, each holding the same shapes, as
+                    // ChunkStreamer keeps them
+                    segments = new SegmentDeque();
+                    BufferObjectManager.getActiveInstance().clear();
+                    shapes = new Rectangle[CHUNK_ENTITIES];
+                    for (int i = 0; i < CHUNK_ENTITIES; ++i)
+                        shapes[i] = new Rectangle(i * 8, 0, 8, 8);
+                    for (x = 0; segments.size() < WINDOW_CHUNKS; x += CullingScene.CELL_WIDTH)
+                        fill(segments.addLast(x, x + CullingScene.CELL_WIDTH));
+                }
+
+                void fill(SegmentDeque.Segment s)
+                {
+                    for (int i = 0; i < CHUNK_ENTITIES; ++i)
+                        s.add(shapes[i], null);
+                }
+
+                @Override
+                int op()
+                {
+                    // retire the chunk at the front, and build one at the
+                    // back
+                    segments.recycle(segments.removeFirst());
+                    fill(segments.addLast(x, x + CullingScene.CELL_WIDTH));
+                    x += CullingScene.CELL_WIDTH;
+                    return segments.first().startX;
+                }
+            },
+            new Bench.Case("enemy.reproduce", 60) {
+                boolean ready;
+
+                @Override
+                void setUp()
+                {
+                    // enemies that reproduce every 1 to 40 ticks, two
+                    // offspring at a time, which is more than the queue can
+                    // take, so some requests get dropped. They never run
+                    // out, so this only needs doing once (and starting a new
+                    // level would log)
+                    if (ready)
+                        return;
+                    ready = true;
+                    Enemy.onNewLevel();
+                    SpawnScheduler.setLimits(SPAWN_PARENTS * 2, 4);
+                    BufferObjectManager.getActiveInstance().clear();
+                    for (int i = 0; i < SPAWN_PARENTS; ++i)
+                        new StandInEnemy(i).setReproductions(Integer.MAX_VALUE, SpawnScheduler.TICK * (1 + i % 40), 2);
+                }
+
+                @Override
+                int op()
+                {
+                    SpawnScheduler.update(1.0f / 60);
+                    return StandInEnemy.offspring;
+                }
+            },
+        };
+        Bench.run(cases, args.length > 0 ? args[0] : null);
+    }
+
+    /**
+     * FrameworkBenchmarks is a pure static class, and should never be
+     * constructed explicitly
+     */
+    private FrameworkBenchmarks()
+    {
+    }
+}
@@ -0,0 +1,620 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.anddev.andengine.opengl.texture.TextureOptions;
+import org.anddev.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlas;
+import org.anddev.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlasTextureRegionFactory;
+import org.anddev.andengine.opengl.texture.atlas.bitmap.source.AssetBitmapTextureAtlasSource;
+import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
+import org.anddev.andengine.util.Debug;
+
+import android.graphics.Bitmap;
+
+/**
+ * The AssetLoader loads images, sounds, and music in the background, so that
+ * the game can show its splash screen right away instead of waiting for every
+ * asset to load.
+ * 
+ * Games queue their assets with a priority (lower numbers load first) and then
+ * call start(). Images are read and decoded on a small pool of background
+ * threads. Images with the same priority are packed into shared atlases, and
+ * each atlas is handed to GL on the update thread as soon as all of its images
+ * are decoded, but never before the atlases of a more important priority.
+ * Sounds and music are created on the update thread, in priority order.
+ * 
+ * Each queued asset has a Handle, which can be polled to see if the asset is
+ * ready. A ProgressListener can be used to draw a progress indicator. Once an
+ * asset is ready, it is available through Media in the usual way.
+ */
+class AssetLoader
+{
+    /**
+     * Priority for assets that the menus need
+     */
+    static final int PRIORITY_HIGH = 0;
+
+    /**
+     * Priority for assets that gameplay needs
+     */
+    static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Priority for assets that are rarely used
+     */
+    static final int PRIORITY_LOW = 2;
+
+    /**
+     * Number of background threads for reading and decoding
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * Interface for code that wants to know how loading is going. It is
+     * always called on the update thread.
+     */
+    interface ProgressListener
+    {
+        /**
+         * Report progress
+         * 
+         * @param loaded
+         *            Number of assets that are ready
+         * @param total
+         *            Number of assets that were queued
+         */
+        void onProgress(int loaded, int total);
+    }
+
+    /**
+     * A future-style handle for one queued asset
+     */
+    static final class Handle
+    {
+        /**
+         * Name of the asset file
+         */
+        final String name;
+
+        /**
+         * The loaded asset (a TiledTextureRegion, Sound, or Music)
+         */
+        private volatile Object asset;
+
+        /**
+         * Has loading finished (successfully or not)?
+         */
+        private volatile boolean done;
+
+        /**
+         * Create a handle
+         * 
+         * @param name
+         *            Name of the asset file
+         */
+        private Handle(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return true once the asset has finished loading
+         */
+        boolean isDone()
+        {
+            return done;
+        }
+
+        /**
+         * @return the asset, or null if it isn't ready or couldn't be loaded
+         */
+        Object get()
+        {
+            return asset;
+        }
+    }
+
+    /**
+     * A queued image
+     */
+    private static final class ImageRequest
+    {
+        String name;
+        int cols;
+        int rows;
+        int priority;
+        Handle handle;
+
+        /**
+         * The decoded image, once a background thread has made it
+         */
+        DecodedBitmapTextureAtlasSource source;
+    }
+
+    /**
+     * A group of images that share one texture
+     */
+    private static final class AtlasJob
+    {
+        int priority;
+        int width;
+        int height;
+        final ArrayList<ImageRequest> images = new ArrayList<ImageRequest>();
+        final ArrayList<AtlasPacker.Placement> placements = new ArrayList<AtlasPacker.Placement>();
+
+        /**
+         * Number of images that still need to be decoded
+         */
+        int remaining;
+    }
+
+    /**
+     * Background work, ordered by priority and then by the order in which it
+     * was queued
+     */
+    private static abstract class Task implements Runnable, Comparable<Task>
+    {
+        final int priority;
+        final long sequence;
+
+        Task(int priority)
+        {
+            this.priority = priority;
+            synchronized (AssetLoader.class) {
+                this.sequence = nextSequence++;
+            }
+        }
+
+        @Override
+        public int compareTo(Task other)
+        {
+            if (priority != other.priority)
+                return priority < other.priority ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Counter for ordering tasks with the same priority
+     */
+    private static long nextSequence;
+
+    /**
+     * Images that have been queued but not started
+     */
+    private static final ArrayList<ImageRequest> images = new ArrayList<ImageRequest>();
+
+    /**
+     * Sounds and music that have been queued but not started
+     */
+    private static final ArrayList<Task> audio = new ArrayList<Task>();
+
+    /**
+     * Atlases that are fully decoded and waiting to go to GL
+     */
+    private static final ArrayList<AtlasJob> ready = new ArrayList<AtlasJob>();
+
+    /**
+     * Number of image groups (one per priority) that haven't been packed yet,
+     * and number of atlases that have been packed but not uploaded, indexed by
+     * priority
+     */
+    private static int[] unpackedGroups = new int[0];
+    private static int[] unuploadedAtlases = new int[0];
+
+    /**
+     * Progress counters
+     */
+    private static int loaded;
+    private static int total;
+
+    /**
+     * Who to tell about progress
+     */
+    private static ProgressListener listener;
+
+    /**
+     * The background threads
+     */
+    private static ThreadPoolExecutor pool;
+
+    /**
+     * AssetLoader is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private AssetLoader()
+    {
+    }
+
+    /**
+     * Queue an image to load in the background
+     * 
+     * @param name
+     *            Name of the image file
+     * @param priority
+     *            Lower numbers load first
+     * @return a handle for the image
+     */
+    static Handle queueImage(String name, int priority)
+    {
+        return queueAnimatableImage(name, 1, 1, priority);
+    }
+
+    /**
+     * Queue an animatable image to load in the background
+     * 
+     * @param name
+     *            Name of the image file
+     * @param cols
+     *            Number of columns of animation cells
+     * @param rows
+     *            Number of rows of animation cells
+     * @param priority
+     *            Lower numbers load first
+     * @return a handle for the image
+     */
+    static Handle queueAnimatableImage(String name, int cols, int rows, int priority)
+    {
+        ImageRequest r = new ImageRequest();
+        r.name = name;
+        r.cols = cols;
+        r.rows = rows;
+        r.priority = priority;
+        r.handle = new Handle(name);
+        images.add(r);
+        total++;
+        return r.handle;
+    }
+
+    /**
+     * Queue a sound to load in the background
+     * 
+     * @param name
+     *            Name of the sound file
+     * @param priority
+     *            Lower numbers load first
+     * @return a handle for the sound
+     */
+    static Handle queueSound(final String name, int priority)
+    {
+        final Handle h = new Handle(name);
+        audio.add(new Task(priority) {
+            @Override
+            public void run()
+            {
+                Media.registerSound(name);
+                finish(h, Media.getSound(name));
+                reportProgress();
+            }
+        });
+        total++;
+        return h;
+    }
+
+    /**
+     * Queue music to load in the background
+     * 
+     * @param name
+     *            Name of the music file
+     * @param loop
+     *            Should the music repeat when it reaches the end?
+     * @param priority
+     *            Lower numbers load first
+     * @return a handle for the music
+     */
+    static Handle queueMusic(final String name, final boolean loop, int priority)
+    {
+        final Handle h = new Handle(name);
+        audio.add(new Task(priority) {
+            @Override
+            public void run()
+            {
+                Media.registerMusic(name, loop);
+                finish(h, Media.getMusic(name));
+                reportProgress();
+            }
+        });
+        total++;
+        return h;
+    }
+
+    /**
+     * Indicate who should be told about progress. The listener is called
+     * right away with the current progress.
+     * 
+     * @param l
+     *            The listener, or null
+     */
+    static synchronized void setProgressListener(ProgressListener l)
+    {
+        listener = l;
+        if (l != null)
+            l.onProgress(loaded, total);
+    }
+
+    /**
+     * @return true if every queued asset has finished loading
+     */
+    static synchronized boolean isDone()
+    {
+        return loaded == total;
+    }
+
+    /**
+     * Start loading everything that has been queued
+     */
+    static void start()
+    {
+        if (pool == null) {
+            pool = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "AssetLoader");
+                            t.setPriority(Thread.MIN_PRIORITY);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+        }
+
+        // group the images by priority, so that each group can be packed
+        int maxPriority = 0;
+        for (ImageRequest r : images)
+            maxPriority = Math.max(maxPriority, r.priority);
+        final ArrayList<ArrayList<ImageRequest>> groups = new ArrayList<ArrayList<ImageRequest>>();
+        for (int i = 0; i <= maxPriority; ++i)
+            groups.add(new ArrayList<ImageRequest>());
+        for (ImageRequest r : images)
+            groups.get(r.priority).add(r);
+        images.clear();
+
+        synchronized (AssetLoader.class) {
+            unpackedGroups = new int[maxPriority + 1];
+            unuploadedAtlases = new int[maxPriority + 1];
+            for (int i = 0; i <= maxPriority; ++i)
+                unpackedGroups[i] = groups.get(i).isEmpty() ? 0 : 1;
+        }
+        for (int i = 0; i <= maxPriority; ++i) {
+            final ArrayList<ImageRequest> group = groups.get(i);
+            if (group.isEmpty())
+                continue;
+            pool.execute(new Task(i) {
+                @Override
+                public void run()
+                {
+                    packGroup(group, priority);
+                }
+            });
+        }
+
+        // audio has to be created on the update thread, but we still go
+        // through the pool so that it happens in priority order
+        for (final Task t : audio) {
+            pool.execute(new Task(t.priority) {
+                @Override
+                public void run()
+                {
+                    Framework.self().getEngine().runOnUpdateThread(t);
+                }
+            });
+        }
+        audio.clear();
+    }
+
+    /**
+     * Read the sizes of a group of images, lay them out in atlases, and queue
+     * the work of decoding them. This runs on a background thread.
+     * 
+     * @param group
+     *            Images that all have the same priority
+     * @param priority
+     *            Their priority
+     */
+    private static void packGroup(ArrayList<ImageRequest> group, int priority)
+    {
+        // only the headers are read here
+        AtlasPacker packer = new AtlasPacker(Media.ATLAS_SIZE, 1);
+        ArrayList<ImageRequest> found = new ArrayList<ImageRequest>();
+        for (ImageRequest r : group) {
+            AssetBitmapTextureAtlasSource probe = new AssetBitmapTextureAtlasSource(Framework.self(), r.name);
+            if (probe.getWidth() == 0 || probe.getHeight() == 0) {
+                Debug.d("Error accessing file " + r.name);
+                finish(r.handle, null);
+                Framework.self().getEngine().runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        reportProgress();
+                    }
+                });
+                continue;
+            }
+            packer.add(r.name, probe.getWidth(), probe.getHeight(), r.cols, r.rows);
+            found.add(r);
+        }
+        packer.pack();
+
+        AtlasJob[] jobs = new AtlasJob[packer.getAtlasCount()];
+        for (int i = 0; i < jobs.length; ++i) {
+            jobs[i] = new AtlasJob();
+            jobs[i].priority = priority;
+            jobs[i].width = packer.getAtlasWidth(i);
+            jobs[i].height = packer.getAtlasHeight(i);
+        }
+        for (int i = 0; i < found.size(); ++i) {
+            AtlasPacker.Placement p = packer.getPlacements().get(i);
+            jobs[p.atlas].images.add(found.get(i));
+            jobs[p.atlas].placements.add(p);
+        }
+        synchronized (AssetLoader.class) {
+            unpackedGroups[priority] = 0;
+            unuploadedAtlases[priority] += jobs.length;
+            for (AtlasJob job : jobs)
+                job.remaining = job.images.size();
+        }
+
+        // decode each image as a separate task, so that the threads share the
+        // work
+        for (final AtlasJob job : jobs) {
+            for (int i = 0; i < job.images.size(); ++i) {
+                final ImageRequest r = job.images.get(i);
+                final AtlasPacker.Placement p = job.placements.get(i);
+                pool.execute(new Task(priority) {
+                    @Override
+                    public void run()
+                    {
+                        // an image that can't be decoded (e.g., because memory
+                        // ran out) is skipped, but its atlas must still be
+                        // uploaded, or every later priority would wait forever
+                        try {
+                            Bitmap b = DecodedBitmapTextureAtlasSource.decode(r.name, Bitmap.Config.ARGB_8888);
+                            if (b != null)
+                                r.source = new DecodedBitmapTextureAtlasSource(r.name, p.width, p.height, b);
+                        }
+                        catch (OutOfMemoryError e) {
+                            Debug.e("Out of memory decoding " + r.name, e);
+                        }
+                        catch (RuntimeException e) {
+                            Debug.e("Could not decode " + r.name, e);
+                        }
+                        finally {
+                            onDecoded(job);
+                        }
+                    }
+                });
+            }
+        }
+        // a group with no readable images still needs to unblock the others
+        postUploads();
+    }
+
+    /**
+     * Note that one image of an atlas has been decoded, and hand the atlas to
+     * the update thread once they all are
+     * 
+     * @param job
+     *            The atlas that the image belongs to
+     */
+    private static void onDecoded(AtlasJob job)
+    {
+        synchronized (AssetLoader.class) {
+            job.remaining--;
+            if (job.remaining > 0)
+                return;
+            ready.add(job);
+        }
+        postUploads();
+    }
+
+    /**
+     * Ask the update thread to upload whatever atlases it can
+     */
+    private static void postUploads()
+    {
+        Framework.self().getEngine().runOnUpdateThread(new Runnable() {
+            @Override
+            public void run()
+            {
+                uploadReady();
+            }
+        });
+    }
+
+    /**
+     * Upload every atlas that is ready and that isn't waiting behind a more
+     * important one. This runs on the update thread.
+     */
+    private static void uploadReady()
+    {
+        while (true) {
+            AtlasJob job = null;
+            synchronized (AssetLoader.class) {
+                for (AtlasJob j : ready) {
+                    if (!blocked(j.priority) && (job == null || j.priority < job.priority))
+                        job = j;
+                }
+                if (job == null)
+                    return;
+                ready.remove(job);
+            }
+            BitmapTextureAtlas bta = new BitmapTextureAtlas(job.width, job.height, TextureOptions.DEFAULT);
+            for (int i = 0; i < job.images.size(); ++i) {
+                ImageRequest r = job.images.get(i);
+                AtlasPacker.Placement p = job.placements.get(i);
+                if (r.source == null) {
+                    finish(r.handle, null);
+                    continue;
+                }
+                TiledTextureRegion ttr = BitmapTextureAtlasTextureRegionFactory.createTiledFromSource(bta, r.source,
+                        p.x, p.y, p.cols, p.rows);
+                r.source = null;
+                Media.putImage(r.name, ttr);
+                finish(r.handle, ttr);
+            }
+            Framework.self().getEngine().getTextureManager().loadTexture(bta);
+            synchronized (AssetLoader.class) {
+                unuploadedAtlases[job.priority]--;
+            }
+            reportProgress();
+        }
+    }
+
+    /**
+     * Check if atlases of some priority must wait for more important ones
+     * 
+     * @param priority
+     *            The priority to check
+     * @return true if a more important group hasn't been packed or uploaded
+     */
+    private static boolean blocked(int priority)
+    {
+        for (int i = 0; i < priority; ++i)
+            if (unpackedGroups[i] != 0 || unuploadedAtlases[i] != 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Mark an asset as finished
+     * 
+     * @param h
+     *            The asset's handle
+     * @param asset
+     *            The asset, or null if it couldn't be loaded
+     */
+    private static void finish(Handle h, Object asset)
+    {
+        h.asset = asset;
+        h.done = true;
+        synchronized (AssetLoader.class) {
+            loaded++;
+        }
+    }
+
+    /**
+     * Tell the listener about progress. This must run on the update thread.
+     * 
+     * Note that a Runnable posted to the update thread from code that is
+     * already running there is dropped, so callers that are on the update
+     * thread must call this directly.
+     */
+    private static void reportProgress()
+    {
+        ProgressListener l;
+        int loadedNow;
+        int totalNow;
+        synchronized (AssetLoader.class) {
+            l = listener;
+            loadedNow = loaded;
+            totalNow = total;
+        }
+        if (l != null)
+            l.onProgress(loadedNow, totalNow);
+    }
+}
@@ -0,0 +1,346 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * AtlasPacker decides where each of a set of images goes, when many images
+ * share a few big textures (atlases) instead of having one texture each.
+ * 
+ * It uses a shelf algorithm: images are sorted from tallest to shortest, and
+ * then placed left to right on horizontal shelves. An image goes on the first
+ * shelf (in any atlas) that is tall enough and has room left, and otherwise
+ * starts a new shelf, or a new atlas if no atlas has room for another shelf.
+ * Sorting by height keeps the wasted space above short images small.
+ * 
+ * This class only does the arithmetic; Media turns the result into textures.
+ */
+class AtlasPacker
+{
+    /**
+     * Where one image goes
+     */
+    static final class Placement
+    {
+        /**
+         * Name of the image file
+         */
+        final String name;
+
+        /**
+         * Size of the image
+         */
+        final int width;
+        final int height;
+
+        /**
+         * Number of animation cells in the image
+         */
+        final int cols;
+        final int rows;
+
+        /**
+         * Index of the atlas that holds the image
+         */
+        int atlas;
+
+        /**
+         * Top left corner of the image in its atlas
+         */
+        int x;
+        int y;
+
+        /**
+         * Describe an image to be placed
+         * 
+         * @param name
+         *            Name of the image file
+         * @param width
+         *            Width of the image
+         * @param height
+         *            Height of the image
+         * @param cols
+         *            Number of columns of animation cells
+         * @param rows
+         *            Number of rows of animation cells
+         */
+        Placement(String name, int width, int height, int cols, int rows)
+        {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.cols = cols;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * A row of images in an atlas
+     */
+    private static final class Shelf
+    {
+        /**
+         * Top of this shelf
+         */
+        int y;
+
+        /**
+         * Height of the tallest image that fits on this shelf
+         */
+        int height;
+
+        /**
+         * Next free x coordinate on this shelf
+         */
+        int nextX;
+    }
+
+    /**
+     * Sort images from tallest to shortest, breaking ties by width
+     */
+    private static final Comparator<Placement> TALLEST_FIRST = new Comparator<Placement>() {
+        @Override
+        public int compare(Placement a, Placement b)
+        {
+            if (a.height != b.height)
+                return b.height - a.height;
+            return b.width - a.width;
+        }
+    };
+
+    /**
+     * Largest allowed width and height of an atlas
+     */
+    private final int maxSize;
+
+    /**
+     * Empty pixels to leave between images, so that filtering doesn't bleed
+     * one image into the next
+     */
+    private final int padding;
+
+    /**
+     * The images, in the order they were added
+     */
+    private final ArrayList<Placement> placements = new ArrayList<Placement>();
+
+    /**
+     * Shelves of each atlas
+     */
+    private final ArrayList<ArrayList<Shelf>> atlases = new ArrayList<ArrayList<Shelf>>();
+
+    /**
+     * Final size of each atlas, and the number of pixels covered by images
+     */
+    private int[] atlasWidth;
+    private int[] atlasHeight;
+    private long[] usedPixels;
+
+    /**
+     * Create a packer
+     * 
+     * @param maxSize
+     *            Largest allowed width and height of an atlas. This should be
+     *            a power of 2 that the device supports; 1024 is safe.
+     * @param padding
+     *            Pixels to leave between images
+     */
+    AtlasPacker(int maxSize, int padding)
+    {
+        this.maxSize = maxSize;
+        this.padding = padding;
+    }
+
+    /**
+     * Add an image to be packed
+     * 
+     * @param name
+     *            Name of the image file
+     * @param width
+     *            Width of the image
+     * @param height
+     *            Height of the image
+     * @param cols
+     *            Number of columns of animation cells
+     * @param rows
+     *            Number of rows of animation cells
+     */
+    void add(String name, int width, int height, int cols, int rows)
+    {
+        placements.add(new Placement(name, width, height, cols, rows));
+    }
+
+    /**
+     * Place every image that has been added. Images that are too big for an
+     * atlas get an atlas of their own, rounded up to a power of 2.
+     */
+    void pack()
+    {
+        atlases.clear();
+        ArrayList<Placement> sorted = new ArrayList<Placement>(placements);
+        Collections.sort(sorted, TALLEST_FIRST);
+        for (Placement p : sorted)
+            place(p);
+
+        // shrink each atlas to the smallest power of 2 that holds its images
+        int n = atlases.size();
+        atlasWidth = new int[n];
+        atlasHeight = new int[n];
+        usedPixels = new long[n];
+        for (int i = 0; i < n; ++i) {
+            int w = 1;
+            int h = 1;
+            for (Shelf s : atlases.get(i)) {
+                w = Math.max(w, s.nextX - padding);
+                h = Math.max(h, s.y + s.height);
+            }
+            atlasWidth[i] = roundUpToPowerOf2(w);
+            atlasHeight[i] = roundUpToPowerOf2(h);
+        }
+        for (Placement p : placements)
+            usedPixels[p.atlas] += (long) p.width * p.height;
+    }
+
+    /**
+     * Find a spot for one image
+     * 
+     * @param p
+     *            The image to place
+     */
+    private void place(Placement p)
+    {
+        int w = p.width + padding;
+        int h = p.height + padding;
+        // an image that can't fit gets an atlas to itself
+        if (p.width > maxSize || p.height > maxSize) {
+            Shelf s = new Shelf();
+            s.height = p.height;
+            s.nextX = w;
+            ArrayList<Shelf> atlas = new ArrayList<Shelf>();
+            atlas.add(s);
+            atlases.add(atlas);
+            p.atlas = atlases.size() - 1;
+            return;
+        }
+        // first fit on an existing shelf
+        for (int a = 0; a < atlases.size(); ++a) {
+            for (Shelf s : atlases.get(a)) {
+                if (s.height >= p.height && s.nextX + p.width <= maxSize) {
+                    put(p, a, s);
+                    return;
+                }
+            }
+        }
+        // otherwise start a new shelf in the first atlas with room
+        for (int a = 0; a < atlases.size(); ++a) {
+            ArrayList<Shelf> atlas = atlases.get(a);
+            Shelf last = atlas.get(atlas.size() - 1);
+            int top = last.y + last.height + padding;
+            if (top + p.height <= maxSize) {
+                put(p, a, newShelf(atlas, top, h));
+                return;
+            }
+        }
+        // otherwise start a new atlas
+        ArrayList<Shelf> atlas = new ArrayList<Shelf>();
+        atlases.add(atlas);
+        put(p, atlases.size() - 1, newShelf(atlas, 0, h));
+    }
+
+    /**
+     * Add a shelf to an atlas
+     * 
+     * @param atlas
+     *            The atlas's shelves
+     * @param y
+     *            Top of the new shelf
+     * @param h
+     *            Height of the first image on the shelf, including padding
+     * @return the new shelf
+     */
+    private Shelf newShelf(ArrayList<Shelf> atlas, int y, int h)
+    {
+        Shelf s = new Shelf();
+        s.y = y;
+        s.height = h - padding;
+        atlas.add(s);
+        return s;
+    }
+
+    /**
+     * Put an image at the end of a shelf
+     * 
+     * @param p
+     *            The image
+     * @param atlas
+     *            Index of the atlas that holds the shelf
+     * @param s
+     *            The shelf
+     */
+    private void put(Placement p, int atlas, Shelf s)
+    {
+        p.atlas = atlas;
+        p.x = s.nextX;
+        p.y = s.y;
+        s.nextX += p.width + padding;
+    }
+
+    /**
+     * @return the images and where they were placed, in the order they were
+     *         added
+     */
+    ArrayList<Placement> getPlacements()
+    {
+        return placements;
+    }
+
+    /**
+     * @return the number of atlases that pack() created
+     */
+    int getAtlasCount()
+    {
+        return atlasWidth.length;
+    }
+
+    /**
+     * @param atlas
+     *            Index of an atlas
+     * @return the width of the atlas, which is a power of 2
+     */
+    int getAtlasWidth(int atlas)
+    {
+        return atlasWidth[atlas];
+    }
+
+    /**
+     * @param atlas
+     *            Index of an atlas
+     * @return the height of the atlas, which is a power of 2
+     */
+    int getAtlasHeight(int atlas)
+    {
+        return atlasHeight[atlas];
+    }
+
+    /**
+     * @param atlas
+     *            Index of an atlas
+     * @return the fraction of the atlas's pixels that are covered by images
+     */
+    float getFill(int atlas)
+    {
+        return usedPixels[atlas] / (float) ((long) atlasWidth[atlas] * atlasHeight[atlas]);
+    }
+
+    /**
+     * @param x
+     *            A positive integer
+     * @return the smallest power of 2 that is >= x
+     */
+    private static int roundUpToPowerOf2(int x)
+    {
+        int p = Integer.highestOneBit(x);
+        return (p == x) ? p : p << 1;
+    }
+}
@@ -1,7 +1,9 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
 import org.anddev.andengine.audio.sound.Sound;
-import org.anddev.andengine.extension.physics.box2d.util.constants.PhysicsConstants;
+import org.anddev.andengine.engine.camera.Camera;
+import org.anddev.andengine.engine.handler.IUpdateHandler;
+import org.anddev.andengine.entity.IEntity;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
 
 import com.badlogic.gdx.math.Vector2;
@@ -17,6 +19,14 @@ import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
  *
  * - It handles shooting bullets
  *
+ * The pool is a fixed-size SpritePool, so any bullet that isn't in flight can
+ * be shot next. A bullet goes back to the pool when it hits something, when
+ * it leaves the camera, or when it has been flying for too long.
+ *
+ * Shots are queued rather than dropped: if every bullet is in flight, the
+ * next shot goes as soon as one comes back. A shot can be a burst of several
+ * bullets, and holding the trigger can keep shooting at a fixed rate.
+ *
  * @author spear
  */
 public class Bullet extends PhysicsSprite
@@ -44,8 +54,46 @@ public class Bullet extends PhysicsSprite
      */
     void onCollide(PhysicsSprite other)
     {
-        setVisible(false);
-        physBody.setActive(false);
+        land();
+    }
+
+    /**
+     * Take this bullet out of play, so it can be shot again. It is safe to
+     * call this more than once.
+     */
+    void land()
+    {
+        bullets.release(this);
+    }
+
+    /**
+     * Seconds since this bullet was shot
+     */
+    private float age;
+
+    /**
+     * Age the bullet, and put it back in the pool if it has been flying for
+     * too long or has left the camera
+     */
+    @Override
+    protected void onManagedUpdate(float pSecondsElapsed)
+    {
+        super.onManagedUpdate(pSecondsElapsed);
+        if (!isVisible())
+            return;
+        age += pSecondsElapsed;
+        if (lifetime > 0 && age >= lifetime) {
+            land();
+            return;
+        }
+        Camera c = Framework.self().myCamera;
+        float left = getX() + getWidthScaled() - (c.getMinX() - CullingScene.MARGIN);
+        float right = c.getMaxX() + CullingScene.MARGIN - getX();
+        float above = getY() + getHeightScaled() - (c.getMinY() - CullingScene.MARGIN);
+        float below = c.getMaxY() + CullingScene.MARGIN - getY();
+        // a negative distance means the bullet is past that side of the camera
+        if (left < 0 || right < 0 || above < 0 || below < 0)
+            land();
     }
 
     /**
@@ -54,20 +102,15 @@ public class Bullet extends PhysicsSprite
     static Sound hitSound;
 
     /**
-     * A collection of all the available bullets
+     * The bullets that can be shot
      */
-    static Bullet bulletPool[];
+    static SpritePool<Bullet> bullets;
 
     /**
      * The number of bullets in the pool
      */
     static int bulletPoolSize;
 
-    /**
-     * Position of next available bullet in the pool
-     */
-    static int bulletNext;
-
     /**
      * The x velocity of any bullet we shoot
      */
@@ -91,20 +134,54 @@ public class Bullet extends PhysicsSprite
     static float _offsetY;
 
     /**
-     * The physics system requires us to communicate with it via Vector2
-     * objects. Rather than pool them and constantly be re-making them, we can
-     * just keep a few around for our own purposes. This is for setting the
-     * velocity of a bullet.
+     * Seconds a bullet can fly before it goes back to the pool, or 0 to let
+     * it fly until it hits something or leaves the camera
      */
-    static final Vector2 bulletVelocity = new Vector2();
+    static float lifetime = 3;
+
+    /**
+     * Number of bullets in each shot
+     */
+    static int burstSize = 1;
+
+    /**
+     * Seconds between the bullets of a burst
+     */
+    static float burstInterval = 0;
+
+    /**
+     * Seconds between shots while the trigger is held, or 0 to shoot once per
+     * press
+     */
+    static float rapidInterval = 0;
+
+    /**
+     * Bullets that have been asked for, but not shot yet
+     */
+    private static int queued;
+
+    /**
+     * Seconds until the next queued bullet can be shot
+     */
+    private static float cooldown;
+
+    /**
+     * Is the trigger being held down?
+     */
+    private static boolean triggerHeld;
+
+    /**
+     * The entity that the queued bullets come from
+     */
+    private static IEntity shooter;
 
     /**
      * The physics system requires us to communicate with it via Vector2
      * objects. Rather than pool them and constantly be re-making them, we can
      * just keep a few around for our own purposes. This is for setting the
-     * position of a bullet.
+     * velocity of a bullet.
      */
-    static final Vector2 bulletPosition = new Vector2();
+    static final Vector2 bulletVelocity = new Vector2();
 
     /**
      * The physics system requires us to communicate with it via Vector2
@@ -137,20 +214,22 @@ public class Bullet extends PhysicsSprite
      * @param velocityY
      *            y velocity of bullets
      */
-    static void configBullets(int size, int width, int height, String name, float velocityX, float velocityY,
-            float offsetX, float offsetY)
+    static void configBullets(int size, final int width, final int height, String name, float velocityX,
+            float velocityY, float offsetX, float offsetY)
     {
-        TiledTextureRegion ttr = Media.getImage(name);
+        final TiledTextureRegion ttr = Media.getImage(name);
         // set up the pool
-        bulletPool = new Bullet[size];
-        for (int i = 0; i < size; ++i) {
-            bulletPool[i] = new Bullet(-100, -100, width, height, ttr);
-            bulletPool[i].setVisible(false);
-            bulletPool[i].physBody.setBullet(true);
-            bulletPool[i].physBody.setActive(false);
-            Level.current.attachChild(bulletPool[i]);
-        }
-        bulletNext = 0;
+        bullets = new SpritePool<Bullet>("Bullet", size, false, new SpritePool.Factory<Bullet>() {
+            @Override
+            public Bullet make(float x, float y)
+            {
+                Bullet b = new Bullet(x, y, width, height, ttr);
+                b.physBody.setBullet(true);
+                Level.current.attachChild(b);
+                return b;
+            }
+        });
+        bullets.fill(size);
         bulletPoolSize = size;
         // record vars that describe how the bullet behaves
         bulletVelocityX = velocityX;
@@ -161,42 +240,168 @@ public class Bullet extends PhysicsSprite
         // gravity a little bit.
         bulletForce.x = -5 * Level._initXGravity;
         bulletForce.y = -5 * Level._initYGravity;
+        // shoot queued bullets as they become due
+        Level.current.registerUpdateHandler(new IUpdateHandler() {
+            @Override
+            public void onUpdate(float pSecondsElapsed)
+            {
+                fireQueued(pSecondsElapsed);
+            }
+
+            @Override
+            public void reset()
+            {
+            }
+        });
     }
 
     /**
-     * Shoot a bullet
+     * Set how long a bullet can fly before it goes back to the pool
+     *
+     * @param seconds
+     *            The lifetime, or 0 to let bullets fly until they hit something
+     *            or leave the camera
+     */
+    static void setLifetime(float seconds)
+    {
+        lifetime = seconds;
+    }
+
+    /**
+     * Make every shot a burst of bullets
+     *
+     * @param count
+     *            Number of bullets in each shot
+     *
+     * @param interval
+     *            Seconds between the bullets of a burst, or 0 to shoot them all
+     *            at once
+     */
+    static void setBurst(int count, float interval)
+    {
+        burstSize = Math.max(1, count);
+        burstInterval = interval;
+    }
+
+    /**
+     * Keep shooting while the trigger is held
+     *
+     * @param interval
+     *            Seconds between shots, or 0 to shoot once per press
+     */
+    static void setRapidFire(float interval)
+    {
+        rapidInterval = interval;
+    }
+
+    /**
+     * Shoot one shot (one burst, if bursts are on)
+     *
+     * @param from
+     *            The entity doing the shooting. Bullets start at its top left
+     *            corner, plus the offset.
+     */
+    static void shoot(IEntity from)
+    {
+        if (bullets == null)
+            return;
+        shooter = from;
+        // never queue more than the pool can have in flight at once
+        queued = Math.min(queued + burstSize, bulletPoolSize);
+        fireQueued(0);
+    }
+
+    /**
+     * Shoot, and if rapid fire is on, keep shooting until releaseTrigger is
+     * called
+     *
+     * @param from
+     *            The entity doing the shooting
+     */
+    static void holdTrigger(IEntity from)
+    {
+        shoot(from);
+        triggerHeld = rapidInterval > 0;
+    }
+
+    /**
+     * Stop rapid fire. Bullets that are already queued are still shot.
+     */
+    static void releaseTrigger()
+    {
+        triggerHeld = false;
+    }
+
+    /**
+     * Shoot the queued bullets that are due. A bullet that can't be shot
+     * because the pool is empty waits for the next frame.
+     *
+     * @param elapsed
+     *            Seconds since the last call
+     */
+    private static void fireQueued(float elapsed)
+    {
+        cooldown -= elapsed;
+        if (triggerHeld && queued == 0)
+            queued = burstSize;
+        if (shooter == null || !shooter.isVisible()) {
+            queued = 0;
+            triggerHeld = false;
+        }
+        while (queued > 0 && cooldown <= 0) {
+            if (!fire(shooter.getX(), shooter.getY()))
+                break;
+            queued--;
+            cooldown += queued > 0 ? burstInterval : rapidInterval;
+        }
+        // don't save up time while there is nothing to shoot
+        if (queued == 0 && !triggerHeld && cooldown < 0)
+            cooldown = 0;
+    }
+
+    /**
+     * Put a bullet in flight
      *
      * @param xx
      *            x coordinate of the top left corner of the shooter
      *
      * @param yy
      *            y coordinate of the top left corner of the shooter
+     *
+     * @return false if every bullet is already in flight
      */
-    static void shoot(float xx, float yy)
+    private static boolean fire(float xx, float yy)
     {
-        // is there an available bullet?
-        if (bulletPool[bulletNext].isVisible())
-            return;
-        // calculate offset for starting position of bullet
-        float x = xx + _offsetX;
-        float y = yy + _offsetY;
-        // get the next bullet
-        Bullet b = bulletPool[bulletNext];
-        bulletNext = (bulletNext + 1) % bulletPoolSize;
-        // put the bullet on the screen and place it in the physics world
-        b.setPosition(x, y);
-        bulletPosition.x = x;
-        bulletPosition.y = y;
-        bulletPosition.mul(1 / PhysicsConstants.PIXEL_TO_METER_RATIO_DEFAULT);
-        b.physBody.setActive(true);
-        b.physBody.setTransform(bulletPosition, 0);
+        // calculate offset for starting position of bullet, and place the
+        // bullet there, at rest
+        Bullet b = bullets.obtain(xx + _offsetX, yy + _offsetY);
+        if (b == null)
+            return false;
+        b.age = 0;
         // give the bullet velocity
         bulletVelocity.x = bulletVelocityX;
         bulletVelocity.y = bulletVelocityY;
         b.physBody.setLinearVelocity(bulletVelocity);
         b.physBody.applyForce(bulletForce, b.physBody.getLocalCenter());
-        // make the bullet visible
-        b.setVisible(true);
+        return true;
+    }
+
+    /**
+     * Forget the bullets and shots of the last level, and go back to one
+     * bullet per shot
+     */
+    static void onNewLevel()
+    {
+        bullets = null;
+        bulletPoolSize = 0;
+        lifetime = 3;
+        burstSize = 1;
+        burstInterval = 0;
+        rapidInterval = 0;
+        queued = 0;
+        cooldown = 0;
+        triggerHeld = false;
+        shooter = null;
     }
 
     /**
@@ -0,0 +1,149 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * A ChunkPlan is the layout of one chunk of a streamed level, as plain data:
+ * a list of entries, each with a kind, an argument, and an x coordinate, just
+ * like an entity in the compiled level file (see LevelFormat).
+ *
+ * Plans are made on the ChunkStreamer's planning thread, so making one must
+ * not touch the engine, the scene, or the physics world. The entries are
+ * turned into sprites and bodies later, on the update thread. What the kinds
+ * and arguments mean is up to the ChunkBuilder that makes and builds the
+ * plan.
+ *
+ * Plans are reused, so a builder must not keep a plan after it is built.
+ */
+class ChunkPlan
+{
+    /**
+     * X coordinate of the left edge of the chunk
+     */
+    int startX;
+
+    /**
+     * X coordinate of the right edge of the chunk
+     */
+    int endX;
+
+    /**
+     * How hard the level is, from difficultyX on, as set by
+     * ChunkStreamer.setDifficulty when this chunk was requested. Copying them
+     * in on the update thread means a plan doesn't depend on how far behind
+     * the planning thread is.
+     */
+    int difficulty;
+    int difficultyX;
+
+    /**
+     * Number of entries
+     */
+    private int count;
+
+    /**
+     * Kind of each entry
+     */
+    private int[] kinds = new int[16];
+
+    /**
+     * Argument of each entry
+     */
+    private int[] args = new int[16];
+
+    /**
+     * X coordinate of each entry
+     */
+    private int[] xs = new int[16];
+
+    /**
+     * Add an entry to the end of the plan. Entries are built in the order in
+     * which they are added.
+     *
+     * @param kind
+     *            What to make
+     * @param arg
+     *            Anything else the builder needs to know
+     * @param x
+     *            Where to make it
+     */
+    void add(int kind, int arg, int x)
+    {
+        if (count == kinds.length) {
+            kinds = grow(kinds);
+            args = grow(args);
+            xs = grow(xs);
+        }
+        kinds[count] = kind;
+        args[count] = arg;
+        xs[count] = x;
+        count++;
+    }
+
+    /**
+     * Double the length of an array, keeping its contents
+     */
+    private static int[] grow(int[] a)
+    {
+        int[] bigger = new int[a.length * 2];
+        System.arraycopy(a, 0, bigger, 0, a.length);
+        return bigger;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * @param i
+     *            Index of an entry
+     * @return the kind of the entry
+     */
+    int getKind(int i)
+    {
+        return kinds[i];
+    }
+
+    /**
+     * @param i
+     *            Index of an entry
+     * @return the argument of the entry
+     */
+    int getArg(int i)
+    {
+        return args[i];
+    }
+
+    /**
+     * @param i
+     *            Index of an entry
+     * @return the x coordinate of the entry
+     */
+    int getX(int i)
+    {
+        return xs[i];
+    }
+
+    /**
+     * Get the plan ready to describe a new chunk
+     *
+     * @param start
+     *            X coordinate of the left edge of the chunk
+     * @param end
+     *            X coordinate of the right edge of the chunk
+     * @param hardness
+     *            How hard the level is
+     * @param hardnessX
+     *            X coordinate from which that applies
+     */
+    void reset(int start, int end, int hardness, int hardnessX)
+    {
+        startX = start;
+        endX = end;
+        difficulty = hardness;
+        difficultyX = hardnessX;
+        count = 0;
+    }
+}
@@ -0,0 +1,646 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.anddev.andengine.engine.camera.Camera;
+import org.anddev.andengine.engine.handler.IUpdateHandler;
+import org.anddev.andengine.entity.IEntity;
+
+import android.util.Log;
+
+/**
+ * The ChunkStreamer builds an endless level a little bit at a time.
+ * 
+ * The level is cut into chunks of CHUNK_WIDTH pixels. Only the chunks near the
+ * camera exist at any time: as the camera moves right, new chunks are built in
+ * front of it, and chunks that have fallen far enough behind are retired.
+ * 
+ * Retiring a chunk does not throw its entities away. Instead, they are hidden,
+ * their bodies are deactivated, and they go into a SpritePool. When the next
+ * chunk asks for an entity with the same image, size and physics, it gets one
+ * from the pool instead of a new sprite and a new Box2D body. This keeps the
+ * number of sprites and bodies flat no matter how long the hero runs.
+ * 
+ * Games describe what goes in a chunk by providing a ChunkBuilder. Building
+ * happens in two halves. First, the builder plans the chunk as plain data (a
+ * ChunkPlan), on a background thread, well before the camera gets there.
+ * Then, on the update thread, each entry of the plan is built by calling the
+ * usual addXXX methods. Those methods consult the streamer, so the builder
+ * doesn't need to know anything about pooling. Entries are built a few at a
+ * time, with at most BUILD_BUDGET nanoseconds spent per frame, so a chunk can
+ * take several frames to appear; only a chunk that is about to come into view
+ * is finished without regard to the budget.
+ */
+class ChunkStreamer
+{
+    /**
+     * Width of each chunk of the level
+     */
+    static final int CHUNK_WIDTH = SampleActivity.INFINITE_LEVEL_LENGTH / 4;
+
+    /**
+     * Number of chunks to keep to the left of the camera
+     */
+    static final int CHUNKS_BEHIND = 1;
+
+    /**
+     * Number of chunks to keep built to the right of the camera
+     */
+    static final int CHUNKS_AHEAD = 2;
+
+    /**
+     * Number of chunks to have planned past the ones that are built
+     */
+    static final int CHUNKS_PLANNED = 2;
+
+    /**
+     * Most time to spend building entries in one frame, in nanoseconds
+     */
+    static final long BUILD_BUDGET = 2000000;
+
+    /**
+     * Interface for the code that fills a chunk with obstacles, enemies, and
+     * decorations
+     */
+    interface ChunkBuilder
+    {
+        /**
+         * Decide what goes in a region of the level. This runs on the
+         * planning thread, one chunk at a time and from left to right, so it
+         * must only do arithmetic and fill in the plan; it must not touch the
+         * engine, the level, or the physics world.
+         * 
+         * @param plan
+         *            An empty plan, whose startX and endX give the region, and
+         *            whose difficulty and difficultyX are what they were
+         *            when the chunk was requested
+         */
+        void plan(ChunkPlan plan);
+
+        /**
+         * Make one entry of a plan, on the update thread
+         * 
+         * @param plan
+         *            The plan of the chunk being built
+         * @param i
+         *            Index of the entry to make
+         */
+        void build(ChunkPlan plan, int i);
+    }
+
+    /**
+     * The planning thread. It takes requests for chunks in order, plans them
+     * with the builder, and hands the plans back in the same order.
+     */
+    private static final class Planner extends Thread
+    {
+        /**
+         * Plans that have been requested and not yet made, in order
+         */
+        private final ArrayList<ChunkPlan> todo = new ArrayList<ChunkPlan>();
+
+        /**
+         * Plans that are ready to be built, in order
+         */
+        private final ArrayList<ChunkPlan> done = new ArrayList<ChunkPlan>();
+
+        /**
+         * Plans that aren't in use
+         */
+        private final ArrayList<ChunkPlan> spare = new ArrayList<ChunkPlan>();
+
+        /**
+         * The builder that makes the plans
+         */
+        private ChunkBuilder planBuilder;
+
+        /**
+         * Changes whenever the level changes, so that a plan that was being
+         * made for the old level can be recognized and dropped
+         */
+        private int generation;
+
+        /**
+         * Is the thread making a plan right now?
+         */
+        private boolean busy;
+
+        /**
+         * Make the thread. It runs at low priority, since the update thread
+         * needs the processor more.
+         */
+        Planner()
+        {
+            super("ChunkPlanner");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        /**
+         * Drop every request and plan, and plan with a new builder from now
+         * on. If a plan is being made, this waits for it, so that the old
+         * builder is never running once this returns.
+         * 
+         * @param b
+         *            The new builder, or null
+         */
+        synchronized void restart(ChunkBuilder b)
+        {
+            while (busy) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+            }
+            generation++;
+            planBuilder = b;
+            spare.addAll(todo);
+            spare.addAll(done);
+            todo.clear();
+            done.clear();
+            notifyAll();
+        }
+
+        /**
+         * Ask for the plan of the next chunk
+         * 
+         * @param startX
+         *            X coordinate of the left edge of the chunk
+         * @param endX
+         *            X coordinate of the right edge of the chunk
+         * @param hardness
+         *            How hard the level is
+         * @param hardnessX
+         *            X coordinate from which that applies
+         */
+        synchronized void request(int startX, int endX, int hardness, int hardnessX)
+        {
+            ChunkPlan p = spare.isEmpty() ? new ChunkPlan() : spare.remove(spare.size() - 1);
+            p.reset(startX, endX, hardness, hardnessX);
+            todo.add(p);
+            notifyAll();
+        }
+
+        /**
+         * Get the next plan, waiting for it if it isn't ready yet
+         * 
+         * @param wait
+         *            false to return null instead of waiting
+         * @return the plan, or null if it isn't ready (or was never requested)
+         */
+        synchronized ChunkPlan next(boolean wait)
+        {
+            while (wait && done.isEmpty() && (busy || !todo.isEmpty())) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return done.isEmpty() ? null : done.remove(0);
+        }
+
+        /**
+         * Give back a plan that has been built
+         * 
+         * @param p
+         *            The plan
+         */
+        synchronized void recycle(ChunkPlan p)
+        {
+            spare.add(p);
+        }
+
+        /**
+         * Make plans as they are requested
+         */
+        @Override
+        public void run()
+        {
+            while (true) {
+                ChunkPlan p;
+                ChunkBuilder b;
+                int gen;
+                synchronized (this) {
+                    while (todo.isEmpty()) {
+                        try {
+                            wait();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    p = todo.remove(0);
+                    b = planBuilder;
+                    gen = generation;
+                    busy = true;
+                }
+                try {
+                    if (b != null)
+                        b.plan(p);
+                }
+                catch (RuntimeException e) {
+                    // an empty chunk is better than a level that stops
+                    // streaming
+                    Log.e("ChunkStreamer", "could not plan chunk at " + p.startX, e);
+                    p.reset(p.startX, p.endX, p.difficulty, p.difficultyX);
+                }
+                synchronized (this) {
+                    busy = false;
+                    if (gen == generation)
+                        done.add(p);
+                    else
+                        spare.add(p);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * What makes an entity interchangeable with others, for finding the name
+     * of its pool without building a new string for every entity
+     */
+    private static final class PoolKey
+    {
+        /**
+         * The arguments of key()
+         */
+        String kind;
+        String name;
+        float width;
+        float height;
+        float density;
+        float elasticity;
+        float friction;
+
+        @Override
+        public int hashCode()
+        {
+            int h = kind.hashCode() * 31 + name.hashCode();
+            h = h * 31 + Float.floatToIntBits(width);
+            h = h * 31 + Float.floatToIntBits(height);
+            h = h * 31 + Float.floatToIntBits(density);
+            h = h * 31 + Float.floatToIntBits(elasticity);
+            return h * 31 + Float.floatToIntBits(friction);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof PoolKey))
+                return false;
+            PoolKey k = (PoolKey) o;
+            return kind.equals(k.kind) && name.equals(k.name) && width == k.width && height == k.height
+                    && density == k.density && elasticity == k.elasticity && friction == k.friction;
+        }
+    }
+
+    /**
+     * The names of the pools made so far, by what goes in them
+     */
+    private static final HashMap<PoolKey, String> keys = new HashMap<PoolKey, String>();
+
+    /**
+     * A PoolKey that is filled in to look up a name
+     */
+    private static final PoolKey probe = new PoolKey();
+
+    /**
+     * The code that fills chunks
+     */
+    private static ChunkBuilder builder;
+
+    /**
+     * The planning thread, which is made the first time a level is streamed
+     */
+    private static Planner planner;
+
+    /**
+     * The chunks that currently exist, from left to right, and the entities
+     * in each one. The last one may still be under construction.
+     */
+    private static final SegmentDeque window = new SegmentDeque();
+
+    /**
+     * Retired entities, grouped by their pool key. The pools don't have
+     * factories, since the addXXX methods make the entities.
+     */
+    private static final HashMap<String, SpritePool<IEntity>> pools = new HashMap<String, SpritePool<IEntity>>();
+
+    /**
+     * The chunk whose entry is being built right now, or null if we aren't
+     * building
+     */
+    private static SegmentDeque.Segment building;
+
+    /**
+     * The plan of the chunk under construction, or null if there is none
+     */
+    private static ChunkPlan plan;
+
+    /**
+     * The chunk under construction
+     */
+    private static SegmentDeque.Segment open;
+
+    /**
+     * Index of the next entry of the plan to build
+     */
+    private static int nextEntry;
+
+    /**
+     * X coordinate where the next chunk will start
+     */
+    private static int nextX;
+
+    /**
+     * X coordinate where the next chunk to be planned will start
+     */
+    private static int plannedX;
+
+    /**
+     * How hard the level is, and from where, for the chunks requested from
+     * now on
+     */
+    private static int difficulty;
+    private static int difficultyX;
+
+    /**
+     * ChunkStreamer is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private ChunkStreamer()
+    {
+    }
+
+    /**
+     * Set how hard the level is for the chunks that are requested from now
+     * on. This must be called on the update thread (or before start), and the
+     * planning thread sees the values in each ChunkPlan, so a chunk is
+     * planned the same way no matter when the planner gets to it. Chunks that
+     * were already requested keep the old values.
+     * 
+     * @param hardness
+     *            How hard the level is. What this means is up to the
+     *            ChunkBuilder.
+     * @param fromX
+     *            X coordinate from which that applies
+     */
+    static void setDifficulty(int hardness, int fromX)
+    {
+        difficulty = hardness;
+        difficultyX = fromX;
+    }
+
+    /**
+     * Start streaming chunks into the current level. This should be called
+     * after Level.reset, and after setDifficulty
+     * 
+     * @param b
+     *            The code that will fill each chunk
+     */
+    static void start(ChunkBuilder b)
+    {
+        reset();
+        builder = b;
+        if (planner == null) {
+            planner = new Planner();
+            planner.start();
+        }
+        planner.restart(b);
+        Level.current.registerUpdateHandler(new IUpdateHandler() {
+            @Override
+            public void onUpdate(float pSecondsElapsed)
+            {
+                ChunkStreamer.onUpdate();
+            }
+
+            @Override
+            public void reset()
+            {
+            }
+        });
+        // build the first few chunks right away, so the level doesn't start
+        // empty
+        onUpdate();
+    }
+
+    /**
+     * Stop streaming and forget all pooled entities. The pools hold bodies
+     * from the old physics world, so this must happen whenever the level is
+     * reset.
+     */
+    static void reset()
+    {
+        builder = null;
+        if (planner != null)
+            planner.restart(null);
+        building = null;
+        plan = null;
+        open = null;
+        window.clear();
+        if (!pools.isEmpty()) {
+            int created = 0;
+            int reused = 0;
+            for (SpritePool<IEntity> pool : pools.values()) {
+                created += pool.getMisses();
+                reused += pool.getHits();
+            }
+            Log.i("ChunkStreamer", created + " entities created, " + reused + " reused");
+        }
+        pools.clear();
+        nextX = 0;
+        plannedX = 0;
+    }
+
+    /**
+     * Build chunks that are coming into range of the camera, and retire the
+     * ones that have fallen out of range
+     */
+    private static void onUpdate()
+    {
+        if (builder == null)
+            return;
+        Camera c = Framework.self().myCamera;
+        float left = c.getMinX() - CHUNKS_BEHIND * CHUNK_WIDTH;
+        float right = c.getMaxX() + CHUNKS_AHEAD * CHUNK_WIDTH;
+        while (plannedX < right + CHUNKS_PLANNED * CHUNK_WIDTH) {
+            planner.request(plannedX, plannedX + CHUNK_WIDTH, difficulty, difficultyX);
+            plannedX += CHUNK_WIDTH;
+        }
+        long deadline = System.nanoTime() + BUILD_BUDGET;
+        while (nextX < right) {
+            // a chunk that is about to be seen must be finished now
+            boolean urgent = nextX < c.getMaxX() + CullingScene.MARGIN;
+            if (!buildChunk(urgent, deadline))
+                break;
+        }
+        while (window.size() > 0 && window.first().endX < left && window.first() != open)
+            retireChunk(window.removeFirst());
+    }
+
+    /**
+     * Build entries of the next chunk until it is done or the time is up
+     * 
+     * @param urgent
+     *            true to finish the chunk no matter how long it takes
+     * @param deadline
+     *            Value of System.nanoTime after which to stop, if not urgent
+     * @return true if the chunk is done
+     */
+    private static boolean buildChunk(boolean urgent, long deadline)
+    {
+        if (plan == null) {
+            plan = planner.next(urgent);
+            if (plan == null)
+                return false;
+            open = window.addLast(plan.startX, plan.endX);
+            nextEntry = 0;
+        }
+        while (nextEntry < plan.size()) {
+            if (!urgent && System.nanoTime() > deadline)
+                return false;
+            building = open;
+            builder.build(plan, nextEntry++);
+            building = null;
+        }
+        nextX = plan.endX;
+        planner.recycle(plan);
+        plan = null;
+        open = null;
+        return true;
+    }
+
+    /**
+     * Hide every entity in a chunk and return it to its pool
+     * 
+     * @param chunk
+     *            The chunk to retire
+     */
+    private static void retireChunk(SegmentDeque.Segment chunk)
+    {
+        for (int i = 0; i < chunk.entities.size(); ++i) {
+            IEntity e = chunk.entities.get(i);
+            SpritePool<IEntity> home = chunk.homes.get(i);
+            // destroyed entities (e.g., killed enemies) have already given
+            // back their bodies, so they can't be reused
+            if (e instanceof PhysicsSprite && ((PhysicsSprite) e).destroyed)
+                home.discard(e);
+            else
+                home.release(e);
+        }
+        window.recycle(chunk);
+    }
+
+    /**
+     * Describe the pool that an entity belongs to. Entities in the same pool
+     * must be interchangeable: same class, image, size, and physics. The
+     * same key is returned every time, so asking for one doesn't allocate.
+     * 
+     * @param kind
+     *            Which sort of entity this is
+     * @param name
+     *            Name of the image
+     * @param width
+     *            Width of the entity
+     * @param height
+     *            Height of the entity
+     * @param density
+     *            Density of the body, or 0 if there is none
+     * @param elasticity
+     *            Elasticity of the body, or 0 if there is none
+     * @param friction
+     *            Friction of the body, or 0 if there is none
+     * @return a key for reuse() and track()
+     */
+    static String key(String kind, String name, float width, float height, float density, float elasticity,
+            float friction)
+    {
+        probe.kind = kind;
+        probe.name = name;
+        probe.width = width;
+        probe.height = height;
+        probe.density = density;
+        probe.elasticity = elasticity;
+        probe.friction = friction;
+        String key = keys.get(probe);
+        if (key == null) {
+            PoolKey k = new PoolKey();
+            k.kind = kind;
+            k.name = name;
+            k.width = width;
+            k.height = height;
+            k.density = density;
+            k.elasticity = elasticity;
+            k.friction = friction;
+            key = kind + ":" + name + ":" + width + "x" + height + ":" + density + "/" + elasticity + "/" + friction;
+            keys.put(k, key);
+        }
+        return key;
+    }
+
+    /**
+     * Ask for a pooled entity. This only ever succeeds while a chunk is being
+     * built, so other levels are unaffected.
+     * 
+     * The entity is moved into place and reset by the pool (see
+     * SpritePool.obtain), and belongs to the chunk being built, so the caller
+     * should not track() it.
+     * 
+     * @param key
+     *            The pool to draw from, from key()
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     * @return an entity from the pool, or null if a new one must be made
+     */
+    static IEntity reuse(String key, float x, float y)
+    {
+        if (building == null)
+            return null;
+        SpritePool<IEntity> pool = pools.get(key);
+        if (pool == null) {
+            pool = new SpritePool<IEntity>(key, 0, true, null);
+            pools.put(key, pool);
+        }
+        IEntity e = pool.obtain(x, y);
+        if (e != null)
+            building.add(e, pool);
+        return e;
+    }
+
+    /**
+     * Record that a new entity belongs to the chunk being built, so that it is
+     * pooled when the chunk is retired. This does nothing when we aren't
+     * building a chunk.
+     * 
+     * @param e
+     *            The entity, which was made because reuse() returned null
+     * @param key
+     *            The pool it returns to, from key()
+     */
+    static void track(IEntity e, String key)
+    {
+        if (building == null)
+            return;
+        SpritePool<IEntity> pool = pools.get(key);
+        pool.adopt();
+        building.add(e, pool);
+    }
+
+    /**
+     * Report whether a chunk is being built right now
+     * 
+     * @return true if entities being made now will be pooled later
+     */
+    static boolean isBuilding()
+    {
+        return building != null;
+    }
+}
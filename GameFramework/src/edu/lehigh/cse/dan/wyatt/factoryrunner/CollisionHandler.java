@@ -0,0 +1,20 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * CollisionHandler is the interface for code that responds to a collision
+ * between two specific types of PhysicsSprite. Handlers are registered with the
+ * CollisionTable for a pair of types.
+ */
+interface CollisionHandler
+{
+    /**
+     * Respond to a collision
+     * 
+     * @param first
+     *            The entity with the smaller type, i.e., the more important of
+     *            the two
+     * @param second
+     *            The entity with the larger type
+     */
+    void onCollide(PhysicsSprite first, PhysicsSprite second);
+}
@@ -0,0 +1,94 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * The CollisionTable maps a pair of PhysicsSprite types to the one handler
+ * that knows what to do when those two types collide.
+ * 
+ * The table is a dense 2D array indexed by the two types, so dispatching a
+ * collision is a single lookup no matter how many types there are. Any pair
+ * without a registered handler falls back to calling onCollide on the entity
+ * with the smaller type, which is how the framework has always worked.
+ * 
+ * To add a new kind of entity, give it a new TYPE_ constant in PhysicsSprite
+ * and register handlers for the pairs it cares about. There is no need to
+ * touch Hero or any other entity.
+ */
+class CollisionTable
+{
+    /**
+     * The fallback handler: let the more important entity decide
+     */
+    private static final CollisionHandler DEFAULT = new CollisionHandler() {
+        @Override
+        public void onCollide(PhysicsSprite first, PhysicsSprite second)
+        {
+            first.onCollide(second);
+        }
+    };
+
+    /**
+     * Handlers, indexed by [smaller type][larger type]
+     */
+    private static final CollisionHandler[][] handlers = new CollisionHandler[PhysicsSprite.TYPE_COUNT][PhysicsSprite.TYPE_COUNT];
+
+    static {
+        clear();
+    }
+
+    /**
+     * CollisionTable is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private CollisionTable()
+    {
+    }
+
+    /**
+     * Indicate the code to run when two types of entities collide
+     * 
+     * @param typeA
+     *            Type of one of the entities
+     * @param typeB
+     *            Type of the other entity
+     * @param handler
+     *            Code to run. Its first parameter will always be the entity
+     *            with the smaller type.
+     */
+    static void register(int typeA, int typeB, CollisionHandler handler)
+    {
+        int lo = typeA < typeB ? typeA : typeB;
+        int hi = typeA < typeB ? typeB : typeA;
+        handlers[lo][hi] = handler;
+    }
+
+    /**
+     * Forget all registered handlers, so that every pair uses the default
+     * behavior
+     */
+    static void clear()
+    {
+        for (int i = 0; i < PhysicsSprite.TYPE_COUNT; ++i)
+            for (int j = 0; j < PhysicsSprite.TYPE_COUNT; ++j)
+                handlers[i][j] = DEFAULT;
+    }
+
+    /**
+     * Run the handler for a collision
+     * 
+     * @param a
+     *            One of the entities involved in the collision
+     * @param typeA
+     *            The type of a when the collision happened
+     * @param b
+     *            The other entity involved in the collision
+     * @param typeB
+     *            The type of b when the collision happened
+     */
+    static void dispatch(PhysicsSprite a, int typeA, PhysicsSprite b, int typeB)
+    {
+        if (typeA > typeB)
+            handlers[typeB][typeA].onCollide(b, a);
+        else
+            handlers[typeA][typeB].onCollide(a, b);
+    }
+}
@@ -0,0 +1,212 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import org.anddev.andengine.util.Debug;
+
+import com.badlogic.gdx.physics.box2d.Contact;
+
+/**
+ * ContactQueue is a ring buffer of collisions that Box2D has reported but that
+ * we have not yet handled.
+ *
+ * Box2D reports contacts from inside of its step routine, where it is not safe
+ * to change the world. Rather than allocate a Runnable for every contact, we
+ * record the two entities (and their types at the time of the contact) in
+ * preallocated arrays, and then drain the whole queue once the step is done.
+ *
+ * Both pushing and draining happen on the update thread, so no locking is
+ * needed.
+ */
+class ContactQueue
+{
+    /**
+     * The first entity involved in each queued contact
+     */
+    private PhysicsSprite[] spriteA;
+
+    /**
+     * The second entity involved in each queued contact
+     */
+    private PhysicsSprite[] spriteB;
+
+    /**
+     * The type of the first entity when the contact happened
+     */
+    private int[] typeA;
+
+    /**
+     * The type of the second entity when the contact happened
+     */
+    private int[] typeB;
+
+    /**
+     * Capacity - 1. The capacity is always a power of 2, so this turns a
+     * running counter into an array index
+     */
+    private int mask;
+
+    /**
+     * Running count of contacts that have been drained
+     */
+    private int head;
+
+    /**
+     * Running count of contacts that have been pushed
+     */
+    private int tail;
+
+    /**
+     * Create a queue
+     *
+     * @param capacity
+     *            Number of contacts that can be held before the queue has to
+     *            grow. This will be rounded up to a power of 2.
+     */
+    ContactQueue(int capacity)
+    {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        allocate(size);
+    }
+
+    /**
+     * Make (or remake) the backing arrays
+     *
+     * @param size
+     *            New capacity. Must be a power of 2
+     */
+    private void allocate(int size)
+    {
+        spriteA = new PhysicsSprite[size];
+        spriteB = new PhysicsSprite[size];
+        typeA = new int[size];
+        typeB = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Record a contact reported by Box2D, if it is between two entities
+     *
+     * @param contact
+     *            The contact
+     */
+    void push(Contact contact)
+    {
+        // get the two objects' userdata
+        final Object a = contact.getFixtureA().getBody().getUserData();
+        final Object b = contact.getFixtureB().getBody().getUserData();
+
+        // we only do more if both are GFObjects
+        if (!(a instanceof PhysicsSprite) || !(b instanceof PhysicsSprite)) {
+            if (Framework.debugCollisions)
+                Debug.d("Collision: " + a + " hit " + b);
+            return;
+        }
+        push((PhysicsSprite) a, (PhysicsSprite) b);
+    }
+
+    /**
+     * Record a contact between two entities
+     *
+     * @param a
+     *            The first entity involved in the contact
+     * @param b
+     *            The second entity involved in the contact
+     */
+    void push(PhysicsSprite a, PhysicsSprite b)
+    {
+        // if a burst of contacts fills the queue, double its size. This only
+        // happens when we hit a new high-water mark, so a level quickly stops
+        // allocating here
+        if (tail - head > mask)
+            grow();
+        int i = tail & mask;
+        spriteA[i] = a;
+        spriteB[i] = b;
+        typeA[i] = a.myType;
+        typeB[i] = b.myType;
+        tail++;
+    }
+
+    /**
+     * Double the capacity of the queue, preserving the pending contacts
+     */
+    private void grow()
+    {
+        PhysicsSprite[] oldA = spriteA;
+        PhysicsSprite[] oldB = spriteB;
+        int[] oldTypeA = typeA;
+        int[] oldTypeB = typeB;
+        int oldMask = mask;
+        int count = tail - head;
+        allocate((oldMask + 1) * 2);
+        for (int n = 0; n < count; ++n) {
+            int from = (head + n) & oldMask;
+            spriteA[n] = oldA[from];
+            spriteB[n] = oldB[from];
+            typeA[n] = oldTypeA[from];
+            typeB[n] = oldTypeB[from];
+        }
+        head = 0;
+        tail = count;
+        Debug.d("ContactQueue grew to " + (mask + 1));
+    }
+
+    /**
+     * Handle every pending contact, in the order in which they happened
+     *
+     * The CollisionTable picks the handler for each pair. Note that a
+     * handler may reset the level, which clears the queue; re-reading head and
+     * tail on every iteration makes that safe.
+     */
+    void drain()
+    {
+        if (Profiler.isEnabled())
+            Profiler.countContacts(tail - head);
+        while (head != tail) {
+            int i = head & mask;
+            PhysicsSprite a = spriteA[i];
+            PhysicsSprite b = spriteB[i];
+            int ta = typeA[i];
+            int tb = typeB[i];
+            // don't keep entities alive just because they once collided
+            spriteA[i] = null;
+            spriteB[i] = null;
+            head++;
+
+            // an earlier handler may have destroyed one of the entities
+            if (a.destroyed || b.destroyed)
+                continue;
+
+            if (Framework.debugCollisions)
+                Debug.d("Collision: " + a + " hit " + b);
+
+            CollisionTable.dispatch(a, ta, b, tb);
+        }
+    }
+
+    /**
+     * Throw away all pending contacts, e.g., because the level is being reset
+     */
+    void clear()
+    {
+        while (head != tail) {
+            int i = head & mask;
+            spriteA[i] = null;
+            spriteB[i] = null;
+            head++;
+        }
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * Report the number of pending contacts
+     *
+     * @return the number of contacts that have been pushed but not drained
+     */
+    int size()
+    {
+        return tail - head;
+    }
+}
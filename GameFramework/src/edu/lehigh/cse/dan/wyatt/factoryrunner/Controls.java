@@ -3,8 +3,9 @@ package edu.lehigh.cse.dan.wyatt.factoryrunner;
 import org.anddev.andengine.engine.camera.hud.HUD;
 import org.anddev.andengine.engine.handler.timer.ITimerCallback;
 import org.anddev.andengine.engine.handler.timer.TimerHandler;
+import org.anddev.andengine.entity.scene.Scene;
+import org.anddev.andengine.entity.scene.Scene.IOnSceneTouchListener;
 import org.anddev.andengine.entity.sprite.AnimatedSprite;
-import org.anddev.andengine.entity.text.ChangeableText;
 import org.anddev.andengine.input.touch.TouchEvent;
 import org.anddev.andengine.opengl.font.Font;
 import org.anddev.andengine.opengl.texture.TextureOptions;
@@ -55,12 +56,25 @@ public class Controls
     static boolean timeractive;
 
     /**
-     * Store the duration between when the program started and when the current
-     * level started, so that we can reuse the timer from one level to the next
+     * Number of whole seconds the stopwatch has counted in this level
      */
-    private static float timerDelta;
     private static int secondsSurvived;
 
+    /**
+     * Seconds left on the countdown
+     */
+    private static float secondsLeft;
+
+    /**
+     * The goodie count on the HUD, or null if it isn't shown
+     */
+    private static HudCounter goodieCounter;
+
+    /**
+     * The strength meter on the HUD, or null if it isn't shown
+     */
+    private static HudCounter strengthCounter;
+
     /**
      * Controls is a pure static class, and should never be constructed
      * explicitly
@@ -77,6 +91,32 @@ public class Controls
     {
         hud = new HUD();
         Framework.self().myCamera.setHUD(hud);
+        goodieCounter = null;
+        strengthCounter = null;
+    }
+
+    /**
+     * Code that changes the number of goodies collected calls this, so that
+     * the goodie count can be updated
+     */
+    static void onGoodiesChanged()
+    {
+        if (goodieCounter != null)
+            goodieCounter.set(Goodie.goodiescollected);
+    }
+
+    /**
+     * Code that changes a hero's strength calls this, so that the strength
+     * meter can be updated
+     * 
+     * @param h
+     *            The hero whose strength changed. The meter shows the last
+     *            hero that was made.
+     */
+    static void onStrengthChanged(Hero h)
+    {
+        if (strengthCounter != null && h == Hero.lastHero)
+            strengthCounter.set(h.strength);
     }
 
     /**
@@ -88,41 +128,33 @@ public class Controls
      */
     public static void addCountdown(float timeout)
     {
-        // figure out how much time between right now, and when the program
-        // started.
-        timerDelta = Framework.self().getEngine().getSecondsElapsedTotal();
-
         // record how many seconds to complete this level
-        final float countdownFrom = timeout;
+        secondsLeft = timeout;
 
         // turn on the timer
         timeractive = true;
 
         // make the text object to display
-        final ChangeableText elapsedText = new ChangeableText(220, 10, hudFont, "", "XXXX".length());
+        final HudCounter counter = new HudCounter(220, 10, "", 4, "");
+        counter.set((int) secondsLeft);
 
-        // set up an autoupdate for the time every .05 seconds
-        TimerHandler HUDTimer = new TimerHandler(1 / 20.0f, true, new ITimerCallback() {
+        // the text only changes once a second, so that's how often we tick
+        TimerHandler HUDTimer = new TimerHandler(1, true, new ITimerCallback() {
             @Override
             public void onTimePassed(TimerHandler pTimerHandler)
             {
-                // get the elapsed time for this level
-                float newtext = Framework.self().getEngine().getSecondsElapsedTotal() - timerDelta;
-                newtext = countdownFrom - newtext;
+                secondsLeft -= 1;
                 // figure out if time is up
-                if (newtext < 0) {
-                    newtext = 0;
+                if (secondsLeft <= 0) {
+                    counter.set(0);
+                    pTimerHandler.setAutoReset(false);
                     Framework.self().menuManager.loseLevel("Time Up");
+                    return;
                 }
-                // update the text
-                if (timeractive)
-                    elapsedText.setText("" + (int) newtext);
+                counter.set((int) secondsLeft);
             }
         });
         Level.current.registerUpdateHandler(HUDTimer);
-
-        // Add the text to the HUD
-        Framework.self().myCamera.getHUD().attachChild(elapsedText);
     }
 
     /**
@@ -320,28 +352,11 @@ public class Controls
         // turn on the timer
         timeractive = true;
 
-        final String suffix = (max > 0) ? "/" + max + " Goodies" : " Goodies";
-
-        // make the text object to display
-        final ChangeableText elapsedText = new ChangeableText(220, 280, hudFont, "", "XXX/XXX Goodies".length());
-
-        // set up an autoupdate for the time every .05 seconds
-        TimerHandler HUDTimer = new TimerHandler(1 / 20.0f, true, new ITimerCallback() {
-            @Override
-            public void onTimePassed(TimerHandler pTimerHandler)
-            {
-                // get elapsed time for this level
-                String newtext = "" + Goodie.goodiescollected + suffix;
-
-                // update the text
-                if (timeractive)
-                    elapsedText.setText(newtext);
-            }
-        });
-        Level.current.registerUpdateHandler(HUDTimer);
+        String suffix = (max > 0) ? "/" + max + " Goodies" : " Goodies";
 
-        // add the text to the hud
-        Framework.self().myCamera.getHUD().attachChild(elapsedText);
+        // make the text object to display. Collecting a goodie updates it
+        goodieCounter = new HudCounter(220, 280, "", 3, suffix);
+        goodieCounter.set(Goodie.goodiescollected);
     }
 
     /**
@@ -432,22 +447,65 @@ public class Controls
      */
     static void addShootButton(int x, int y, int width, int height, String name)
     {
-        TiledTextureRegion ttr = Media.getImage(name);
-        AnimatedSprite s = new AnimatedSprite(x, y, width, height, ttr) {
-            float lastTouch;
+        ShootButton s = new ShootButton(x, y, width, height, Media.getImage(name));
+        hud.attachChild(s);
+        hud.registerTouchArea(s);
+        hud.setOnSceneTouchListener(s);
+    }
 
-            @Override
-            public boolean onAreaTouched(TouchEvent e, float x, float y)
-            {
-                float now = Framework.self().getEngine().getSecondsElapsedTotal();
-                if (now < lastTouch + 0.25)
-                    return false;
-                Bullet.shoot(Hero.lastHero.getX(), Hero.lastHero.getY());
+    /**
+     * The shoot button holds the trigger for as long as the finger that
+     * pressed it stays on it. The button only hears about touches that are
+     * over it, so it also listens to the HUD, which hears about the touches
+     * that no button took: if the finger shows up there, it has slid off the
+     * button or lifted somewhere else, and the trigger is released.
+     */
+    private static final class ShootButton extends AnimatedSprite implements IOnSceneTouchListener
+    {
+        /**
+         * Pointer ID of the finger holding the trigger, or -1
+         */
+        private int finger = -1;
+
+        ShootButton(float x, float y, float width, float height, TiledTextureRegion ttr)
+        {
+            super(x, y, width, height, ttr);
+        }
+
+        @Override
+        public boolean onAreaTouched(TouchEvent e, float x, float y)
+        {
+            if (e.getAction() == MotionEvent.ACTION_DOWN) {
+                finger = e.getPointerID();
+                Bullet.holdTrigger(Hero.lastHero);
                 return true;
             }
-        };
-        hud.attachChild(s);
-        hud.registerTouchArea(s);
+            if (e.getPointerID() == finger
+                    && (e.getAction() == MotionEvent.ACTION_UP || e.getAction() == MotionEvent.ACTION_OUTSIDE || e
+                            .getAction() == MotionEvent.ACTION_CANCEL)) {
+                release();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onSceneTouchEvent(Scene scene, TouchEvent e)
+        {
+            if (e.getPointerID() == finger)
+                release();
+            // the touch still goes on to the level
+            return false;
+        }
+
+        /**
+         * Let go of the trigger
+         */
+        private void release()
+        {
+            finger = -1;
+            Bullet.releaseTrigger();
+        }
     }
 
     /**
@@ -455,33 +513,28 @@ public class Controls
      */
     static public void addStopwatch()
     {
-        // figure out how much time between right now, and when the program
-        // started
-        timerDelta = Framework.self().getEngine().getSecondsElapsedTotal();
+        // start counting from zero
+        secondsSurvived = 0;
 
         // turn on the timer
         timeractive = true;
 
         // make the text object to display
-        final ChangeableText elapsedText = new ChangeableText(20, 10, hudFont, "", "XXXXXXXXXXXXXXXXXXXXXXX".length());
+        final HudCounter counter = new HudCounter(20, 10, "Survived: ", 10, "s");
+        counter.set(0);
 
-        // set up an autoupdate for the time every .05 seconds
-        TimerHandler HUDTimer = new TimerHandler(1 / 20.0f, true, new ITimerCallback() {
+        // the text only changes once a second, so that's how often we tick
+        TimerHandler HUDTimer = new TimerHandler(1, true, new ITimerCallback() {
             @Override
             public void onTimePassed(TimerHandler pTimerHandler)
             {
-                // get elapsed time for this level
-                float newtext = Framework.self().getEngine().getSecondsElapsedTotal() - timerDelta;
-                // update the text
-                if (timeractive)
-                    elapsedText.setText("Survived: " + (int) newtext + "s");
-                secondsSurvived = (int) newtext;
+                if (!timeractive)
+                    return;
+                secondsSurvived++;
+                counter.set(secondsSurvived);
             }
         });
         Level.current.registerUpdateHandler(HUDTimer);
-
-        // add the text to the hud
-        Framework.self().myCamera.getHUD().attachChild(elapsedText);
     }
     
     static public int getSecondsSurvived(){
@@ -497,26 +550,11 @@ public class Controls
         // turn on the timer
         timeractive = true;
 
-        // make the text object to display
-        final ChangeableText elapsedText = new ChangeableText(220, 280, hudFont, "", "XXXX Strength".length());
-
-        // set up an autoupdate for the time every .05 seconds
-        TimerHandler HUDTimer = new TimerHandler(1 / 20.0f, true, new ITimerCallback() {
-            @Override
-            public void onTimePassed(TimerHandler pTimerHandler)
-            {
-                // get elapsed time for this level
-                String newtext = "" + Hero.lastHero.strength;
-
-                // update the text
-                if (timeractive)
-                    elapsedText.setText(newtext + " Strength");
-            }
-        });
-        Level.current.registerUpdateHandler(HUDTimer);
-
-        // add the text to the hud
-        Framework.self().myCamera.getHUD().attachChild(elapsedText);
+        // make the text object to display. Heroes update it when their
+        // strength changes
+        strengthCounter = new HudCounter(220, 280, "", 4, " Strength");
+        if (Hero.lastHero != null)
+            strengthCounter.set(Hero.lastHero.strength);
     }
 
     /**
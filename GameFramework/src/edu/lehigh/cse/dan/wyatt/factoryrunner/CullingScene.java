@@ -0,0 +1,357 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.anddev.andengine.engine.camera.Camera;
+import org.anddev.andengine.engine.handler.IUpdateHandler;
+import org.anddev.andengine.entity.IEntity;
+import org.anddev.andengine.entity.primitive.Line;
+import org.anddev.andengine.entity.scene.Scene;
+import org.anddev.andengine.entity.shape.IShape;
+
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+
+/**
+ * A CullingScene is a Scene that only updates and draws the children that are
+ * near the camera.
+ *
+ * Our levels are long and only scroll sideways, so the scene keeps a grid of
+ * CELL_WIDTH-wide columns, and remembers which columns each child overlaps.
+ * Every frame, only the columns that overlap the camera (plus MARGIN on each
+ * side) are visited, so the cost of a frame doesn't grow with the length of
+ * the level.
+ *
+ * Entities that can move on their own (non-static PhysicsSprites, and
+ * PhysicsSprites that follow a path) aren't put in the grid. They are few, so
+ * they are always updated (PhysicsActivity pauses the ones that are far away),
+ * and are checked against the camera every frame to see if they need
+ * drawing. Entities whose size we can't know (e.g., an Entity holding the
+ * lines of an SVG drawing) are always updated and drawn. Code that moves a
+ * gridded entity to a new place (e.g., when reusing it from a pool) must call
+ * relocate().
+ *
+ * The children list of the scene is still complete and in order, and the
+ * children that are visited are drawn in the order in which they were
+ * attached.
+ */
+public class CullingScene extends Scene
+{
+    /**
+     * Width of each column of the grid
+     */
+    static final int CELL_WIDTH = 256;
+
+    /**
+     * How far past each side of the camera an entity can be and still be
+     * updated and drawn
+     */
+    static final int MARGIN = 128;
+
+    /**
+     * What the scene knows about each child
+     */
+    private static final class Entry
+    {
+        /**
+         * The child
+         */
+        IEntity entity;
+
+        /**
+         * Order in which the child was attached, for drawing in the right
+         * order
+         */
+        int seq;
+
+        /**
+         * First and last grid column that the child was placed in, or -1 if
+         * it is not in the grid
+         */
+        int firstCell = -1;
+        int lastCell = -1;
+
+        /**
+         * Last frame in which the child was collected, so that a child in
+         * several columns is only visited once
+         */
+        int stamp = -1;
+    }
+
+    /**
+     * Entries of every child, so that they can be found when the child is
+     * detached or moved
+     */
+    private final HashMap<IEntity, Entry> entries = new HashMap<IEntity, Entry>();
+
+    /**
+     * The grid. Column i holds entries that overlap [i * CELL_WIDTH, (i + 1) *
+     * CELL_WIDTH). Columns are made as needed.
+     */
+    private final ArrayList<ArrayList<Entry>> cells = new ArrayList<ArrayList<Entry>>();
+
+    /**
+     * Children that move on their own, and are checked every frame
+     */
+    private final ArrayList<Entry> movers = new ArrayList<Entry>();
+
+    /**
+     * Children that are always updated and drawn
+     */
+    private final ArrayList<Entry> unbounded = new ArrayList<Entry>();
+
+    /**
+     * Children that were attached or moved since the last frame. They are put
+     * in the grid at the start of the next frame, once the code that made
+     * them has finished setting them up.
+     */
+    private final ArrayList<Entry> pending = new ArrayList<Entry>();
+
+    /**
+     * The children to update this frame
+     */
+    private final ArrayList<Entry> toUpdate = new ArrayList<Entry>();
+
+    /**
+     * The children to draw this frame
+     */
+    private final ArrayList<Entry> toDraw = new ArrayList<Entry>();
+
+    /**
+     * Counter for Entry.seq
+     */
+    private int nextSeq = 0;
+
+    /**
+     * Counter for Entry.stamp
+     */
+    private int frame = 0;
+
+    /**
+     * Create an empty scene
+     */
+    CullingScene()
+    {
+        // Entity.onManagedUpdate would update every child, so we turn that off
+        // and update the nearby children from an update handler instead. It is
+        // registered first, so it runs last, just as the children would.
+        setChildrenIgnoreUpdate(true);
+        registerUpdateHandler(new IUpdateHandler() {
+            @Override
+            public void onUpdate(float pSecondsElapsed)
+            {
+                collect(Framework.self().myCamera, toUpdate, true);
+                for (int i = 0; i < toUpdate.size(); ++i)
+                    toUpdate.get(i).entity.onUpdate(pSecondsElapsed);
+                toUpdate.clear();
+            }
+
+            @Override
+            public void reset()
+            {
+            }
+        });
+    }
+
+    @Override
+    public void attachChild(IEntity pEntity) throws IllegalStateException
+    {
+        super.attachChild(pEntity);
+        Entry e = new Entry();
+        e.entity = pEntity;
+        e.seq = nextSeq++;
+        entries.put(pEntity, e);
+        pending.add(e);
+    }
+
+    @Override
+    public boolean attachChild(IEntity pEntity, int pIndex) throws IllegalStateException
+    {
+        if (!super.attachChild(pEntity, pIndex))
+            return false;
+        Entry e = new Entry();
+        e.entity = pEntity;
+        entries.put(pEntity, e);
+        pending.add(e);
+        // the new child is in the middle of the drawing order, so renumber
+        for (int i = 0; i < getChildCount(); ++i)
+            entries.get(getChild(i)).seq = i;
+        nextSeq = getChildCount();
+        return true;
+    }
+
+    @Override
+    public boolean detachChild(IEntity pEntity)
+    {
+        if (!super.detachChild(pEntity))
+            return false;
+        Entry e = entries.remove(pEntity);
+        if (e != null)
+            forget(e);
+        return true;
+    }
+
+    @Override
+    public void detachChildren()
+    {
+        super.detachChildren();
+        entries.clear();
+        cells.clear();
+        movers.clear();
+        unbounded.clear();
+        pending.clear();
+    }
+
+    /**
+     * Tell the scene that a child has moved to a new part of the level
+     *
+     * @param pEntity
+     *            The child that moved
+     */
+    void relocate(IEntity pEntity)
+    {
+        Entry e = entries.get(pEntity);
+        if (e == null)
+            return;
+        forget(e);
+        pending.add(e);
+    }
+
+    /**
+     * Take an entry out of the grid and the other lists
+     */
+    private void forget(Entry e)
+    {
+        if (e.firstCell >= 0) {
+            for (int c = e.firstCell; c <= e.lastCell; ++c)
+                cells.get(c).remove(e);
+            e.firstCell = -1;
+            e.lastCell = -1;
+        }
+        movers.remove(e);
+        unbounded.remove(e);
+        pending.remove(e);
+    }
+
+    /**
+     * Put a newly attached or moved entry where it belongs
+     */
+    private void place(Entry e)
+    {
+        IEntity ent = e.entity;
+        if (ent instanceof PhysicsSprite) {
+            PhysicsSprite ps = (PhysicsSprite) ent;
+            if (ps.physBody == null || ps.physBody.getType() != BodyType.StaticBody || ps.isPath()) {
+                movers.add(e);
+                return;
+            }
+        }
+        float left;
+        float right;
+        if (ent instanceof Line) {
+            Line l = (Line) ent;
+            left = Math.min(l.getX1(), l.getX2());
+            right = Math.max(l.getX1(), l.getX2());
+        }
+        else if (ent instanceof IShape) {
+            left = ent.getX();
+            right = left + ((IShape) ent).getWidthScaled();
+        }
+        else {
+            unbounded.add(e);
+            return;
+        }
+        e.firstCell = Math.max(0, (int) (left / CELL_WIDTH));
+        e.lastCell = Math.max(e.firstCell, (int) (right / CELL_WIDTH));
+        while (cells.size() <= e.lastCell)
+            cells.add(new ArrayList<Entry>());
+        for (int c = e.firstCell; c <= e.lastCell; ++c)
+            cells.get(c).add(e);
+    }
+
+    /**
+     * Check if a mover is near the camera
+     */
+    private static boolean near(IEntity ent, float minX, float maxX)
+    {
+        float left = ent.getX();
+        float right = left + ((IShape) ent).getWidthScaled();
+        return right >= minX && left <= maxX;
+    }
+
+    /**
+     * Find the children that are near the camera, in drawing order
+     *
+     * @param camera
+     *            The camera
+     * @param out
+     *            An empty list, to receive the children
+     * @param allMovers
+     *            true to include every mover, no matter where it is
+     */
+    private void collect(Camera camera, ArrayList<Entry> out, boolean allMovers)
+    {
+        for (int i = 0; i < pending.size(); ++i)
+            place(pending.get(i));
+        pending.clear();
+
+        frame++;
+        float minX = camera.getMinX() - MARGIN;
+        float maxX = camera.getMaxX() + MARGIN;
+        int first = Math.max(0, (int) (minX / CELL_WIDTH));
+        int last = Math.min(cells.size() - 1, (int) (maxX / CELL_WIDTH));
+        for (int c = first; c <= last; ++c) {
+            ArrayList<Entry> cell = cells.get(c);
+            for (int i = 0; i < cell.size(); ++i) {
+                Entry e = cell.get(i);
+                if (e.stamp != frame) {
+                    e.stamp = frame;
+                    out.add(e);
+                }
+            }
+        }
+        for (int i = 0; i < movers.size(); ++i) {
+            Entry e = movers.get(i);
+            if (allMovers || near(e.entity, minX, maxX))
+                out.add(e);
+        }
+        for (int i = 0; i < unbounded.size(); ++i)
+            out.add(unbounded.get(i));
+
+        // insertion sort by seq: the lists are short and mostly in order
+        for (int i = 1; i < out.size(); ++i) {
+            Entry e = out.get(i);
+            int j = i - 1;
+            while (j >= 0 && out.get(j).seq > e.seq) {
+                out.set(j + 1, out.get(j));
+                j--;
+            }
+            out.set(j + 1, e);
+        }
+    }
+
+    @Override
+    protected void onManagedUpdate(float pSecondsElapsed)
+    {
+        if (!Profiler.isEnabled()) {
+            super.onManagedUpdate(pSecondsElapsed);
+            return;
+        }
+        long start = System.nanoTime();
+        super.onManagedUpdate(pSecondsElapsed);
+        Profiler.endFrame(pSecondsElapsed, System.nanoTime() - start);
+    }
+
+    @Override
+    protected void onDrawChildren(GL10 pGL, Camera pCamera)
+    {
+        if (mChildren == null || !mChildrenVisible)
+            return;
+        collect(pCamera, toDraw, false);
+        for (int i = 0; i < toDraw.size(); ++i)
+            toDraw.get(i).entity.onDraw(pGL, pCamera);
+        toDraw.clear();
+    }
+}
@@ -0,0 +1,127 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.anddev.andengine.opengl.texture.atlas.bitmap.source.IBitmapTextureAtlasSource;
+import org.anddev.andengine.opengl.texture.source.BaseTextureAtlasSource;
+import org.anddev.andengine.util.Debug;
+import org.anddev.andengine.util.StreamUtils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * A texture source for an image that has already been decoded, e.g., on a
+ * background thread by the AssetLoader.
+ * 
+ * AndEngine asks a source for its Bitmap on the GL thread, when the texture is
+ * uploaded, and recycles the Bitmap right after. The first upload gets the
+ * Bitmap we were given, so no decoding happens on the GL thread. If the
+ * texture has to be uploaded again (e.g., after the GL context is lost), we
+ * fall back to decoding the asset, just like AssetBitmapTextureAtlasSource.
+ */
+class DecodedBitmapTextureAtlasSource extends BaseTextureAtlasSource implements IBitmapTextureAtlasSource
+{
+    /**
+     * Name of the asset the image came from
+     */
+    private final String name;
+
+    /**
+     * Size of the image
+     */
+    private final int width;
+    private final int height;
+
+    /**
+     * The decoded image, until the first upload takes it
+     */
+    private Bitmap bitmap;
+
+    /**
+     * Wrap a decoded image
+     * 
+     * @param name
+     *            Name of the asset the image came from
+     * @param width
+     *            Width of the image
+     * @param height
+     *            Height of the image
+     * @param bitmap
+     *            The decoded image, or null to decode on demand
+     */
+    DecodedBitmapTextureAtlasSource(String name, int width, int height, Bitmap bitmap)
+    {
+        super(0, 0);
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Decode an asset
+     * 
+     * @param name
+     *            Name of the asset
+     * @param config
+     *            Pixel format to decode into
+     * @return the decoded image, or null if the asset can't be read
+     */
+    static Bitmap decode(String name, Bitmap.Config config)
+    {
+        InputStream in = null;
+        try {
+            in = Framework.self().getAssets().open(name);
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inPreferredConfig = config;
+            return BitmapFactory.decodeStream(in, null, opts);
+        }
+        catch (IOException e) {
+            Debug.e("Failed loading Bitmap in DecodedBitmapTextureAtlasSource. AssetPath: " + name, e);
+            return null;
+        }
+        finally {
+            StreamUtils.close(in);
+        }
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public synchronized Bitmap onLoadBitmap(Bitmap.Config config)
+    {
+        Bitmap b = bitmap;
+        // the texture recycles whatever we return, so only hand this out once
+        bitmap = null;
+        if (b != null && !b.isRecycled())
+            return b;
+        return decode(name, config);
+    }
+
+    @Override
+    public DecodedBitmapTextureAtlasSource deepCopy()
+    {
+        DecodedBitmapTextureAtlasSource copy = new DecodedBitmapTextureAtlasSource(name, width, height, null);
+        copy.setTexturePositionX(mTexturePositionX);
+        copy.setTexturePositionY(mTexturePositionY);
+        return copy;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "(" + name + ")";
+    }
+}
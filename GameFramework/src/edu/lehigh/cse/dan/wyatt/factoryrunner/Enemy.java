@@ -1,9 +1,5 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
-import java.util.Random;
-
-import org.anddev.andengine.engine.handler.timer.ITimerCallback;
-import org.anddev.andengine.engine.handler.timer.TimerHandler;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
 
 import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
@@ -41,9 +37,9 @@ public class Enemy extends PhysicsSprite
     static int enemiesDestroyed;
 
     /**
-     * A random number generator for use when reproducing enemies
+     * Number of enemies in play right now
      */
-    private static Random generator = new Random(7);
+    static int alive;
 
     /**
      * Image used for this enemy
@@ -100,6 +96,35 @@ public class Enemy extends PhysicsSprite
      */
     private int reproduceSpawn = 0;
 
+    /**
+     * The enemies that are due in the same slot of the SpawnScheduler's
+     * wheel as this one
+     */
+    Enemy wheelNext;
+    Enemy wheelPrev;
+
+    /**
+     * Tick of the SpawnScheduler's wheel at which this enemy reproduces next
+     */
+    long wakeTick;
+
+    /**
+     * Is this enemy waiting in the SpawnScheduler's wheel?
+     */
+    boolean inWheel;
+
+    /**
+     * Pool of copies of this enemy, shared by its whole family, so that the
+     * offspring that get killed are used again for the next reproductions
+     */
+    private SpritePool<Enemy> brood = null;
+
+    /**
+     * Random numbers for placing this enemy's offspring, shared by its whole
+     * family, so that one family's spawns don't depend on another's
+     */
+    private RandomStream dice = null;
+
     /**
      * Amount of damage this enemy does to a hero on a collision
      */
@@ -115,6 +140,30 @@ public class Enemy extends PhysicsSprite
      */
     boolean killByHeadbutt = false;
 
+    /**
+     * Make an enemy that isn't connected to the physics world. Every enemy in
+     * a level needs a body, so this is only for stand-ins (see the
+     * benchmarks), which must not reproduce through the real spawnChild.
+     * 
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     * @param width
+     *            Width of enemy
+     * @param height
+     *            Height of enemy
+     * @param ttr
+     *            The image to display
+     */
+    Enemy(float x, float y, float width, float height, TiledTextureRegion ttr)
+    {
+        super(x, y, width, height, ttr, PhysicsSprite.TYPE_ENEMY);
+        enemiesCreated++;
+        alive++;
+        killText = "Try again";
+    }
+
     /**
      * Add a simple enemy, who uses a circle as its fixture
      * 
@@ -142,10 +191,8 @@ public class Enemy extends PhysicsSprite
     private Enemy(float x, float y, float width, float height, TiledTextureRegion ttr, boolean stationary,
             float density, float elasticity, float friction, boolean isBox)
     {
-        super(x, y, width, height, ttr, PhysicsSprite.TYPE_ENEMY);
-        enemiesCreated++;
+        this(x, y, width, height, ttr);
         // record information so we can reproduce this enemy if needed
-        killText = "Try again";
         _ttr = ttr;
         _width = width;
         _height = height;
@@ -163,9 +210,26 @@ public class Enemy extends PhysicsSprite
     }
 
     /**
-     * Collision behavior of enemies. Based on our PhysicsSprite numbering
-     * scheme, the only concern is to ensure that when a bullet hits this enemy,
-     * we kill the enemy and hide the bullet.
+     * Register the enemy's collision handlers with the CollisionTable. Based on
+     * our PhysicsSprite numbering scheme, the only concern is to ensure that
+     * when a bullet hits an enemy, we kill the enemy and hide the bullet.
+     * 
+     * This only needs to run once, when the framework starts.
+     */
+    static void configCollisions()
+    {
+        CollisionTable.register(TYPE_ENEMY, TYPE_BULLET, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Enemy) first).onCollideBullet(second);
+            }
+        });
+    }
+
+    /**
+     * Collision behavior of enemies. All the interesting cases are registered
+     * in configCollisions, so there is nothing to do here.
      * 
      * @param other
      *            The other entity involved in the collision
@@ -173,25 +237,86 @@ public class Enemy extends PhysicsSprite
     @Override
     void onCollide(PhysicsSprite other)
     {
-        // only handle bullets
-        if (other.myType == PhysicsSprite.TYPE_BULLET) {
-            // play a sound?
-            if (Bullet.hitSound != null)
-                Bullet.hitSound.play();
-            // kill this enemy
-            enemiesDestroyed++;
-            setVisible(false);
-            physBody.setActive(false);
-            // hide the bullet
-            other.setVisible(false);
-            other.physBody.setActive(false);
-            // check if this wins the level
-            if ((enemiesDestroyed == enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
-                Framework.self().menuManager.winLevel();
-            }
+    }
+
+    /**
+     * Kill this enemy and hide the bullet that hit it
+     * 
+     * @param bullet
+     *            The bullet that hit this enemy
+     */
+    private void onCollideBullet(PhysicsSprite bullet)
+    {
+        // play a sound?
+        if (Bullet.hitSound != null)
+            Bullet.hitSound.play();
+        // kill this enemy
+        enemiesDestroyed++;
+        destroy();
+        // put the bullet back, so it can be shot again
+        ((Bullet) bullet).land();
+        // check if this wins the level
+        if ((enemiesDestroyed == enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
+            Framework.self().menuManager.winLevel();
         }
     }
 
+    /**
+     * Bring a pooled enemy back with its default behavior. This counts as
+     * creating an enemy.
+     * 
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     */
+    @Override
+    void recycle(float x, float y)
+    {
+        enemiesCreated++;
+        alive++;
+        killText = "Try again";
+        damage = 2;
+        killByHeadbutt = false;
+        physBody.getFixtureList().get(0).setSensor(false);
+        reproductions = 0;
+        brood = null;
+        dice = null;
+        super.recycle(x, y);
+    }
+
+    /**
+     * Kill this enemy, along with any reproduction it was waiting for
+     */
+    @Override
+    void destroy()
+    {
+        if (!destroyed && !pooled)
+            leavePlay();
+        super.destroy();
+    }
+
+    /**
+     * Put this enemy in a pool. An enemy that goes back without being killed
+     * (e.g., when its chunk scrolls away) is leaving play too.
+     */
+    @Override
+    void retire()
+    {
+        if (!destroyed)
+            leavePlay();
+        super.retire();
+    }
+
+    /**
+     * Stop counting this enemy as alive, and forget its reproduction
+     */
+    private void leavePlay()
+    {
+        alive--;
+        SpawnScheduler.cancel(this);
+    }
+
     /**
      * Indicate that this enemy can be killed by headbutting it
      */
@@ -221,7 +346,7 @@ public class Enemy extends PhysicsSprite
     void setMoveByTilting()
     {
         if (!isStationary && !isTilt) {
-            Level.accelEntities.add(this);
+            Level.addTiltEntity(this);
             isTilt = true;
         }
     }
@@ -255,63 +380,94 @@ public class Enemy extends PhysicsSprite
         reproductions = numReproductions;
         reproduceDuration = timeBetweenReproductions;
         reproduceSpawn = reproductionsPerInterval;
-        // set up a timer to handle reproduction
-        TimerHandler t = new TimerHandler(reproduceDuration, reproductions > 0, new ITimerCallback() {
-            @Override
-            public void onTimePassed(TimerHandler th)
-            {
-                // don't reproduce dead enemies
-                if (isVisible() && reproductions > 0) {
-                    reproductions--;
-                    // use a random number generator to place the new enemies
-                    for (int i = 0; i < reproduceSpawn; ++i) {
-                        // get a number between 0 and 10
-                        int dice = generator.nextInt(10);
-                        // this will be the next x/y
-                        int nextX, nextY;
-                        // should we make an enemy that is really far away?
-                        if (dice >= 9) {
-                            nextX = generator.nextInt(200) - 50;
-                            nextY = generator.nextInt(100) - 50;
-                        }
-                        else {
-                            nextX = generator.nextInt(10) - 5;
-                            nextY = generator.nextInt(10) - 5;
-                        }
-                        // now that we have deltas, add them to the current
-                        // enemy's position, but don't draw enemies off scene
-                        nextX += getX();
-                        nextY += getY();
-                        if (nextX < 0)
-                            nextX = 0;
-                        if (nextY < 0)
-                            nextY = 0;
-                        if (nextX > Level._width)
-                            nextX = Level._width;
-                        if (nextY > Level._height)
-                            nextY = Level._height;
-                        // make the new enemy exactly like this one
-                        Enemy e = new Enemy(nextX, nextY, _width, _height, _ttr, isStationary, _density, _elasticity,
-                                _friction, _isBox);
-                        e.setKillText(killText);
-                        e.setDamage(damage);
-                        if (isTilt)
-                            e.setMoveByTilting();
-                        if (killByHeadbutt)
-                            e.setKillByHeadbutt();
-                        // The child can only reproduce as many times as its
-                        // parent has left
-                        if (reproductions > 0)
-                            e.setReproductions(reproductions, reproduceDuration, reproduceSpawn);
-                        Level.current.attachChild(e);
-                    }
-                    // NB: if a reproduce enemy has a path, the spawned ones
-                    // won't. Same for if the reproduce enemy has a custom
-                    // animation
+        // the first enemy of a family makes the pool and the random numbers
+        // for all of its offspring
+        if (dice == null)
+            dice = Randoms.stream("Enemy.reproduce").split();
+        if (brood == null) {
+            brood = new SpritePool<Enemy>("Enemy.brood", 0, true, new SpritePool.Factory<Enemy>() {
+                @Override
+                public Enemy make(float x, float y)
+                {
+                    Enemy e = new Enemy(x, y, _width, _height, _ttr, isStationary, _density, _elasticity, _friction,
+                            _isBox);
+                    Level.current.attachChild(e);
+                    return e;
                 }
-            }
-        });
-        Level.current.registerUpdateHandler(t);
+            });
+        }
+        // the SpawnScheduler decides when it happens, and when the offspring
+        // get made
+        if (reproductions > 0)
+            SpawnScheduler.schedule(this, reproduceDuration);
+        else
+            SpawnScheduler.unschedule(this);
+    }
+
+    /**
+     * Reproduce, because the time set by setReproductions has passed. The
+     * offspring are made later, by spawnChild.
+     */
+    void reproduce()
+    {
+        // don't reproduce dead enemies
+        if (!isVisible() || reproductions <= 0)
+            return;
+        reproductions--;
+        // The offspring can only reproduce as many times as their parent has
+        // left
+        SpawnScheduler.request(this, reproduceSpawn, reproductions);
+        if (reproductions > 0)
+            SpawnScheduler.schedule(this, reproduceDuration);
+    }
+
+    /**
+     * Make one offspring of this enemy, near it
+     * 
+     * @param generation
+     *            Number of times that the offspring may reproduce
+     */
+    void spawnChild(int generation)
+    {
+        // get a number between 0 and 10
+        int roll = dice.nextInt(10);
+        // this will be the next x/y
+        int nextX, nextY;
+        // should we make an enemy that is really far away?
+        if (roll >= 9) {
+            nextX = dice.nextInt(200) - 50;
+            nextY = dice.nextInt(100) - 50;
+        }
+        else {
+            nextX = dice.nextInt(10) - 5;
+            nextY = dice.nextInt(10) - 5;
+        }
+        // now that we have deltas, add them to the current enemy's position,
+        // but don't draw enemies off scene
+        nextX += getX();
+        nextY += getY();
+        if (nextX < 0)
+            nextX = 0;
+        if (nextY < 0)
+            nextY = 0;
+        if (nextX > Level._width)
+            nextX = Level._width;
+        if (nextY > Level._height)
+            nextY = Level._height;
+        // make the new enemy exactly like this one
+        Enemy e = brood.obtain(nextX, nextY);
+        e.brood = brood;
+        e.dice = dice;
+        e.setKillText(killText);
+        e.setDamage(damage);
+        if (isTilt)
+            e.setMoveByTilting();
+        if (killByHeadbutt)
+            e.setKillByHeadbutt();
+        if (generation > 0)
+            e.setReproductions(generation, reproduceDuration, reproduceSpawn);
+        // NB: if a reproduce enemy has a path, the spawned ones won't. Same
+        // for if the reproduce enemy has a custom animation
     }
 
     /**
@@ -372,8 +528,18 @@ public class Enemy extends PhysicsSprite
             float elasticity, float friction)
     {
         TiledTextureRegion ttr = Media.getImage(name);
+        // enemies in a streamed chunk can come from a pool
+        String key = null;
+        if (ChunkStreamer.isBuilding()) {
+            key = ChunkStreamer.key("Enemy", name, width, height, density, elasticity, friction);
+            Enemy enemy = (Enemy) ChunkStreamer.reuse(key, x, y);
+            if (enemy != null)
+                return enemy;
+        }
         Enemy enemy = new Enemy(x, y, width, height, ttr, true, density, elasticity, friction, false);
         Level.current.attachChild(enemy);
+        if (key != null)
+            ChunkStreamer.track(enemy, key);
         return enemy;
     }
 
@@ -447,5 +613,7 @@ public class Enemy extends PhysicsSprite
     {
         enemiesCreated = 0;
         enemiesDestroyed = 0;
+        alive = 0;
+        SpawnScheduler.onNewLevel();
     }
 }
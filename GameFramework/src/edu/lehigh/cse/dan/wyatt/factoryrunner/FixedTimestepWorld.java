@@ -0,0 +1,176 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import org.anddev.andengine.extension.physics.box2d.PhysicsConnector;
+import org.anddev.andengine.extension.physics.box2d.PhysicsWorld;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * A FixedTimestepWorld steps Box2D at a fixed rate, no matter how often the
+ * engine updates, so that a level plays out the same way on fast and slow
+ * phones.
+ *
+ * Every update adds the elapsed time to an accumulator, and the world takes as
+ * many fixed steps as fit in it. If the phone falls so far behind that more
+ * than maxStepsPerUpdate steps are due, the extra time is dropped: the game
+ * slows down for a moment instead of spending every frame catching up.
+ *
+ * Whatever is left in the accumulator (less than one step) is used to blend
+ * the last two positions of each moving body (see InterpolatedConnector), so
+ * sprites move smoothly even when the frame rate and the physics rate don't
+ * match.
+ */
+class FixedTimestepWorld extends PhysicsWorld
+{
+    /**
+     * Code that must run around every step, e.g., to apply forces before it
+     * and handle collisions after it
+     */
+    interface StepListener
+    {
+        /**
+         * Called just before each step
+         */
+        void beforeStep();
+
+        /**
+         * Called just after each step, once every InterpolatedConnector has
+         * recorded where its body ended up
+         */
+        void afterStep();
+    }
+
+    /**
+     * Length of each step, in seconds
+     */
+    private final float timeStep;
+
+    /**
+     * Most steps to take in one update
+     */
+    private final int maxStepsPerUpdate;
+
+    /**
+     * Time that has passed but not been simulated yet
+     */
+    private float accumulator = 0;
+
+    /**
+     * How far (from 0 to 1) the time shown on screen is between the last two
+     * steps
+     */
+    private float alpha = 1;
+
+    /**
+     * Number of steps taken since the world was made
+     */
+    private int stepCount = 0;
+
+    /**
+     * Code to run around every step, or null
+     */
+    private StepListener listener;
+
+    /**
+     * Create a world
+     *
+     * @param stepsPerSecond
+     *            How many fixed steps to take per second of game time
+     * @param maxStepsPerUpdate
+     *            Most steps to take in one update, before dropping time
+     * @param gravity
+     *            The default gravity
+     * @param allowSleep
+     *            True if bodies that stop moving may go to sleep
+     */
+    FixedTimestepWorld(int stepsPerSecond, int maxStepsPerUpdate, Vector2 gravity, boolean allowSleep)
+    {
+        super(gravity, allowSleep);
+        this.timeStep = 1.0f / stepsPerSecond;
+        this.maxStepsPerUpdate = maxStepsPerUpdate;
+    }
+
+    /**
+     * Set the code to run around every step
+     *
+     * @param listener
+     *            The code, or null
+     */
+    void setStepListener(StepListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the length of each step, in seconds
+     */
+    float getTimeStep()
+    {
+        return timeStep;
+    }
+
+    /**
+     * @return the number of steps taken since the world was made
+     */
+    int getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**
+     * @return how far (from 0 to 1) the time shown on screen is between the
+     *         last two steps
+     */
+    float getAlpha()
+    {
+        return alpha;
+    }
+
+    @Override
+    public void onUpdate(float pSecondsElapsed)
+    {
+        mRunnableHandler.onUpdate(pSecondsElapsed);
+
+        accumulator += pSecondsElapsed;
+        int steps = 0;
+        while (accumulator >= timeStep) {
+            if (steps == maxStepsPerUpdate) {
+                // too far behind: keep the fraction of a step, drop the rest
+                accumulator -= timeStep * (int) (accumulator / timeStep);
+                break;
+            }
+            if (listener != null)
+                listener.beforeStep();
+            if (Profiler.isEnabled()) {
+                long start = System.nanoTime();
+                mWorld.step(timeStep, mVelocityIterations, mPositionIterations);
+                Profiler.countStep(System.nanoTime() - start);
+            }
+            else {
+                mWorld.step(timeStep, mVelocityIterations, mPositionIterations);
+            }
+            stepCount++;
+            for (int i = 0; i < mPhysicsConnectorManager.size(); ++i) {
+                PhysicsConnector pc = mPhysicsConnectorManager.get(i);
+                if (pc instanceof InterpolatedConnector)
+                    ((InterpolatedConnector) pc).capture();
+            }
+            if (listener != null)
+                listener.afterStep();
+            accumulator -= timeStep;
+            steps++;
+        }
+
+        // move the sprites to where their bodies are at this moment
+        alpha = accumulator / timeStep;
+        mPhysicsConnectorManager.onUpdate(pSecondsElapsed);
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        accumulator = 0;
+        alpha = 1;
+    }
+}
@@ -11,6 +11,8 @@
  */
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
+import java.io.File;
+
 import org.anddev.andengine.engine.Engine;
 import org.anddev.andengine.engine.camera.SmoothCamera;
 import org.anddev.andengine.engine.options.EngineOptions;
@@ -139,49 +141,98 @@ abstract public class Framework extends BaseGameActivity implements IAcceleromet
         if ((pKeyCode == KeyEvent.KEYCODE_BACK) && (pEvent.getAction() == KeyEvent.ACTION_DOWN)) {
             return menuManager.onBack();
         }
+        // while profiling, the menu key saves the recent frames to a file
+        if ((pKeyCode == KeyEvent.KEYCODE_MENU) && (pEvent.getAction() == KeyEvent.ACTION_DOWN)
+                && Profiler.isEnabled()) {
+            mEngine.runOnUpdateThread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    Profiler.dumpCSV();
+                }
+            });
+            return true;
+        }
+        // debugging tools
+        if (debugKeys && (pEvent.getAction() == KeyEvent.ACTION_DOWN)) {
+            if (pKeyCode == KeyEvent.KEYCODE_S) {
+                Simulator.runAllLater();
+                return true;
+            }
+            if (pKeyCode == KeyEvent.KEYCODE_P) {
+                // the histograms are filled on the update thread
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        Profiler.setEnabled(!Profiler.isEnabled());
+                    }
+                });
+                return true;
+            }
+            if (pKeyCode == KeyEvent.KEYCODE_R) {
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        InputTape.record();
+                    }
+                });
+                return true;
+            }
+            if (pKeyCode == KeyEvent.KEYCODE_T) {
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        File tape = InputTape.newest();
+                        if (tape == null)
+                            Debug.d("There is no tape to replay");
+                        else
+                            InputTape.replay(tape);
+                    }
+                });
+                return true;
+            }
+        }
         // fall-back case for other key events
         return super.onKeyDown(pKeyCode, pEvent);
     }
 
     /**
-     * Main collision-detection routine: when a contact occurs, this dispatches
-     * appropriately so that the more important entity manages the collision
+     * Set this to true to print a diagnostic message for every collision.
+     * Building those messages is expensive, so leave it off unless you are
+     * debugging.
+     */
+    static boolean debugCollisions = false;
+
+    /**
+     * Set this to true to turn on the keys (on a phone with a keyboard, or in
+     * the emulator) that start the debugging tools:
+     *
+     * S plays every level with the Simulator, and logs the results
+     *
+     * P turns the Profiler on or off, starting with the next level. While it
+     * is on, the menu key saves the recent frames to a file.
+     *
+     * R records the next level that starts with the InputTape, and T replays
+     * the tape that was recorded last
+     */
+    static boolean debugKeys = false;
+
+    /**
+     * Main collision-detection routine: when a contact occurs, this records it
+     * so that the more important entity can manage the collision once the
+     * physics step is done
      */
     @Override
     public void beginContact(Contact contact)
     {
-        // get the two objects' userdata
-        final Object a = contact.getFixtureA().getBody().getUserData();
-        final Object b = contact.getFixtureB().getBody().getUserData();
-
-        // NB: we can't actually do this work on the local thread; we need to
-        // defer it and run it on the update thread. Otherwise, box2d might
-        // crash.
-        this.runOnUpdateThread(new Runnable() {
-            @Override
-            public void run()
-            {
-                // print a diagnostic message
-                String msg1 = a == null ? "null" : a.toString();
-                String msg2 = b == null ? "null" : b.toString();
-                Debug.d("Collision: " + msg1 + " hit " + msg2);
-
-                // we only do more if both are GFObjects
-                if (!(a instanceof PhysicsSprite) || !(b instanceof PhysicsSprite))
-                    return;
-
-                // filter so that the one with the smaller type handles the
-                // collision
-                PhysicsSprite gfoA = (PhysicsSprite) a;
-                PhysicsSprite gfoB = (PhysicsSprite) b;
-                if (gfoA.myType > gfoB.myType)
-                    gfoB.onCollide(gfoA);
-                else
-                    gfoA.onCollide(gfoB);
-                // at this point, we should check for win/loss
-            }
-        });
-
+        // NB: we can't actually do this work right now; Box2D is in the middle
+        // of a step, and changing the world could crash it. Instead, we queue
+        // the contact, and the level's physics world drains the queue on the
+        // update thread as soon as the step finishes.
+        Level.contacts.push(contact);
     }
 
     /**
@@ -281,8 +332,9 @@ abstract public class Framework extends BaseGameActivity implements IAcceleromet
         // Flickable objects benefit from this
         eo.getTouchOptions().setRunOnUpdateThread(true);
 
-        // now make and return the engine
-        return new Engine(eo);
+        // now make and return the engine. A TapeEngine lets an InputTape
+        // record and replay the player's input
+        return new InputTape.TapeEngine(eo);
     }
 
     /**
@@ -297,6 +349,8 @@ abstract public class Framework extends BaseGameActivity implements IAcceleromet
             helpScene = new HelpScene();
             PopUpScene.config();
             Controls.config();
+            Hero.configCollisions();
+            Enemy.configCollisions();
         }
         return menuManager.display();
     }
@@ -66,6 +66,24 @@ public class Goodie extends PhysicsSprite
         setCirclePhysics(1.0f, 0.3f, 0.6f, bt, false, true, true);
     }
 
+    /**
+     * Bring a pooled goodie back as a plain goodie. This counts as creating a
+     * goodie.
+     * 
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     */
+    @Override
+    void recycle(float x, float y)
+    {
+        goodiescreated++;
+        strengthBoost = 0;
+        invincibilityDuration = 0;
+        super.recycle(x, y);
+    }
+
     /**
      * Goodie collision is meaningless, so we leave this method blank
      */
@@ -138,9 +156,19 @@ public class Goodie extends PhysicsSprite
      */
     static Goodie addStationaryGoodie(float x, float y, float width, float height, String name)
     {
+        // goodies in a streamed chunk can come from a pool
+        String key = null;
+        if (ChunkStreamer.isBuilding()) {
+            key = ChunkStreamer.key("Goodie", name, width, height, 0, 0, 0);
+            Goodie g = (Goodie) ChunkStreamer.reuse(key, x, y);
+            if (g != null)
+                return g;
+        }
         TiledTextureRegion ttr = Media.getImage(name);
         Goodie Goodie = new Goodie(x, y, width, height, ttr, true);
         Level.current.attachChild(Goodie);
+        if (key != null)
+            ChunkStreamer.track(Goodie, key);
         return Goodie;
     }
 
@@ -3,7 +3,6 @@ package edu.lehigh.cse.dan.wyatt.factoryrunner;
 import java.util.ArrayList;
 
 import org.anddev.andengine.entity.sprite.AnimatedSprite;
-import org.anddev.andengine.extension.physics.box2d.PhysicsConnector;
 import org.anddev.andengine.extension.physics.box2d.PhysicsFactory;
 import org.anddev.andengine.input.touch.TouchEvent;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
@@ -254,183 +253,272 @@ public class Hero extends PhysicsSprite
         }
         // shoot?
         if (isTouchShoot)
-            Bullet.shoot(getX(), getY());
+            Bullet.shoot(this);
         return true;
     }
 
     /**
-     * Describe what to do when a hero hits another entity.  This handles all the collisions
-     * with pits, ramps, and killers.
+     * Register the hero's collision handlers with the CollisionTable. Every
+     * handler plays the other entity's sound, if it has one, and then runs the
+     * hero logic for that type of entity.
+     * 
+     * This only needs to run once, when the framework starts.
+     */
+    static void configCollisions()
+    {
+        CollisionTable.register(TYPE_HERO, TYPE_ENEMY, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                ((Hero) first).onCollideEnemy((Enemy) second);
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_GOODIE, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                ((Hero) first).onCollideGoodie((Goodie) second);
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_BULLET, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                // demonstrate how to print debug messages to logcat
+                Debug.d("hero collided with bullet");
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_OBSTACLE, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                ((Hero) first).onCollideObstacle((Obstacle) second);
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_SVG, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                // SVG are like regular obstacles: reenable jumps
+                ((Hero) first).inAir = false;
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_DESTINATION, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                ((Hero) first).playSoundOf(second);
+                ((Hero) first).onCollideDestination((Destination) second);
+            }
+        });
+        CollisionTable.register(TYPE_HERO, TYPE_INFINITE_TRIGGER, new CollisionHandler() {
+            @Override
+            public void onCollide(PhysicsSprite first, PhysicsSprite second)
+            {
+                Hero h = (Hero) first;
+                Obstacle o = (Obstacle) second;
+                h.playSoundOf(o);
+                Log.i("OO", "Collision with infinite trigger of speed " + o.infiniteSpeed);
+                Framework.self().configureInfiniteLevel(o.infiniteSpeed, (int) h.getX());
+            }
+        });
+    }
+
+    /**
+     * Play the sound associated with an entity that the hero just hit
      * 
      * @param other
-     *            The other entity involved in this collision
+     *            The other entity involved in the collision
      */
-    void onCollide(PhysicsSprite other)
+    private void playSoundOf(PhysicsSprite other)
     {
-        Debug.d("Collision with " + other + " of type " + other.myType);
-        // play a sound when we hit this thing?
         if (other.sound != null)
             other.sound.play();
-        
-        // Collision with infinite level trigger
-        if((other.myType & TYPE_INFINITE_TRIGGER) == TYPE_INFINITE_TRIGGER) {
-        	int speed = other.myType & ~TYPE_INFINITE_TRIGGER;
-        	Log.i("OO", "Collision with infinite trigger of speed " + speed);
-        	Framework.self().configureInfiniteLevel(speed, (int) getX());
-        }
+    }
 
-        // logic for collisions with enemies
-        if (other.myType == TYPE_ENEMY) {
-            Enemy e = (Enemy) other;
-            // can we kill it via invincibility?
-            if (invincibleUntil > Framework.self().getEngine().getSecondsElapsedTotal()) {
-                // kill the enemy
-                e.setVisible(false);
-                e.physBody.setActive(false);
-                Enemy.enemiesDestroyed++;
-                if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
-                    Framework.self().menuManager.winLevel();
-                }
-            }
-            // kill by headbutting?
-            else if (headbutt && e.killByHeadbutt) {
-                // kill the enemy
-                e.setVisible(false);
-                e.physBody.setActive(false);
-                Enemy.enemiesDestroyed++;
-                if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
-                    Framework.self().menuManager.winLevel();
-                }
-            }
-            // when we can't kill it by losing strength
-            else if (e.damage >= strength) {
-                // turn off physics updates for the hero, and hide him
-                setVisible(false);
-                physBody.setActive(false);
-                // increase the number of dead heroes
-                heroesDestroyed++;
-                if (heroesDestroyed == heroesCreated) {
-                	Level.pauseScreenRabbit(getX(), getY());
-                    Framework.self().menuManager.loseLevel(e.killText);
-                }
+    /**
+     * Describe what to do when a hero hits another entity. The interesting
+     * cases are all registered in configCollisions, so this only runs for
+     * types that the hero doesn't care about.
+     * 
+     * @param other
+     *            The other entity involved in this collision
+     */
+    void onCollide(PhysicsSprite other)
+    {
+        if (Framework.debugCollisions)
+            Debug.d("Collision with " + other + " of type " + other.myType);
+        playSoundOf(other);
+    }
+
+    /**
+     * Logic for collisions with enemies
+     * 
+     * @param e
+     *            The enemy that the hero hit
+     */
+    private void onCollideEnemy(Enemy e)
+    {
+        // can we kill it via invincibility?
+        if (invincibleUntil > Framework.self().getEngine().getSecondsElapsedTotal()) {
+            // kill the enemy
+            e.destroy();
+            Enemy.enemiesDestroyed++;
+            if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
+                Framework.self().menuManager.winLevel();
             }
-            // when we can kill it by losing strength
-            else {
-                strength -= e.damage;
-                // kill the enemy
-                e.setVisible(false);
-                e.physBody.setActive(false);
-                Enemy.enemiesDestroyed++;
-                if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
-                    Framework.self().menuManager.winLevel();
-                }
+        }
+        // kill by headbutting?
+        else if (headbutt && e.killByHeadbutt) {
+            // kill the enemy
+            e.destroy();
+            Enemy.enemiesDestroyed++;
+            if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
+                Framework.self().menuManager.winLevel();
             }
         }
-        // collision with destination
-        if (other.myType == PhysicsSprite.TYPE_DESTINATION) {
-            Destination d = (Destination) other;
-            // only do something if the hero has enough goodies and there's
-            // room in the destination
-            int currentGoodieScore = Goodie.goodiescollected;
-            if ((currentGoodieScore >= d._activationScore) && (d._holding < d._capacity)) {
-                // hide the hero, disable the hero's motion, and check if the
-                // level is complete
-                Destination.arrivals++;
-                d._holding++;
-                physBody.setActive(false);
-                setVisible(false);
-                if ((Level.victoryType == Level.VICTORY.DESTINATION) && (Destination.arrivals >= Level.victoryVal)) {
-                    Framework.self().menuManager.winLevel();
-                }
+        // when we can't kill it by losing strength
+        else if (e.damage >= strength) {
+            // turn off physics updates for the hero, and hide him
+            setVisible(false);
+            physBody.setActive(false);
+            // increase the number of dead heroes
+            heroesDestroyed++;
+            if (heroesDestroyed == heroesCreated) {
+            	Level.pauseScreenRabbit(getX(), getY());
+                Framework.self().menuManager.loseLevel(e.killText);
             }
         }
-        // collision with obstacles
-        if (other.myType == PhysicsSprite.TYPE_OBSTACLE) {
-        	/* If killer is true, the user will lose the game */
-        	boolean killer = false;
-        	
-            Obstacle o = (Obstacle) other;
-            
-            /* If the obstacle is a ramp and it's completely down on the floor,
-             * make the user "jump".  Otherwise, kill the user.
-             */
-            if(o.isRamp()) {
-            	if(o.getY() > Level.FLOOR_TOP-Obstacle.RAMP_HEIGHT-5)
-            		travelTo(o.getX()+o.getWidth(),getY()-o.getHeight()-15);
-            		//setVelocity(0, -9);
-            	else
-            		killer = true;
+        // when we can kill it by losing strength
+        else {
+            strength -= e.damage;
+            Controls.onStrengthChanged(this);
+            // kill the enemy
+            e.destroy();
+            Enemy.enemiesDestroyed++;
+            if ((Enemy.enemiesDestroyed == Enemy.enemiesCreated) && (Level.victoryType == Level.VICTORY.ENEMYCOUNT)) {
+                Framework.self().menuManager.winLevel();
             }
-            
-            /* If the obstacle is the invisible one on top of a pit, kill
-             * the user.
-             */
-            if(o.isPit()) {
-            	//TODO: animate hero down into pit
-            	killer = true;
+        }
+    }
+
+    /**
+     * Logic for collisions with destinations
+     * 
+     * @param d
+     *            The destination that the hero hit
+     */
+    private void onCollideDestination(Destination d)
+    {
+        // only do something if the hero has enough goodies and there's
+        // room in the destination
+        int currentGoodieScore = Goodie.goodiescollected;
+        if ((currentGoodieScore >= d._activationScore) && (d._holding < d._capacity)) {
+            // hide the hero, disable the hero's motion, and check if the
+            // level is complete
+            Destination.arrivals++;
+            d._holding++;
+            physBody.setActive(false);
+            setVisible(false);
+            if ((Level.victoryType == Level.VICTORY.DESTINATION) && (Destination.arrivals >= Level.victoryVal)) {
+                Framework.self().menuManager.winLevel();
             }
-            
-            if(o.isKiller() || killer) {
-            	setVisible(false);
-                physBody.setActive(false);
-                Framework.self().menuManager.loseLevel("Try Again");
-                Level.pauseScreenRabbit(o.getX(), o.getY());
+        }
+    }
+
+    /**
+     * Logic for collisions with obstacles. This handles all the collisions
+     * with pits, ramps, and killers.
+     * 
+     * @param o
+     *            The obstacle that the hero hit
+     */
+    private void onCollideObstacle(Obstacle o)
+    {
+    	/* If killer is true, the user will lose the game */
+    	boolean killer = false;
+        
+        /* If the obstacle is a ramp and it's completely down on the floor,
+         * make the user "jump".  Otherwise, kill the user.
+         */
+        if(o.isRamp()) {
+        	if(o.getY() > Level.FLOOR_TOP-Obstacle.RAMP_HEIGHT-5)
+        		travelTo(o.getX()+o.getWidth(),getY()-o.getHeight()-15);
+        		//setVelocity(0, -9);
+        	else
+        		killer = true;
+        }
+        
+        /* If the obstacle is the invisible one on top of a pit, kill
+         * the user.
+         */
+        if(o.isPit()) {
+        	//TODO: animate hero down into pit
+        	killer = true;
+        }
+        
+        if(o.isKiller() || killer) {
+        	setVisible(false);
+            physBody.setActive(false);
+            Framework.self().menuManager.loseLevel("Try Again");
+            Level.pauseScreenRabbit(o.getX(), o.getY());
+        }
+        
+        // trigger obstacles cause us to run custom code
+        if (o.isTrigger) {
+            // check if trigger is activated, if so, disable it and run code
+            if (o.triggerActivation <= Goodie.goodiescollected) {
+                o.destroy();
+                Framework.self().onTrigger(Goodie.goodiescollected, o.triggerID);
             }
-            
-            // trigger obstacles cause us to run custom code
-            if (o.isTrigger) {
-                // check if trigger is activated, if so, disable it and run code
-                if (o.triggerActivation <= Goodie.goodiescollected) {
-                    o.setVisible(false);
-                    o.physBody.setActive(false);
-                    Framework.self().onTrigger(Goodie.goodiescollected, o.triggerID);
-                }
+        }
+        // regular obstacles
+        else {
+            // damp obstacles to change the hero physics in funny ways
+            if (o.isDamp) {
+                Vector2 v = physBody.getLinearVelocity();
+                v.x *= o.dampFactor;
+                v.y *= o.dampFactor;
+                physBody.setLinearVelocity(v);
             }
-            // regular obstacles
+            // otherwise, it's probably a wall, so mark us not in the air so
+            // we can do more jumps
             else {
-                // damp obstacles to change the hero physics in funny ways
-                if (o.isDamp) {
-                    Vector2 v = physBody.getLinearVelocity();
-                    v.x *= o.dampFactor;
-                    v.y *= o.dampFactor;
-                    physBody.setLinearVelocity(v);
-                }
-                // otherwise, it's probably a wall, so mark us not in the air so
-                // we can do more jumps
-                else {
-                    inAir = false;
-                }
+                inAir = false;
             }
         }
-        // ignore bullets
-        if (other.myType == PhysicsSprite.TYPE_BULLET) {
-            // demonstrate how to print debug messages to logcat
-            Debug.d("hero collided with bullet");
-        }
-        // SVG are like regular obstacles: reenable jumps
-        if (other.myType == PhysicsSprite.TYPE_SVG) {
-            inAir = false;
+    }
+
+    /**
+     * Logic for collecting goodies
+     * 
+     * @param g
+     *            The goodie that the hero hit
+     */
+    private void onCollideGoodie(Goodie g)
+    {
+        // remove the goodie
+        g.destroy();
+        // count this goodie
+        Goodie.goodiescollected++;
+        Controls.onGoodiesChanged();
+        // update strength
+        strength += g.strengthBoost;
+        Controls.onStrengthChanged(this);
+        // deal with invincibility
+        if (g.invincibilityDuration > 0) {
+            float newExpire = Framework.self().getEngine().getSecondsElapsedTotal() + g.invincibilityDuration;
+            if (newExpire > invincibleUntil)
+                invincibleUntil = newExpire;
         }
-        // collect goodies
-        if (other.myType == PhysicsSprite.TYPE_GOODIE) {
-            Goodie g = (Goodie) other;
-            // hide the goodie
-            g.setVisible(false);
-            g.physBody.setActive(false);
-            // count this goodie
-            Goodie.goodiescollected++;
-            // update strength
-            strength += g.strengthBoost;
-            // deal with invincibility
-            if (g.invincibilityDuration > 0) {
-                float newExpire = Framework.self().getEngine().getSecondsElapsedTotal() + g.invincibilityDuration;
-                if (newExpire > invincibleUntil)
-                    invincibleUntil = newExpire;
-            }
-            // possibly win the level
-            if ((Level.victoryType == Level.VICTORY.GOODIECOUNT) && (Level.victoryVal <= Goodie.goodiescollected)) {
-                Framework.self().menuManager.winLevel();
-            }
+        // possibly win the level
+        if ((Level.victoryType == Level.VICTORY.GOODIECOUNT) && (Level.victoryVal <= Goodie.goodiescollected)) {
+            Framework.self().menuManager.winLevel();
         }
     }
 
@@ -453,6 +541,7 @@ public class Hero extends PhysicsSprite
     void setStrength(int amount)
     {
         strength = amount;
+        Controls.onStrengthChanged(this);
     }
 
     /**
@@ -538,7 +627,7 @@ public class Hero extends PhysicsSprite
 
         // add the hero to the list of entities that get moved when the phone
         // tilts
-        Level.accelEntities.add(hero);
+        Level.addTiltEntity(hero);
         heroes.add(hero);
 
         // let the camera follow this hero
@@ -546,6 +635,7 @@ public class Hero extends PhysicsSprite
 
         // save this as the most recent hero
         lastHero = hero;
+        Controls.onStrengthChanged(hero);
 
         // return the hero, so it can be modified
         return hero;
@@ -591,7 +681,7 @@ public class Hero extends PhysicsSprite
 
         // add the hero to the list of entities that get moved when the phone
         // tilts
-        Level.accelEntities.add(hero);
+        Level.addTiltEntity(hero);
         heroes.add(hero);
 
         // Let the camera follow this hero
@@ -599,6 +689,7 @@ public class Hero extends PhysicsSprite
 
         // save this as the last hero created
         lastHero = hero;
+        Controls.onStrengthChanged(hero);
 
         // return the hero, so it can be modified
         return hero;
@@ -644,7 +735,7 @@ public class Hero extends PhysicsSprite
 
         // add the hero to the list of entities that get moved when the phone
         // tilts
-        Level.accelEntities.add(hero);
+        Level.addTiltEntity(hero);
         heroes.add(hero);
 
         // let the camera follow this hero
@@ -652,6 +743,7 @@ public class Hero extends PhysicsSprite
 
         // save this as the most recent hero
         lastHero = hero;
+        Controls.onStrengthChanged(hero);
 
         // return the hero, so it can be modified
         return hero;
@@ -696,7 +788,7 @@ public class Hero extends PhysicsSprite
 
         // add the hero to the list of entities that get moved when the phone
         // tilts
-        Level.accelEntities.add(hero);
+        Level.addTiltEntity(hero);
         heroes.add(hero);
 
         // Let the camera follow this hero
@@ -704,6 +796,7 @@ public class Hero extends PhysicsSprite
 
         // save this as the last hero created
         lastHero = hero;
+        Controls.onStrengthChanged(hero);
 
         // return the hero, so it can be modified
         return hero;
@@ -772,7 +865,7 @@ public class Hero extends PhysicsSprite
         AnimatedSprite s = new AnimatedSprite(x, y, 1, 1, MenuManager.ttrInvis);
         FixtureDef f = PhysicsFactory.createFixtureDef(0, 0, 0);
         Body b = PhysicsFactory.createCircleBody(Level.physics, s, BodyType.KinematicBody, f);
-        Level.physics.registerPhysicsConnector(new PhysicsConnector(s, b, true, false));
+        Level.physics.registerPhysicsConnector(new InterpolatedConnector(s, b, true, false));
         b.setLinearVelocity(xVelocity, yVelocity);
         Framework.self().myCamera.setChaseEntity(s);
     }
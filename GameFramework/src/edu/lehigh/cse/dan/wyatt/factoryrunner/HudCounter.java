@@ -0,0 +1,117 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import org.anddev.andengine.entity.text.ChangeableText;
+
+/**
+ * A HudCounter is a number on the HUD, with fixed text before and after it
+ * (e.g., "Survived: 12s"). The code that changes the number pushes the new
+ * value with set(), and the text is only rebuilt when the value really
+ * changed, so a counter costs nothing while the number holds still.
+ *
+ * The text is assembled in a char buffer that is made once, so the only
+ * allocation on a change is the String that ChangeableText needs.
+ */
+class HudCounter
+{
+    /**
+     * The text on the HUD
+     */
+    private final ChangeableText text;
+
+    /**
+     * Where the text is assembled. The prefix is copied in once, and stays.
+     */
+    private final char[] buf;
+
+    /**
+     * Length of the prefix
+     */
+    private final int prefixLength;
+
+    /**
+     * The text after the number
+     */
+    private final char[] suffix;
+
+    /**
+     * Largest and smallest values that fit in maxDigits
+     */
+    private final long max;
+    private final long min;
+
+    /**
+     * The value being shown
+     */
+    private int value;
+
+    /**
+     * True once a value has been shown
+     */
+    private boolean shown = false;
+
+    /**
+     * Create a counter and put it on the HUD
+     *
+     * @param x
+     *            X coordinate of the text
+     * @param y
+     *            Y coordinate of the text
+     * @param prefix
+     *            Text before the number
+     * @param maxDigits
+     *            Most digits the number will have, including a minus sign.
+     *            Values that need more are shown as the largest (or
+     *            smallest) value that fits.
+     * @param suffix
+     *            Text after the number
+     */
+    HudCounter(float x, float y, String prefix, int maxDigits, String suffix)
+    {
+        prefixLength = prefix.length();
+        this.suffix = suffix.toCharArray();
+        buf = new char[prefixLength + maxDigits + this.suffix.length];
+        prefix.getChars(0, prefixLength, buf, 0);
+        long limit = 1;
+        for (int i = 0; i < maxDigits; ++i)
+            limit *= 10;
+        max = limit - 1;
+        min = -(limit / 10 - 1);
+        text = new ChangeableText(x, y, Controls.hudFont, "", buf.length);
+        Framework.self().myCamera.getHUD().attachChild(text);
+    }
+
+    /**
+     * Show a new value. Nothing happens if it is the value already shown, or
+     * if the timers are off because the level is over.
+     *
+     * @param v
+     *            The value
+     */
+    void set(int v)
+    {
+        if ((shown && v == value) || !Controls.timeractive)
+            return;
+        shown = true;
+        value = v;
+
+        // digits go in backwards, right after the prefix
+        int pos = prefixLength;
+        long n = v > max ? max : v < min ? min : v;
+        if (n < 0) {
+            buf[pos++] = '-';
+            n = -n;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        for (int i = start, j = pos - 1; i < j; ++i, --j) {
+            char c = buf[i];
+            buf[i] = buf[j];
+            buf[j] = c;
+        }
+        System.arraycopy(suffix, 0, buf, pos, suffix.length);
+        text.setText(new String(buf, 0, pos + suffix.length));
+    }
+}
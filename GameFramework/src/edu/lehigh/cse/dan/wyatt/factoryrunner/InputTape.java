@@ -0,0 +1,677 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.anddev.andengine.engine.Engine;
+import org.anddev.andengine.engine.options.EngineOptions;
+import org.anddev.andengine.input.touch.TouchEvent;
+import org.anddev.andengine.util.Debug;
+
+/**
+ * The InputTape records what a player does during one level, so that exactly
+ * the same session can be played again later, e.g., under the Profiler or a
+ * method trace, to see whether a change made the same play faster or slower.
+ *
+ * A level only plays out the same way twice if it gets the same random
+ * numbers, the same time for every frame, and the same input at the same
+ * moments. So a tape holds the run seed and the level number (see Randoms),
+ * the length of every frame, and every input, stamped with the physics step
+ * at which the game saw it. Touches are recorded before the engine sends them
+ * to the HUD or the scene, so buttons, swipes, drags, and pokes are all
+ * covered. Tilt is recorded whenever the reading used by a step changes.
+ *
+ * During a replay, the engine is told that each frame took as long as it did
+ * when it was recorded, no matter how long it really took. The physics steps,
+ * timers, and touch timing (e.g., swipes) line up exactly, while the Profiler
+ * still measures what each frame really costs. The player's own touches and
+ * tilts are ignored until the tape ends. Touches are kept in screen
+ * coordinates, so a tape must be replayed on a screen of the same size.
+ *
+ * A tape is compact binary: a header, and then one record per frame or
+ * input, made of a one-byte tag and a few fields. Counts are written as
+ * variable-length integers, so a frame without input takes a few bytes.
+ *
+ * The hooks only work if the game's engine is a TapeEngine, which Framework
+ * makes. Everything here must be called on the update thread.
+ */
+class InputTape
+{
+    /**
+     * The first four bytes of every tape ("FRIT")
+     */
+    private static final int MAGIC = 0x46524954;
+
+    /**
+     * Version of the format
+     */
+    private static final short VERSION = 1;
+
+    /**
+     * Last record of a tape
+     */
+    private static final int END = 0;
+
+    /**
+     * Start of a frame: the frame's length in nanoseconds, and the number of
+     * steps taken in the frame before it
+     */
+    private static final int FRAME = 1;
+
+    /**
+     * A touch during the frame: action, pointer, and screen x and y
+     */
+    private static final int TOUCH = 2;
+
+    /**
+     * A new tilt reading: the number of steps already taken in the frame, and
+     * the x and y of the reading
+     */
+    private static final int TILT = 3;
+
+    /**
+     * What the tape is doing
+     */
+    private static final int IDLE = 0;
+    private static final int RECORDING = 1;
+    private static final int STARTING = 2;
+    private static final int REPLAYING = 3;
+
+    /**
+     * An Engine that lets the InputTape see every frame and every touch, and
+     * change how long a frame took
+     */
+    static class TapeEngine extends Engine
+    {
+        /**
+         * How far the engine's clock is ahead of the real one, because
+         * replayed frames were given their recorded lengths
+         */
+        private long skew = 0;
+
+        /**
+         * Create an engine
+         *
+         * @param options
+         *            The options for the engine
+         */
+        TapeEngine(EngineOptions options)
+        {
+            super(options);
+        }
+
+        @Override
+        public synchronized void start()
+        {
+            // the engine restarts its clock from the real time
+            if (!isRunning())
+                skew = 0;
+            super.start();
+        }
+
+        @Override
+        protected long calculateNanosecondsElapsed(long now, long last)
+        {
+            long real = now - last + skew;
+            long told = InputTape.onFrame(real);
+            skew += told - real;
+            return told;
+        }
+
+        @Override
+        public boolean onTouchEvent(TouchEvent te)
+        {
+            if (!InputTape.onTouch(te))
+                return true;
+            return super.onTouchEvent(te);
+        }
+
+        @Override
+        protected void updateUpdateHandlers(float pSecondsElapsed)
+        {
+            // touches from the tape arrive just after the player's would have
+            InputTape.deliverTouches(this);
+            super.updateUpdateHandlers(pSecondsElapsed);
+        }
+
+        @Override
+        protected void onUpdate(long pNanosecondsElapsed) throws InterruptedException
+        {
+            super.onUpdate(pNanosecondsElapsed);
+            InputTape.afterFrame();
+        }
+    }
+
+    /**
+     * What the tape is doing: IDLE, RECORDING, STARTING (a replay is loaded,
+     * and its level is set up after this frame), or REPLAYING
+     */
+    private static int state = IDLE;
+
+    /**
+     * True once Level.reset has set up the level that the tape covers
+     */
+    private static boolean levelReady;
+
+    /**
+     * True once the tape has started with the level's first frame
+     */
+    private static boolean attached;
+
+    /**
+     * The tape being recorded
+     */
+    private static ByteArrayOutputStream bytes;
+    private static DataOutputStream out;
+
+    /**
+     * The tape being replayed
+     */
+    private static DataInputStream in;
+
+    /**
+     * The level, run seed, and physics step length of the tape being
+     * replayed
+     */
+    private static int level;
+    private static long runSeed;
+    private static float timeStep;
+
+    /**
+     * The run seed from before a replay, which is put back when it ends
+     */
+    private static long savedSeed;
+
+    /**
+     * Step count of the physics world when the current frame started
+     */
+    private static int frameStep;
+
+    /**
+     * Number of frames on the tape so far
+     */
+    private static int frames;
+
+    /**
+     * Real time when the tape started
+     */
+    private static long startNanos;
+
+    /**
+     * Frame at which the replay stopped matching the tape, or -1
+     */
+    private static int divergedAt;
+
+    /**
+     * True while a touch from the tape is going through the engine
+     */
+    private static boolean injecting;
+
+    /**
+     * The tilt that the current step uses
+     */
+    private static float tiltX;
+    private static float tiltY;
+
+    /**
+     * The next record of a replay, which has been read but not used yet
+     */
+    private static int nextTag;
+    private static long nextCount;
+    private static long nextSteps;
+    private static int nextAction;
+    private static int nextPointer;
+    private static float nextX;
+    private static float nextY;
+
+    /**
+     * Record the next level that starts, until it is won or lost, or another
+     * level starts. The tape is then written to a file.
+     */
+    static void record()
+    {
+        state = RECORDING;
+        levelReady = false;
+        attached = false;
+        bytes = new ByteArrayOutputStream(4096);
+        out = new DataOutputStream(bytes);
+    }
+
+    /**
+     * Replay a tape. Its level is set up from scratch at the end of this
+     * frame, through the MenuManager, with the run seed from the tape. The
+     * menus treat it as if the player had chosen the level, so once the tape
+     * ends the game goes on from there.
+     *
+     * @param f
+     *            A tape written by an earlier recording
+     *
+     * @return true if the tape could be read
+     */
+    static boolean replay(File f)
+    {
+        try {
+            byte[] b = new byte[(int) f.length()];
+            DataInputStream din = new DataInputStream(new FileInputStream(f));
+            try {
+                din.readFully(b);
+            }
+            finally {
+                din.close();
+            }
+            in = new DataInputStream(new ByteArrayInputStream(b));
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                Debug.d("InputTape: " + f + " is not a tape");
+                return false;
+            }
+            level = in.readInt();
+            runSeed = in.readLong();
+            timeStep = in.readFloat();
+        }
+        catch (IOException e) {
+            Debug.d("InputTape: could not read " + f);
+            return false;
+        }
+        state = STARTING;
+        return true;
+    }
+
+    /**
+     * @return true if a replay is loaded or playing
+     */
+    static boolean isReplaying()
+    {
+        return state == STARTING || state == REPLAYING;
+    }
+
+    /**
+     * @return true if the current level is being recorded or replayed
+     */
+    static boolean isActive()
+    {
+        return attached;
+    }
+
+    /**
+     * Called by Level.reset. A recording or replay covers a single level, so
+     * a second reset ends it.
+     */
+    static void onNewLevel()
+    {
+        if (state != RECORDING && state != REPLAYING)
+            return;
+        if (attached)
+            onLevelEnd();
+        else
+            levelReady = true;
+    }
+
+    /**
+     * Called by the MenuManager when the level is won or lost, which ends
+     * the tape
+     */
+    static void onLevelEnd()
+    {
+        if (!attached)
+            return;
+        if (state == RECORDING) {
+            try {
+                out.writeByte(END);
+            }
+            catch (IOException e) {
+                // writing to memory can't fail
+            }
+            save();
+        }
+        else {
+            Debug.d("InputTape: replayed " + frames + " frames (" + Level.physics.getStepCount() + " steps) in "
+                    + (System.nanoTime() - startNanos) / 1000000 + "ms"
+                    + (divergedAt < 0 ? "" : ", but the game stopped matching the tape at frame " + divergedAt));
+            if (Profiler.isEnabled())
+                Profiler.dumpCSV();
+            in = null;
+            // the levels after a replay get the random numbers they would
+            // have had without it
+            Randoms.setRunSeed(savedSeed);
+        }
+        state = IDLE;
+        levelReady = false;
+        attached = false;
+    }
+
+    /**
+     * @return the folder where tapes are written, next to the Profiler's
+     *         files
+     */
+    private static File folder()
+    {
+        File dir = Framework.self().getExternalFilesDir(null);
+        return dir != null ? dir : Framework.self().getFilesDir();
+    }
+
+    /**
+     * Find the tape that was recorded last
+     *
+     * @return the tape, or null if none has been recorded
+     */
+    static File newest()
+    {
+        File[] files = folder().listFiles();
+        File newest = null;
+        if (files == null)
+            return null;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("input-") && name.endsWith(".tape")
+                    && (newest == null || f.lastModified() > newest.lastModified()))
+                newest = f;
+        }
+        return newest;
+    }
+
+    /**
+     * Write a finished recording to a file
+     */
+    private static void save()
+    {
+        File f = new File(folder(), "input-" + System.currentTimeMillis() + ".tape");
+        try {
+            FileOutputStream fos = new FileOutputStream(f);
+            try {
+                bytes.writeTo(fos);
+            }
+            finally {
+                fos.close();
+            }
+            Debug.d("InputTape: wrote " + frames + " frames (" + bytes.size() + " bytes) to " + f);
+        }
+        catch (IOException e) {
+            Debug.d("InputTape: could not write " + f);
+        }
+        bytes = null;
+        out = null;
+    }
+
+    /**
+     * Start the tape with the first frame of its level
+     */
+    private static void attach() throws IOException
+    {
+        attached = true;
+        frames = 0;
+        frameStep = Level.physics.getStepCount();
+        startNanos = System.nanoTime();
+        divergedAt = -1;
+        tiltX = 0;
+        tiltY = 0;
+        if (state == RECORDING) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(Randoms.getLevel());
+            out.writeLong(Randoms.getRunSeed());
+            out.writeFloat(Level.physics.getTimeStep());
+        }
+        else {
+            if (timeStep != Level.physics.getTimeStep())
+                Debug.d("InputTape: the tape was recorded at a different physics rate, and will not match");
+            readNext();
+        }
+    }
+
+    /**
+     * Called by the engine at the start of every frame
+     *
+     * @param real
+     *            How long the frame really took, in nanoseconds
+     *
+     * @return how long the engine should think the frame took
+     */
+    private static long onFrame(long real)
+    {
+        if ((state != RECORDING && state != REPLAYING) || !levelReady)
+            return real;
+        try {
+            if (!attached)
+                attach();
+            int steps = Level.physics.getStepCount() - frameStep;
+            frameStep += steps;
+            if (state == RECORDING) {
+                out.writeByte(FRAME);
+                writeCount(real);
+                writeCount(steps);
+                frames++;
+                return real;
+            }
+            // skip whatever the last frame didn't get to
+            while (nextTag != FRAME && nextTag != END) {
+                diverged();
+                readNext();
+            }
+            if (nextTag == END) {
+                onLevelEnd();
+                return real;
+            }
+            if (nextSteps != steps)
+                diverged();
+            long told = nextCount;
+            readNext();
+            frames++;
+            return told;
+        }
+        catch (IOException e) {
+            Debug.d("InputTape: the tape is damaged");
+            onLevelEnd();
+            return real;
+        }
+    }
+
+    /**
+     * Called by the engine for every touch, before it goes to the HUD or the
+     * scene
+     *
+     * @param te
+     *            The touch, in screen coordinates
+     *
+     * @return false if the touch should be ignored
+     */
+    private static boolean onTouch(TouchEvent te)
+    {
+        if (injecting)
+            return true;
+        if (isReplaying())
+            return false;
+        if (attached) {
+            try {
+                out.writeByte(TOUCH);
+                out.writeByte(te.getAction());
+                out.writeByte(te.getPointerID());
+                out.writeFloat(te.getX());
+                out.writeFloat(te.getY());
+            }
+            catch (IOException e) {
+                // writing to memory can't fail
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Send the touches of the current frame through the engine, as if the
+     * player had made them
+     *
+     * @param engine
+     *            The engine
+     */
+    private static void deliverTouches(Engine engine)
+    {
+        if (state != REPLAYING || !attached)
+            return;
+        try {
+            while (nextTag == TOUCH) {
+                TouchEvent te = TouchEvent.obtain(nextX, nextY, nextAction, nextPointer, null);
+                injecting = true;
+                try {
+                    engine.onTouchEvent(te);
+                }
+                finally {
+                    injecting = false;
+                    te.recycle();
+                }
+                readNext();
+            }
+        }
+        catch (IOException e) {
+            Debug.d("InputTape: the tape is damaged");
+            onLevelEnd();
+        }
+    }
+
+    /**
+     * Called by Level.applyTilt before every step, with the newest reading.
+     * A recording keeps the reading if it changed; a replay replaces it with
+     * the recorded one (see getTiltX and getTiltY).
+     *
+     * @param x
+     *            The X part of the reading
+     * @param y
+     *            The Y part of the reading
+     */
+    static void onTilt(float x, float y)
+    {
+        int step = Level.physics.getStepCount() - frameStep;
+        try {
+            if (state == RECORDING) {
+                if (x != tiltX || y != tiltY) {
+                    out.writeByte(TILT);
+                    writeCount(step);
+                    out.writeFloat(x);
+                    out.writeFloat(y);
+                    tiltX = x;
+                    tiltY = y;
+                }
+                return;
+            }
+            while (nextTag == TILT && nextCount == step) {
+                tiltX = nextX;
+                tiltY = nextY;
+                readNext();
+            }
+        }
+        catch (IOException e) {
+            Debug.d("InputTape: the tape is damaged");
+            onLevelEnd();
+        }
+    }
+
+    /**
+     * @return the X part of the tilt that the current step uses
+     */
+    static float getTiltX()
+    {
+        return tiltX;
+    }
+
+    /**
+     * @return the Y part of the tilt that the current step uses
+     */
+    static float getTiltY()
+    {
+        return tiltY;
+    }
+
+    /**
+     * Called by the engine at the end of every frame, to set up the level of
+     * a replay that was just loaded
+     */
+    private static void afterFrame()
+    {
+        if (state != STARTING)
+            return;
+        state = REPLAYING;
+        levelReady = false;
+        attached = false;
+        savedSeed = Randoms.getRunSeed();
+        Randoms.setRunSeed(runSeed);
+        Framework.self().menuManager.playLevel(level);
+    }
+
+    /**
+     * Note that the replay doesn't match the tape any more
+     */
+    private static void diverged()
+    {
+        if (divergedAt < 0) {
+            divergedAt = frames;
+            Debug.d("InputTape: the game stopped matching the tape at frame " + frames);
+        }
+    }
+
+    /**
+     * Read the next record of a replay into the next* fields
+     */
+    private static void readNext() throws IOException
+    {
+        nextTag = in.read();
+        switch (nextTag) {
+            case FRAME:
+                nextCount = readCount();
+                nextSteps = readCount();
+                break;
+            case TOUCH:
+                nextAction = in.readByte();
+                nextPointer = in.readByte();
+                nextX = in.readFloat();
+                nextY = in.readFloat();
+                break;
+            case TILT:
+                nextCount = readCount();
+                nextX = in.readFloat();
+                nextY = in.readFloat();
+                break;
+            default:
+                // the end, or a tape that was cut short
+                nextTag = END;
+        }
+    }
+
+    /**
+     * Write a count that is never negative, 7 bits at a time, low bits first.
+     * The high bit of each byte says that another byte follows.
+     */
+    private static void writeCount(long n) throws IOException
+    {
+        while ((n & ~0x7fL) != 0) {
+            out.writeByte((int) (n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    /**
+     * Read a count written by writeCount
+     */
+    private static long readCount() throws IOException
+    {
+        long n = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+    }
+
+    /**
+     * InputTape is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private InputTape()
+    {
+    }
+}
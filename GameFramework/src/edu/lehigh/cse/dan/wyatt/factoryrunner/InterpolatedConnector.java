@@ -0,0 +1,126 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import org.anddev.andengine.entity.shape.IShape;
+import org.anddev.andengine.extension.physics.box2d.PhysicsConnector;
+import org.anddev.andengine.util.MathUtils;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+
+/**
+ * An InterpolatedConnector keeps a sprite in sync with its body, like a
+ * PhysicsConnector, but draws the sprite between the body's last two
+ * positions, based on how far the current frame is between the last two
+ * steps of the FixedTimestepWorld.
+ *
+ * The FixedTimestepWorld calls capture() after every step. Static bodies and
+ * bodies of path-following sprites are synced the plain way: the former only
+ * move when the game moves them, and the latter are moved by their sprite, so
+ * blending would drag them backwards.
+ */
+class InterpolatedConnector extends PhysicsConnector
+{
+    /**
+     * Sprite position and rotation after the step before the last one
+     */
+    private float prevX;
+    private float prevY;
+    private float prevAngle;
+
+    /**
+     * Sprite position and rotation after the last step
+     */
+    private float currX;
+    private float currY;
+    private float currAngle;
+
+    /**
+     * True once capture() has run, so that there is something to blend
+     */
+    private boolean captured = false;
+
+    /**
+     * False for static bodies, whose sprites are synced the plain way. Our
+     * bodies never change type, so this is checked once.
+     */
+    private final boolean moving;
+
+    /**
+     * Connect a sprite to a body
+     *
+     * @param shape
+     *            The sprite
+     * @param body
+     *            The body
+     * @param updatePosition
+     *            True if the sprite should follow the body's position
+     * @param updateRotation
+     *            True if the sprite should follow the body's rotation
+     */
+    InterpolatedConnector(IShape shape, Body body, boolean updatePosition, boolean updateRotation)
+    {
+        super(shape, body, updatePosition, updateRotation);
+        moving = body.getType() != BodyType.StaticBody;
+    }
+
+    /**
+     * Check if this connector blends positions, rather than copying them
+     */
+    private boolean blends()
+    {
+        if (!moving)
+            return false;
+        return !(mShape instanceof PhysicsSprite) || !((PhysicsSprite) mShape).isPath();
+    }
+
+    /**
+     * Record where the body is, at the end of a step
+     */
+    void capture()
+    {
+        if (!blends())
+            return;
+        Vector2 pos = mBody.getPosition();
+        float x = pos.x * mPixelToMeterRatio - mShapeHalfBaseWidth;
+        float y = pos.y * mPixelToMeterRatio - mShapeHalfBaseHeight;
+        float angle = MathUtils.radToDeg(mBody.getAngle());
+        if (captured) {
+            prevX = currX;
+            prevY = currY;
+            prevAngle = currAngle;
+        }
+        else {
+            prevX = x;
+            prevY = y;
+            prevAngle = angle;
+            captured = true;
+        }
+        currX = x;
+        currY = y;
+        currAngle = angle;
+    }
+
+    /**
+     * Forget the previous position, e.g., because the body was moved to a
+     * new place and shouldn't be drawn sliding there
+     */
+    void snap()
+    {
+        captured = false;
+    }
+
+    @Override
+    public void onUpdate(float pSecondsElapsed)
+    {
+        if (!captured || !blends()) {
+            super.onUpdate(pSecondsElapsed);
+            return;
+        }
+        float alpha = Level.physics.getAlpha();
+        if (mUpdatePosition)
+            mShape.setPosition(prevX + (currX - prevX) * alpha, prevY + (currY - prevY) * alpha);
+        if (mUpdateRotation)
+            mShape.setRotation(prevAngle + (currAngle - prevAngle) * alpha);
+    }
+}
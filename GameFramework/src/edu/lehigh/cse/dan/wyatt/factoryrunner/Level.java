@@ -1,14 +1,11 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
-import java.util.ArrayList;
-
 import org.anddev.andengine.audio.music.Music;
 import org.anddev.andengine.audio.sound.Sound;
-import org.anddev.andengine.entity.scene.Scene;
+import org.anddev.andengine.engine.handler.IUpdateHandler;
 import org.anddev.andengine.entity.scene.background.ParallaxBackground;
 import org.anddev.andengine.entity.scene.background.ParallaxBackground.ParallaxEntity;
 import org.anddev.andengine.entity.sprite.AnimatedSprite;
-import org.anddev.andengine.extension.physics.box2d.FixedStepPhysicsWorld;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
 import org.anddev.andengine.sensor.accelerometer.AccelerometerData;
 
@@ -54,9 +51,10 @@ public class Level
     static final Vector2 oacVec = new Vector2();
 
     /**
-     * The current game scene
+     * The current game scene. It only updates and draws the entities that are
+     * near the camera.
      */
-    public static Scene current;
+    public static CullingScene current;
 
     /**
      * Sound to play when the level is won
@@ -131,12 +129,89 @@ public class Level
     /**
      * The physics world for this game
      */
-    static FixedStepPhysicsWorld physics;
+    static FixedTimestepWorld physics;
+
+    /**
+     * Number of physics steps per second of game time. Changes take effect
+     * when the next level starts.
+     */
+    private static int stepsPerSecond = 60;
 
     /**
-     * List of entities that change behavior based on tilt
+     * Most physics steps to take in one frame. When the phone falls further
+     * behind than this, the game slows down instead of catching up.
      */
-    static ArrayList<PhysicsSprite> accelEntities = new ArrayList<PhysicsSprite>();
+    private static int maxStepsPerFrame = 5;
+
+    /**
+     * The work that goes around every physics step
+     */
+    private static final FixedTimestepWorld.StepListener stepper = new FixedTimestepWorld.StepListener() {
+        @Override
+        public void beforeStep()
+        {
+            // put far-away bodies to sleep, and wake up nearby ones
+            PhysicsActivity.update();
+            // push tilting entities with the newest accelerometer reading
+            applyTilt();
+        }
+
+        @Override
+        public void afterStep()
+        {
+            // now that the world is stable, run the collision handlers
+            contacts.drain();
+            // the handlers may have destroyed entities; release them now
+            PhysicsSprite.flushDestroyed();
+        }
+    };
+
+    /**
+     * Scrolls the background to match the camera, once per frame
+     */
+    private static final IUpdateHandler parallax = new IUpdateHandler() {
+        @Override
+        public void onUpdate(float pSecondsElapsed)
+        {
+            if (background != null)
+                background.setParallaxValue(Framework.self().myCamera.getCenterX() / backgroundScrollFactor);
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+    };
+
+    /**
+     * Collisions reported during the current physics step, waiting to be
+     * handled once the step is done
+     */
+    static final ContactQueue contacts = new ContactQueue(64);
+
+    /**
+     * Entities that change behavior based on tilt. The first tiltCount slots
+     * are in use. Destroyed entities are dropped the next time the tilt is
+     * applied.
+     */
+    private static PhysicsSprite[] tiltEntities = new PhysicsSprite[8];
+
+    /**
+     * Number of slots of tiltEntities that are in use
+     */
+    private static int tiltCount = 0;
+
+    /**
+     * The newest tilt reading, already clamped. The sensor can report more
+     * often than the physics steps, so readings just replace each other, and
+     * the physics update applies the newest one.
+     */
+    private static volatile float tiltX = 0;
+
+    /**
+     * The Y part of the newest tilt reading
+     */
+    private static volatile float tiltY = 0;
 
     /**
      * Prevent this object from ever being created
@@ -146,8 +221,8 @@ public class Level
     }
 
     /**
-     * When there is a phone tilt, this is run to adjust the forces on objects
-     * in the current level
+     * When there is a phone tilt, this is run to record the new tilt. The
+     * forces on objects in the current level are adjusted by applyTilt.
      * 
      * @param info
      *            The accelerometer data
@@ -166,13 +241,69 @@ public class Level
         yGravity = (yGravity > _yGravityMax) ? _yGravityMax : yGravity;
         yGravity = (yGravity < -_yGravityMax) ? -_yGravityMax : yGravity;
 
-        // Send the new gravity information to the physics system by affecting
-        // each object
+        tiltX = xGravity;
+        tiltY = yGravity;
+    }
+
+    /**
+     * Add an entity to the list of entities that get moved when the phone
+     * tilts
+     * 
+     * @param ps
+     *            The entity
+     */
+    static void addTiltEntity(PhysicsSprite ps)
+    {
+        ps.isTilt = true;
+        // a pooled entity may still be in the list from its last life
+        if (ps.inTiltList)
+            return;
+        ps.inTiltList = true;
+        if (tiltCount == tiltEntities.length) {
+            PhysicsSprite[] bigger = new PhysicsSprite[tiltCount * 2];
+            System.arraycopy(tiltEntities, 0, bigger, 0, tiltCount);
+            tiltEntities = bigger;
+        }
+        tiltEntities[tiltCount++] = ps;
+    }
+
+    /**
+     * Send the newest tilt to the physics system by affecting each object.
+     * This runs before every physics step, no matter how many readings
+     * arrived since the last one. Box2D clears forces after each step, so
+     * the force has to be applied again for every step.
+     */
+    static void applyTilt()
+    {
+        float xGravity = tiltX;
+        float yGravity = tiltY;
+        // an InputTape records the reading that each step uses, or, during a
+        // replay, supplies the recorded one instead
+        if (InputTape.isActive()) {
+            InputTape.onTilt(xGravity, yGravity);
+            xGravity = InputTape.getTiltX();
+            yGravity = InputTape.getTiltY();
+        }
+        boolean push = xGravity != 0 || yGravity != 0;
         oacVec.set(xGravity, yGravity);
-        for (PhysicsSprite gfo : accelEntities) {
-            if (gfo.physBody.isActive())
+
+        // apply the force, and squeeze out destroyed (or recycled) entities
+        // as we go
+        int live = 0;
+        for (int i = 0; i < tiltCount; ++i) {
+            PhysicsSprite gfo = tiltEntities[i];
+            if (gfo.destroyed || gfo.physBody == null || !gfo.isTilt) {
+                gfo.inTiltList = false;
+                continue;
+            }
+            tiltEntities[live++] = gfo;
+            // frozen entities are far away; a force would wake them up
+            if (push && !gfo.frozen && gfo.physBody.isActive())
                 gfo.physBody.applyForce(oacVec, gfo.physBody.getWorldCenter());
         }
+        for (int i = live; i < tiltCount; ++i)
+            tiltEntities[i] = null;
+        tiltCount = live;
 
         // Special hack for changing the direction of the Hero
         Hero h = Hero.lastHero;
@@ -253,6 +384,23 @@ public class Level
         backgroundScrollFactor = factor;
     }
 
+    /**
+     * Set how often the physics world steps. The rate is the same on every
+     * phone, so a level plays out the same way no matter how fast the phone
+     * draws. Takes effect when the next level starts.
+     * 
+     * @param steps
+     *            Number of steps per second of game time. 60 is the default.
+     * @param maxPerFrame
+     *            Most steps to take in one frame, before the game slows down
+     *            instead of catching up. 5 is the default.
+     */
+    static public void setPhysicsRate(int steps, int maxPerFrame)
+    {
+        stepsPerSecond = steps;
+        maxStepsPerFrame = maxPerFrame;
+    }
+
     /**
      * Set the background color for this level
      * 
@@ -299,7 +447,7 @@ public class Level
             int initXGravity, int initYGravity)
     {
         // create a scene and a physics world
-        current = new Scene();
+        current = new CullingScene();
 
         _xGravityMax = xGravityMax;
         _yGravityMax = yGravityMax;
@@ -311,29 +459,37 @@ public class Level
         Framework.self().myCamera.setBoundsEnabled(true);
         Framework.self().myCamera.setBounds(0, width, 0, height);
 
-        physics = new FixedStepPhysicsWorld(60, new Vector2(_initXGravity, _initYGravity), false) {
-            @Override
-            public void onUpdate(float pSecondsElapsed)
-            {
-                super.onUpdate(pSecondsElapsed);
-                if (background != null)
-                    background.setParallaxValue(Framework.self().myCamera.getCenterX() / backgroundScrollFactor);
-            }
-        };
+        physics = new FixedTimestepWorld(stepsPerSecond, maxStepsPerFrame, new Vector2(_initXGravity,
+                _initYGravity), false);
+        physics.setStepListener(stepper);
 
         // clear the stuff we explicitly manage in the physics world
-        accelEntities.clear();
-
-        // set handlers and listeners
+        for (int i = 0; i < tiltCount; ++i)
+            tiltEntities[i] = null;
+        tiltCount = 0;
+        tiltX = 0;
+        tiltY = 0;
+        contacts.clear();
+        PhysicsSprite.clearDestroyed();
+        PhysicsActivity.reset();
+        ChunkStreamer.reset();
+
+        // set handlers and listeners. Handlers run in the reverse of the
+        // order in which they are registered, so the background scrolls
+        // after the physics update
+        current.registerUpdateHandler(parallax);
         current.registerUpdateHandler(physics);
         physics.setContactListener(Framework.self());
 
         // reset the factories
         Hero.onNewLevel();
         Enemy.onNewLevel();
+        Bullet.onNewLevel();
         Destination.onNewLevel();
         Goodie.onNewLevel();
         Controls.resetHUD();
+        Profiler.onNewLevel(Controls.hud);
+        InputTape.onNewLevel();
 
         Framework.self().configAccelerometer(useAccelerometer);
 
@@ -399,9 +555,18 @@ public class Level
      */
     static void addDecoration(int x, int y, int width, int height, String name)
     {
+        // decorations in a streamed chunk can come from a pool
+        String key = null;
+        if (ChunkStreamer.isBuilding()) {
+            key = ChunkStreamer.key("Decoration", name, width, height, 0, 0, 0);
+            if (ChunkStreamer.reuse(key, x, y) != null)
+                return;
+        }
         TiledTextureRegion ttr = Media.getImage(name);
         AnimatedSprite s = new AnimatedSprite(x, y, width, height, ttr);
         current.attachChild(s);
+        if (key != null)
+            ChunkStreamer.track(s, key);
     }
 
     /**
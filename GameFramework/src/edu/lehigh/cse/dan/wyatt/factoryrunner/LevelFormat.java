@@ -0,0 +1,106 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * LevelFormat describes the compiled level file that the LevelCompiler writes
+ * and the LevelLoader reads. All numbers are big-endian.
+ *
+ * The file starts with a header:
+ *
+ * int MAGIC, short VERSION, short level count, and then one (int level
+ * number, int offset) pair per level. Offsets are from the start of the file.
+ *
+ * Each level record is:
+ *
+ * int length, short rabbit speed, byte popup flags, short message length in
+ * bytes (0 for no message), the UTF-8 message, int entity count, and then
+ * ENTITY_SIZE bytes per entity: byte kind, byte argument, int x.
+ *
+ * This class has no Android dependencies, so that the compiler can run on a
+ * desktop JVM.
+ */
+final class LevelFormat
+{
+    /**
+     * "FRLV", the first four bytes of every level file
+     */
+    static final int MAGIC = 0x46524C56;
+
+    /**
+     * Version of the layout described above. Bump it whenever the layout
+     * changes, and rebuild the level file.
+     */
+    static final short VERSION = 1;
+
+    /**
+     * Size of the fixed part of the header (magic, version, count)
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of each entry in the table of levels
+     */
+    static final int TABLE_ENTRY_SIZE = 8;
+
+    /**
+     * Size of each entity in a level record
+     */
+    static final int ENTITY_SIZE = 6;
+
+    /**
+     * Popup flag: explain the upbox at the start of the level
+     */
+    static final int POPUP_UPBOX = 1;
+
+    /**
+     * Popup flag: explain the downbox at the start of the level
+     */
+    static final int POPUP_DOWNBOX = 2;
+
+    /**
+     * Popup flag: explain the trapdoor at the start of the level
+     */
+    static final int POPUP_TRAPDOOR = 4;
+
+    /**
+     * Popup flag: explain the ramp at the start of the level
+     */
+    static final int POPUP_RAMP = 8;
+
+    /**
+     * Entity kind for Obstacle.addUpboxObstacle
+     */
+    static final int ENTITY_UPBOX = 1;
+
+    /**
+     * Entity kind for Obstacle.addDownboxObstacle
+     */
+    static final int ENTITY_DOWNBOX = 2;
+
+    /**
+     * Entity kind for Obstacle.addTrapdoorObstacle
+     */
+    static final int ENTITY_TRAPDOOR = 3;
+
+    /**
+     * Entity kind for Obstacle.addRampObstacle
+     */
+    static final int ENTITY_RAMP = 4;
+
+    /**
+     * Argument for ENTITY_RAMP: put an enemy after the ramp
+     */
+    static final int RAMP_ENEMY_AFTER = 1;
+
+    /**
+     * Rabbit speed for levels that don't give one
+     */
+    static final int DEFAULT_SPEED = 5;
+
+    /**
+     * LevelFormat is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private LevelFormat()
+    {
+    }
+}
@@ -0,0 +1,293 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.anddev.andengine.util.Debug;
+
+import android.content.res.AssetFileDescriptor;
+
+/**
+ * The LevelLoader reads levels from the file written by the LevelCompiler (see
+ * LevelFormat for the layout).
+ *
+ * The file is memory-mapped the first time a level is opened, so switching
+ * levels never re-reads it. Mapping only works when the asset is stored
+ * uncompressed in the .apk (e.g., aapt -0 bin); otherwise the file is read
+ * into memory once instead.
+ *
+ * To build a level, call open(), use the getters to set up the level, and then
+ * call addEntities() to create all of its obstacles in one pass.
+ */
+class LevelLoader
+{
+    /**
+     * Name of the compiled level file in the assets folder
+     */
+    static final String LEVEL_FILE = "levels.bin";
+
+    /**
+     * The contents of the level file, or null if it hasn't been loaded yet
+     */
+    private static ByteBuffer data = null;
+
+    /**
+     * Offset of the first entity of the open level
+     */
+    private static int entityStart;
+
+    /**
+     * Number of entities in the open level
+     */
+    private static int entityCount;
+
+    /**
+     * Length of the open level
+     */
+    private static int length;
+
+    /**
+     * Rabbit speed of the open level
+     */
+    private static int speed;
+
+    /**
+     * Popup flags of the open level
+     */
+    private static int popups;
+
+    /**
+     * Message of the open level, or null
+     */
+    private static String message;
+
+    /**
+     * Map (or read) the level file, and check its header
+     *
+     * @return true if the file is usable
+     */
+    private static boolean load()
+    {
+        if (data != null)
+            return true;
+        ByteBuffer buf = null;
+        try {
+            AssetFileDescriptor afd = Framework.self().getAssets().openFd(LEVEL_FILE);
+            FileInputStream fis = afd.createInputStream();
+            try {
+                buf = fis.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+            }
+            finally {
+                fis.close();
+            }
+        }
+        catch (IOException e) {
+            // the asset is compressed, so it can't be mapped
+            buf = null;
+        }
+        if (buf == null) {
+            try {
+                InputStream in = Framework.self().getAssets().open(LEVEL_FILE);
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[4096];
+                    int n;
+                    while ((n = in.read(chunk)) > 0)
+                        bytes.write(chunk, 0, n);
+                    buf = ByteBuffer.wrap(bytes.toByteArray());
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                Debug.d("Error reading " + LEVEL_FILE);
+                return false;
+            }
+        }
+        if (buf.capacity() < LevelFormat.HEADER_SIZE || buf.getInt(0) != LevelFormat.MAGIC
+                || buf.getShort(4) != LevelFormat.VERSION) {
+            Debug.d(LEVEL_FILE + " is not a level file for this version of the game; rebuild it with LevelCompiler");
+            return false;
+        }
+        data = buf;
+        return true;
+    }
+
+    /**
+     * Find a level in the level file, and make it the open level
+     *
+     * @param whichLevel
+     *            The level number
+     *
+     * @return true if the level exists
+     */
+    static boolean open(int whichLevel)
+    {
+        if (!load())
+            return false;
+        int count = data.getShort(6);
+        for (int i = 0; i < count; ++i) {
+            int entry = LevelFormat.HEADER_SIZE + i * LevelFormat.TABLE_ENTRY_SIZE;
+            if (data.getInt(entry) != whichLevel)
+                continue;
+            int pos = data.getInt(entry + 4);
+            length = data.getInt(pos);
+            speed = data.getShort(pos + 4);
+            popups = data.get(pos + 6);
+            int msgLen = data.getShort(pos + 7);
+            pos += 9;
+            message = msgLen == 0 ? null : decode(pos, msgLen);
+            pos += msgLen;
+            entityCount = data.getInt(pos);
+            entityStart = pos + 4;
+            return true;
+        }
+        Debug.d("There is no level " + whichLevel + " in " + LEVEL_FILE);
+        return false;
+    }
+
+    /**
+     * Turn UTF-8 bytes from the level file into a String
+     */
+    private static String decode(int pos, int len)
+    {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; ++i)
+            bytes[i] = data.get(pos + i);
+        try {
+            return new String(bytes, "UTF-8");
+        }
+        catch (IOException e) {
+            return new String(bytes);
+        }
+    }
+
+    /**
+     * @return the length of the open level
+     */
+    static int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return the rabbit speed of the open level
+     */
+    static int getSpeed()
+    {
+        return speed;
+    }
+
+    /**
+     * @return the message to show at the start of the open level, or null
+     */
+    static String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Check if the message of the open level explains an obstacle
+     *
+     * @param flag
+     *            One of the LevelFormat.POPUP_XXX flags
+     *
+     * @return 1 if it does, 0 if it doesn't
+     */
+    static int getPopup(int flag)
+    {
+        return (popups & flag) != 0 ? 1 : 0;
+    }
+
+    /**
+     * @return the number of entities in the open level
+     */
+    static int getEntityCount()
+    {
+        return entityCount;
+    }
+
+    /**
+     * @param i
+     *            Which entity of the open level, in the order in which they
+     *            appear in the description
+     *
+     * @return its kind, as one of the LevelFormat.ENTITY_XXX kinds
+     */
+    static int getEntityKind(int i)
+    {
+        return data.get(entityStart + i * LevelFormat.ENTITY_SIZE);
+    }
+
+    /**
+     * @param i
+     *            Which entity of the open level, in the order in which they
+     *            appear in the description
+     *
+     * @return its X coordinate
+     */
+    static int getEntityX(int i)
+    {
+        return data.getInt(entityStart + i * LevelFormat.ENTITY_SIZE + 2);
+    }
+
+    /**
+     * Create every entity of the open level, in the order in which they
+     * appear in the description
+     *
+     * @return the number of entities that were created
+     */
+    static int addEntities()
+    {
+        long start = System.nanoTime();
+        int pos = entityStart;
+        for (int i = 0; i < entityCount; ++i, pos += LevelFormat.ENTITY_SIZE)
+            addEntity(data.get(pos), data.get(pos + 1), data.getInt(pos + 2));
+        Debug.d("Created " + entityCount + " entities in " + (System.nanoTime() - start) / 1000 + "us");
+        return entityCount;
+    }
+
+    /**
+     * Create one entity, described as in the level file. Streamed levels use
+     * this too, to build the obstacles in their plans.
+     * 
+     * @param kind
+     *            One of the LevelFormat.ENTITY_XXX kinds
+     * @param arg
+     *            The argument of the entity
+     * @param x
+     *            X coordinate of the entity
+     */
+    static void addEntity(int kind, int arg, int x)
+    {
+        switch (kind) {
+            case LevelFormat.ENTITY_UPBOX:
+                Obstacle.addUpboxObstacle(x);
+                break;
+            case LevelFormat.ENTITY_DOWNBOX:
+                Obstacle.addDownboxObstacle(x);
+                break;
+            case LevelFormat.ENTITY_TRAPDOOR:
+                Obstacle.addTrapdoorObstacle(x);
+                break;
+            case LevelFormat.ENTITY_RAMP:
+                Obstacle.addRampObstacle(x, arg == LevelFormat.RAMP_ENEMY_AFTER ? Obstacle.ENEMY_AFTER : 0);
+                break;
+            default:
+                Debug.d("Unknown entity kind " + kind + " in " + LEVEL_FILE);
+        }
+    }
+
+    /**
+     * LevelLoader is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private LevelLoader()
+    {
+    }
+}
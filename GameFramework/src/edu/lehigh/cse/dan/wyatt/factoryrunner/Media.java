@@ -10,13 +10,10 @@ import org.anddev.andengine.audio.sound.SoundFactory;
 import org.anddev.andengine.opengl.texture.TextureOptions;
 import org.anddev.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlas;
 import org.anddev.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlasTextureRegionFactory;
+import org.anddev.andengine.opengl.texture.atlas.bitmap.source.AssetBitmapTextureAtlasSource;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
 import org.anddev.andengine.util.Debug;
 
-import android.content.res.AssetManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
 /**
  * The MediaFactory provides a mechanism for registering all of our images and
  * sounds
@@ -40,6 +37,24 @@ public class Media
      */
     static private Hashtable<String, TiledTextureRegion> images = new Hashtable<String, TiledTextureRegion>();
 
+    /**
+     * Largest width and height of a shared atlas. Every GLES1 device we target
+     * supports at least this much.
+     */
+    static final int ATLAS_SIZE = 1024;
+
+    /**
+     * When we are packing images into shared atlases, this collects the images
+     * until endPacking() is called. It is null otherwise.
+     */
+    static private AtlasPacker packer = null;
+
+    /**
+     * The sources of the images that are waiting to be packed, so that we
+     * don't need to read their headers a second time
+     */
+    static private Hashtable<String, AssetBitmapTextureAtlasSource> packedSources = new Hashtable<String, AssetBitmapTextureAtlasSource>();
+
     /**
      * Retrieve a sound by name
      * 
@@ -83,6 +98,20 @@ public class Media
         return images.get(name);
     }
 
+    /**
+     * Make an image that was loaded elsewhere (e.g., by the AssetLoader)
+     * available through getImage
+     * 
+     * @param name
+     *            Name of the image file
+     * @param ttr
+     *            The image
+     */
+    static void putImage(String name, TiledTextureRegion ttr)
+    {
+        images.put(name, ttr);
+    }
+
     /**
      * Register an image file, so that it can be used later.
      * 
@@ -97,26 +126,7 @@ public class Media
      */
     static public void registerImage(String imageFileName)
     {
-        AssetManager am = Framework.self().getAssets();
-        Bitmap b = null;
-        try {
-            b = BitmapFactory.decodeStream(am.open(imageFileName));
-        }
-        catch (Exception e) {
-            Debug.d("Error accessing file!");
-            return;
-        }
-        int width = b.getWidth();
-        int height = b.getHeight();
-
-        int btaWidth = roundUpToPowerOf2(width);
-        int btaHeight = roundUpToPowerOf2(height);
-
-        BitmapTextureAtlas bta = new BitmapTextureAtlas(btaWidth, btaHeight, TextureOptions.DEFAULT);
-        TiledTextureRegion ttr = BitmapTextureAtlasTextureRegionFactory.createTiledFromAsset(bta, Framework.self(),
-                imageFileName, 0, 0, 1, 1);
-        images.put(imageFileName, ttr);
-        Framework.self().getEngine().getTextureManager().loadTexture(bta);
+        registerAnimatableImage(imageFileName, 1, 1);
     }
 
     /**
@@ -144,28 +154,79 @@ public class Media
      */
     static public void registerAnimatableImage(String imageFileName, int cols, int rows)
     {
-        AssetManager am = Framework.self().getAssets();
-        Bitmap b = null;
-        try {
-            b = BitmapFactory.decodeStream(am.open(imageFileName));
-        }
-        catch (Exception e) {
+        // The source only reads the image header to learn its size. The pixels
+        // are decoded once, when the texture is loaded.
+        AssetBitmapTextureAtlasSource source = new AssetBitmapTextureAtlasSource(Framework.self(), imageFileName);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width == 0 || height == 0) {
             Debug.d("Error accessing file!");
             return;
         }
-        int width = b.getWidth();
-        int height = b.getHeight();
+
+        // in packing mode, just remember the image until endPacking()
+        if (packer != null) {
+            packer.add(imageFileName, width, height, cols, rows);
+            packedSources.put(imageFileName, source);
+            return;
+        }
 
         int btaWidth = roundUpToPowerOf2(width);
         int btaHeight = roundUpToPowerOf2(height);
 
         BitmapTextureAtlas bta = new BitmapTextureAtlas(btaWidth, btaHeight, TextureOptions.DEFAULT);
-        TiledTextureRegion ttr = BitmapTextureAtlasTextureRegionFactory.createTiledFromAsset(bta, Framework.self(),
-                imageFileName, 0, 0, cols, rows);
+        TiledTextureRegion ttr = BitmapTextureAtlasTextureRegionFactory.createTiledFromSource(bta, source, 0, 0, cols,
+                rows);
         images.put(imageFileName, ttr);
         Framework.self().getEngine().getTextureManager().loadTexture(bta);
     }
 
+    /**
+     * Start packing images into shared atlases.
+     * 
+     * Normally, every image gets a texture of its own, which wastes memory on
+     * padding each image up to a power of 2, and means a texture switch for
+     * nearly every sprite that is drawn. Between beginPacking() and
+     * endPacking(), registerImage and registerAnimatableImage don't make
+     * textures. Instead, endPacking() places all of the images into a few big
+     * textures.
+     * 
+     * Images can't be retrieved with getImage until endPacking() is called.
+     */
+    static public void beginPacking()
+    {
+        packer = new AtlasPacker(ATLAS_SIZE, 1);
+    }
+
+    /**
+     * Place every image registered since beginPacking() into shared atlases,
+     * load the atlases, and make the images available through getImage. The
+     * log reports how full each atlas is.
+     */
+    static public void endPacking()
+    {
+        if (packer == null)
+            return;
+        AtlasPacker p = packer;
+        packer = null;
+        p.pack();
+
+        BitmapTextureAtlas[] atlases = new BitmapTextureAtlas[p.getAtlasCount()];
+        for (int i = 0; i < atlases.length; ++i)
+            atlases[i] = new BitmapTextureAtlas(p.getAtlasWidth(i), p.getAtlasHeight(i), TextureOptions.DEFAULT);
+        for (AtlasPacker.Placement pl : p.getPlacements()) {
+            TiledTextureRegion ttr = BitmapTextureAtlasTextureRegionFactory.createTiledFromSource(atlases[pl.atlas],
+                    packedSources.get(pl.name), pl.x, pl.y, pl.cols, pl.rows);
+            images.put(pl.name, ttr);
+        }
+        packedSources.clear();
+        for (int i = 0; i < atlases.length; ++i) {
+            Framework.self().getEngine().getTextureManager().loadTexture(atlases[i]);
+            Debug.i("Atlas " + i + ": " + p.getAtlasWidth(i) + "x" + p.getAtlasHeight(i) + ", "
+                    + (int) (p.getFill(i) * 100) + "% full");
+        }
+    }
+
     /**
      * Register a music file, so that it can be used later.
      * 
@@ -233,7 +294,7 @@ public class Media
      *        http://stackoverflow.com/questions/364985/algorithm-for-
      *        finding-the-smallest-power-of-two-thats-greater-or-equal-to-a-giv
      */
-    static private int roundUpToPowerOf2(int x)
+    static int roundUpToPowerOf2(int x)
     {
         if (x < 0)
             return 0;
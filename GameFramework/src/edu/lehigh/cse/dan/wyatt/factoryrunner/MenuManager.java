@@ -16,6 +16,7 @@ import org.anddev.andengine.engine.options.EngineOptions.ScreenOrientation;
 import org.anddev.andengine.entity.primitive.Rectangle;
 import org.anddev.andengine.entity.scene.Scene;
 import org.anddev.andengine.entity.sprite.AnimatedSprite;
+import org.anddev.andengine.entity.text.ChangeableText;
 import org.anddev.andengine.entity.text.Text;
 import org.anddev.andengine.input.touch.TouchEvent;
 import org.anddev.andengine.opengl.font.Font;
@@ -211,6 +212,30 @@ public class MenuManager
         return true;
     }
 
+    /**
+     * Put a level on the screen for a tool that plays levels by itself (see
+     * Simulator and InputTape), and treat it as if the player had chosen it:
+     * back goes to the chooser, and winning or losing moves on from it. This
+     * must be called on the update thread.
+     * 
+     * @param level
+     *            The level to show, or 0 for the infinite level, which is
+     *            treated as if it had been started from the splash screen
+     */
+    void playLevel(int level)
+    {
+        _mode = (level == 0) ? Modes.HIGHSCORE : Modes.PLAY;
+        _currLevel = level;
+        Framework.self().getEngine().clearUpdateHandlers();
+        Framework.self().myCamera.setHUD(new HUD());
+        // the infinite level starts at the speed the splash screen uses
+        if (level == 0)
+            Framework.self().configureInfiniteLevel(5);
+        else
+            Framework.self().configureLevel(level);
+        Framework.self().getEngine().setScene(Level.current);
+    }
+
     /**
      * Create the level chooser
      * 
@@ -386,6 +411,26 @@ public class MenuManager
         ttr = Media.getImage("splash.png");
         a = new AnimatedSprite(0,0,Framework.self().getCameraWidth(), Framework.self().getCameraHeight(), ttr);
         s.attachChild(a);
+
+        // while the rest of the assets are loading, show how far along we are
+        if (!AssetLoader.isDone()) {
+            final ChangeableText progress = new ChangeableText(10, 10, darkMenuFont, "Loading...   0%",
+                    HorizontalAlign.LEFT, 16);
+            s.attachChild(progress);
+            AssetLoader.setProgressListener(new AssetLoader.ProgressListener() {
+                @Override
+                public void onProgress(int loaded, int total)
+                {
+                    if (loaded < total) {
+                        progress.setText("Loading... " + (100 * loaded / total) + "%");
+                    }
+                    else {
+                        progress.setVisible(false);
+                        AssetLoader.setProgressListener(null);
+                    }
+                }
+            });
+        }
         
         // Print the name of the game at the top of the scene. You might want a
         // full-screen graphic instead
@@ -422,6 +467,9 @@ public class MenuManager
             @Override
             public boolean onAreaTouched(TouchEvent e, float x, float y)
             {
+                // the menus need assets that may still be loading
+                if (!AssetLoader.isDone())
+                    return true;
                 // change modes
                 _mode = Modes.CHOOSE;
                 _currLevel = 1;
@@ -457,6 +505,9 @@ public class MenuManager
             @Override
             public boolean onAreaTouched(TouchEvent e, float x, float y)
             {
+                // the game needs assets that may still be loading
+                if (!AssetLoader.isDone())
+                    return true;
                 // change modes
                 _mode = Modes.HIGHSCORE;
                 _currLevel = 0;
@@ -486,6 +537,9 @@ public class MenuManager
                 @Override
                 public boolean onAreaTouched(TouchEvent e, float x, float y)
                 {
+                    // the help scenes need assets that may still be loading
+                    if (!AssetLoader.isDone())
+                        return true;
                     // change modes
                     _mode = Modes.HELP;
                     _currLevel = 0;
@@ -536,6 +590,11 @@ public class MenuManager
      */
     void loseLevel(String deathText)
     {
+        // a simulated run just records the outcome
+        if (Simulator.report(false))
+            return;
+        InputTape.onLevelEnd();
+
         if (Level.loseSound != null)
             Level.loseSound.play();
 
@@ -653,6 +712,10 @@ public class MenuManager
      */
     void winLevel()
     {
+        // a simulated run just records the outcome
+        if (Simulator.report(true))
+            return;
+        InputTape.onLevelEnd();
     	
         if (Level.winSound != null)
             Level.winSound.play();
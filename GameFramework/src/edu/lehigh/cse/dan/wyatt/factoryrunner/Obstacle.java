@@ -1,26 +1,22 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
-import java.io.BufferedInputStream;
-import java.io.InputStream;
-
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.anddev.andengine.entity.IEntity;
+import org.anddev.andengine.entity.Entity;
 import org.anddev.andengine.entity.modifier.PathModifier.Path;
+import org.anddev.andengine.entity.primitive.Line;
 import org.anddev.andengine.entity.scene.Scene;
 import org.anddev.andengine.extension.physics.box2d.PhysicsFactory;
 import org.anddev.andengine.extension.physics.box2d.util.constants.PhysicsConstants;
 import org.anddev.andengine.input.touch.TouchEvent;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
 
-import android.content.res.AssetManager;
 import android.view.MotionEvent;
 
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
 import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
 
 /**
  * Obstacles are entities that change the hero's velocity upon a collision
@@ -87,6 +83,12 @@ public class Obstacle extends PhysicsSprite
      */
 	private static float lastTouchTime;
 
+    /**
+     * The swipe listener of obstacles that don't react to swipes. It has no
+     * state, so every obstacle can share it.
+     */
+    private static final NoopSwipeListener noSwipes = new NoopSwipeListener();
+
     /**
      * Rather than use a Vector2 pool, we'll keep a vector around for all poke
      * operations
@@ -142,6 +144,11 @@ public class Obstacle extends PhysicsSprite
      * An ID for each trigger object, in case it's useful
      */
     int triggerID;
+
+    /**
+     * For infinite level triggers, the speed of the next segment of the level
+     */
+    int infiniteSpeed;
     
     /**
      * Number of pixels long a swipe must be for it to count
@@ -198,7 +205,7 @@ public class Obstacle extends PhysicsSprite
     {
     	super(x, y, width, height, ttr, PhysicsSprite.TYPE_OBSTACLE);
     	isRamp = false;
-    	swipeActionHandler = new NoopSwipeListener(); // Default to no swipe actions.
+    	swipeActionHandler = noSwipes; // Default to no swipe actions.
     }
     
     /**
@@ -227,6 +234,31 @@ public class Obstacle extends PhysicsSprite
     	this.swipeActionHandler = swipeActionHandler;
     }
 
+    /**
+     * Act as if the user swiped on this obstacle. The Simulator uses this to
+     * play scripted swipes without touch events.
+     * 
+     * @param direction
+     *            One of the Simulator.SWIPE_XXX directions
+     */
+    void swipe(int direction)
+    {
+        switch (direction) {
+            case Simulator.SWIPE_UP:
+                swipeActionHandler.onSwipeUp();
+                break;
+            case Simulator.SWIPE_DOWN:
+                swipeActionHandler.onSwipeDown();
+                break;
+            case Simulator.SWIPE_LEFT:
+                swipeActionHandler.onSwipeLeft();
+                break;
+            case Simulator.SWIPE_RIGHT:
+                swipeActionHandler.onSwipeRight();
+                break;
+        }
+    }
+
     /**
      * Call this on an Obstacle to make it draggable.
      * 
@@ -392,12 +424,22 @@ public class Obstacle extends PhysicsSprite
             float pathDuration, float density, float elasticity, float friction)
     {
         TiledTextureRegion ttr = Media.getImage(name);
+        // static obstacles in a streamed chunk can come from a pool
+        String key = null;
+        if (path == null && ChunkStreamer.isBuilding()) {
+            key = ChunkStreamer.key("Obstacle", name, width, height, density, elasticity, friction);
+            Obstacle o = (Obstacle) ChunkStreamer.reuse(key, x, y);
+            if (o != null)
+                return o;
+        }
         Obstacle o = new Obstacle(x, y, width, height, ttr);
         BodyType bt = (path == null) ? BodyType.StaticBody : BodyType.DynamicBody;
         o.setBoxPhysics(density, elasticity, friction, bt, false, false, true);
         if (path != null)
             o.applyPath(path, pathDuration);
         Level.current.attachChild(o);
+        if (key != null)
+            ChunkStreamer.track(o, key);
         return o;
     }
 
@@ -664,7 +706,8 @@ public class Obstacle extends PhysicsSprite
 		ret.setDamp(1);
 		ret.isDamp = false;
 		
-		ret.myType = PhysicsSprite.TYPE_INFINITE_TRIGGER | speed;
+		ret.myType = PhysicsSprite.TYPE_INFINITE_TRIGGER;
+		ret.infiniteSpeed = speed;
 		return ret;
 	}
 
@@ -772,6 +815,10 @@ public class Obstacle extends PhysicsSprite
      * Note that not all Inkscape drawings will work as expected. See
      * SVGParser.java for more information.
      * 
+     * The file is only parsed the first time it is loaded. Each path in the
+     * drawing becomes one static body with an edge fixture per segment, and
+     * one entity that holds the path's lines.
+     * 
      * @param name
      *            Name of the svg file to load. It should be in the assets
      *            folder
@@ -801,41 +848,97 @@ public class Obstacle extends PhysicsSprite
     static public void loadSVG(String name, float r, float g, float b, float density, float elasticity, float friction,
             float stretchX, float stretchY, float xposeX, float xposeY)
     {
-        try {
-            // create a SAX parser for SVG files
-            final SAXParserFactory spf = SAXParserFactory.newInstance();
-            final SAXParser sp = spf.newSAXParser();
-
-            final XMLReader xmlReader = sp.getXMLReader();
-            SVGParser Parser = new SVGParser();
-
-            // make the color values visible to the addLine routine of the
-            // parser
-            Parser.lineR = r;
-            Parser.lineG = g;
-            Parser.lineB = b;
-
-            // create the physics fixture in a manner that is visible to the
-            // addLine
-            // routine of the parser
-            Parser.fixture = PhysicsFactory.createFixtureDef(density, elasticity, friction);
-
-            // specify transpose and stretch information
-            Parser.userStretchX = stretchX;
-            Parser.userStretchY = stretchY;
-            Parser.userTransformX = xposeX;
-            Parser.userTransformY = xposeY;
-
-            // start parsing!
-            xmlReader.setContentHandler(Parser);
-            AssetManager am = Framework.self().getAssets();
-            InputStream inputStream = am.open(name);
-            xmlReader.parse(new InputSource(new BufferedInputStream(inputStream)));
-        }
-        // if the read fails, just print a stack trace
-        catch (Exception e) {
-            e.printStackTrace();
+        float[][] paths = SVGParser.getPaths(name);
+        if (paths == null)
+            return;
+        FixtureDef fixture = PhysicsFactory.createFixtureDef(density, elasticity, friction);
+        for (float[] path : paths)
+            addSVGPath(path, r, g, b, fixture, stretchX, stretchY, xposeX, xposeY);
+    }
+
+    /**
+     * The start of an SVG edge, so that we don't need to make a new Vector2
+     * for every edge
+     */
+    private static final Vector2 edgeStart = new Vector2();
+
+    /**
+     * The end of an SVG edge, so that we don't need to make a new Vector2 for
+     * every edge
+     */
+    private static final Vector2 edgeEnd = new Vector2();
+
+    /**
+     * Internal method used by loadSVG to put one path into the world.
+     * 
+     * We create a line for each segment, and give it a color, but all of the
+     * lines share one parent entity. All of the segments become edge fixtures
+     * of a single static body. Then we create an invisible PhysicsSprite that
+     * wraps the body so that collision detection can safely cast the body's
+     * getUserData() to a PhysicsSprite.
+     * 
+     * @param path
+     *            The vertices of the path, as x0, y0, x1, y1, ...
+     * @param r
+     *            red component of the color to use for all lines
+     * @param g
+     *            green component of the color to use for all lines
+     * @param b
+     *            blue component of the color to use for all lines
+     * @param fixture
+     *            physics behavior of the path
+     * @param stretchX
+     *            Stretch the path in the X dimension by this percentage
+     * @param stretchY
+     *            Stretch the path in the Y dimension by this percentage
+     * @param xposeX
+     *            Shift the path in the X dimension, before stretching
+     * @param xposeY
+     *            Shift the path in the Y dimension, before stretching
+     */
+    private static void addSVGPath(float[] path, float r, float g, float b, FixtureDef fixture, float stretchX,
+            float stretchY, float xposeX, float xposeY)
+    {
+        final float ratio = PhysicsConstants.PIXEL_TO_METER_RATIO_DEFAULT;
+        Entity lines = new Entity();
+        BodyDef bd = new BodyDef();
+        bd.type = BodyType.StaticBody;
+        Body body = Level.physics.createBody(bd);
+        PolygonShape edge = new PolygonShape();
+        fixture.shape = edge;
+
+        float x1 = stretchX * (path[0] + xposeX);
+        float y1 = stretchY * (path[1] + xposeY);
+        for (int i = 2; i + 1 < path.length; i += 2) {
+            float x2 = stretchX * (path[i] + xposeX);
+            float y2 = stretchY * (path[i + 1] + xposeY);
+            // Box2D can't handle an edge with no length
+            if (Math.abs(x2 - x1) + Math.abs(y2 - y1) < 0.01f)
+                continue;
+            Line line = new Line(x1, y1, x2, y2, 2);
+            line.setColor(r, g, b);
+            lines.attachChild(line);
+            edgeStart.set(x1 / ratio, y1 / ratio);
+            edgeEnd.set(x2 / ratio, y2 / ratio);
+            edge.setAsEdge(edgeStart, edgeEnd);
+            body.createFixture(fixture);
+            x1 = x2;
+            y1 = y2;
         }
+        edge.dispose();
+        fixture.shape = null;
+
+        // wrap it all in a fake PhysicsSprite
+        PhysicsSprite phony = new PhysicsSprite(1, 1, 1, 1, MenuManager.ttrInvis, PhysicsSprite.TYPE_SVG) {
+            @Override
+            void onCollide(PhysicsSprite other)
+            {
+            }
+        };
+        phony.physBody = body;
+        body.setUserData(phony);
+        // put the lines on the screen
+        Level.current.attachChild(lines);
     }
 
     /**
@@ -851,6 +954,33 @@ public class Obstacle extends PhysicsSprite
     {
     }
 
+    /**
+     * Bring a pooled obstacle back as a plain square obstacle, forgetting any
+     * behaviors that were added to it in its last life
+     * 
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     */
+    @Override
+    void recycle(float x, float y)
+    {
+        myType = PhysicsSprite.TYPE_OBSTACLE;
+        isDamp = false;
+        dampFactor = 0;
+        isDrag = false;
+        isPoke = false;
+        isTrigger = false;
+        triggerActivation = 0;
+        isRamp = false;
+        isPit = false;
+        isKiller = false;
+        swipeActionHandler = noSwipes;
+        physBody.getFixtureList().get(0).setSensor(false);
+        super.recycle(x, y);
+    }
+
     /**
      * Whenever an Obstacle is touched, this code runs automatically.
      * 
@@ -894,10 +1024,8 @@ public class Obstacle extends PhysicsSprite
                 if (this == currentSprite) {
                     // double touch
                     if ((time - lastPokeTime) < pokeDeleteThresh) {
-                        // hide sprite, disable physics, make not touchable
-                        physBody.setActive(false);
-                        Level.current.unregisterTouchArea(this);
-                        this.setVisible(false);
+                        // remove the sprite, its physics, and its touch area
+                        destroy();
                     }
                     // repeat single-touch
                     else {
@@ -949,7 +1077,7 @@ public class Obstacle extends PhysicsSprite
 	public static void addRandomObstacles(int startX, int endX, int num) {
     	if(num > 0)
 	    	for(int x = startX; x < endX; x += (endX-startX)/num) {
-	    		int rnd = (int) (Math.random()*4);
+	    		int rnd = Randoms.stream("Obstacle.random").nextInt(4);
 	    		switch(rnd) {
 	    		case 0:
 	    			addUpboxObstacle(x);
@@ -966,25 +1094,6 @@ public class Obstacle extends PhysicsSprite
 	    		
 	    	}
 	}
-	
-	private static void clearEarlyObstacles(int x, IEntity root) {
-		// Start from the end in case detaching elements changes the ordering.
-		for(int i = root.getChildCount()-1; i >= 0; i--) {
-			IEntity child = root.getChild(i);
-			
-			if(child.getX() < x) {
-				// Avoid detaching floors
-				if(child.getX() % (SampleActivity.CAMERA_WIDTH + SampleActivity.INFINITE_LEVEL_LENGTH) != 0)
-					child.detachSelf();
-			} else {
-				clearEarlyObstacles(x, child);
-			}
-		}
-	}
-
-	public static void clearEarlyObstacles(int x) {
-		clearEarlyObstacles(x, Level.current);
-	}
 
 
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+
+import org.anddev.andengine.engine.camera.Camera;
+
+import com.badlogic.gdx.physics.box2d.Body;
+
+/**
+ * PhysicsActivity puts the moving bodies that are far from the camera to
+ * sleep, so that Box2D doesn't spend time solving parts of the level that
+ * nobody can see.
+ *
+ * A body is frozen once it is more than the radius (plus a little slack, so
+ * that bodies near the edge don't flip back and forth) outside of the camera.
+ * Its velocity is saved, its body is put to sleep, and its sprite stops
+ * updating, which also pauses any path it follows. As soon as it comes within
+ * the radius again, its sprite resumes, and if it is still asleep, its body
+ * is woken with the velocity it had. A frozen body that something else wakes
+ * (e.g., a collision) is put back to sleep on the next step, keeping the
+ * velocity that was saved when it was first frozen, so it still comes back
+ * moving the way it was.
+ *
+ * Static bodies never move, and Box2D already skips them, so only non-static
+ * bodies and path followers are tracked. Heroes are never frozen.
+ */
+class PhysicsActivity
+{
+    /**
+     * Extra distance past the radius before a body is frozen
+     */
+    private static final int SLACK = 64;
+
+    /**
+     * How far outside the camera a body can be and still be simulated
+     */
+    private static int radius = 480;
+
+    /**
+     * The bodies that might need to be frozen
+     */
+    private static final ArrayList<PhysicsSprite> tracked = new ArrayList<PhysicsSprite>();
+
+    /**
+     * Change how far outside the camera bodies keep being simulated
+     *
+     * @param pixels
+     *            The distance, in pixels, from each edge of the camera
+     */
+    static void setRadius(int pixels)
+    {
+        radius = pixels;
+    }
+
+    /**
+     * Start watching an entity. It is safe to call this more than once for
+     * the same entity.
+     *
+     * @param ps
+     *            An entity whose body can move
+     */
+    static void track(PhysicsSprite ps)
+    {
+        if (ps.tracked || ps.myType == PhysicsSprite.TYPE_HERO)
+            return;
+        ps.tracked = true;
+        tracked.add(ps);
+    }
+
+    /**
+     * Stop watching an entity, e.g., because it was destroyed
+     *
+     * @param ps
+     *            The entity
+     */
+    static void untrack(PhysicsSprite ps)
+    {
+        if (!ps.tracked)
+            return;
+        ps.tracked = false;
+        ps.frozen = false;
+        tracked.remove(ps);
+    }
+
+    /**
+     * Forget about every entity, because the level is being thrown away
+     */
+    static void reset()
+    {
+        for (int i = 0; i < tracked.size(); ++i)
+            tracked.get(i).tracked = false;
+        tracked.clear();
+    }
+
+    /**
+     * Freeze and thaw bodies based on where the camera is. This runs from the
+     * physics update, just before each step.
+     */
+    static void update()
+    {
+        Camera c = Framework.self().myCamera;
+        float minX = c.getMinX();
+        float maxX = c.getMaxX();
+        float minY = c.getMinY();
+        float maxY = c.getMaxY();
+        for (int i = 0; i < tracked.size(); ++i) {
+            PhysicsSprite ps = tracked.get(i);
+            Body b = ps.physBody;
+            // pooled and destroyed entities are already out of the simulation
+            if (b == null || !b.isActive())
+                continue;
+            float left = ps.getX();
+            float right = left + ps.getWidthScaled();
+            float top = ps.getY();
+            float bottom = top + ps.getHeightScaled();
+            // distance from the camera, in the direction it is furthest away
+            float away = Math.max(Math.max(minX - right, left - maxX), Math.max(minY - bottom, top - maxY));
+            if (ps.frozen) {
+                if (away <= radius)
+                    thaw(ps, b);
+                else if (b.isAwake())
+                    // something woke it; the velocity it has now isn't the
+                    // one to come back with
+                    b.setAwake(false);
+            }
+            else if (away > radius + SLACK) {
+                freeze(ps, b);
+            }
+        }
+    }
+
+    /**
+     * Put an entity to sleep, remembering how it was moving
+     */
+    private static void freeze(PhysicsSprite ps, Body b)
+    {
+        ps.frozen = true;
+        ps.frozenVelocity.set(b.getLinearVelocity());
+        ps.frozenSpin = b.getAngularVelocity();
+        b.setAwake(false);
+        ps.setIgnoreUpdate(true);
+    }
+
+    /**
+     * Wake an entity up, moving as it was when it was frozen
+     */
+    private static void thaw(PhysicsSprite ps, Body b)
+    {
+        ps.frozen = false;
+        ps.setIgnoreUpdate(false);
+        if (!b.isAwake()) {
+            b.setAwake(true);
+            b.setLinearVelocity(ps.frozenVelocity);
+            b.setAngularVelocity(ps.frozenSpin);
+        }
+    }
+
+    /**
+     * PhysicsActivity is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private PhysicsActivity()
+    {
+    }
+}
@@ -1,5 +1,7 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
+import java.util.ArrayList;
+
 import org.anddev.andengine.audio.sound.Sound;
 import org.anddev.andengine.entity.IEntity;
 import org.anddev.andengine.entity.modifier.LoopEntityModifier;
@@ -8,7 +10,6 @@ import org.anddev.andengine.entity.modifier.PathModifier.IPathModifierListener;
 import org.anddev.andengine.entity.modifier.PathModifier.Path;
 import org.anddev.andengine.entity.modifier.RotationModifier;
 import org.anddev.andengine.entity.sprite.AnimatedSprite;
-import org.anddev.andengine.extension.physics.box2d.PhysicsConnector;
 import org.anddev.andengine.extension.physics.box2d.PhysicsFactory;
 import org.anddev.andengine.extension.physics.box2d.util.constants.PhysicsConstants;
 import org.anddev.andengine.opengl.texture.region.TiledTextureRegion;
@@ -49,7 +50,13 @@ abstract public class PhysicsSprite extends AnimatedSprite
     final static int TYPE_OBSTACLE = 5;
     final static int TYPE_SVG = 6;
     final static int TYPE_DESTINATION = 7;
-    final static int TYPE_INFINITE_TRIGGER = 0xF000;
+    final static int TYPE_INFINITE_TRIGGER = 8;
+
+    /**
+     * The number of types above. The CollisionTable has one row and one column
+     * per type, so new types must stay below this.
+     */
+    final static int TYPE_COUNT = 9;
 
     /**
      * Type of this sprite; useful for disambiguation in collision detection
@@ -61,11 +68,68 @@ abstract public class PhysicsSprite extends AnimatedSprite
      */
     protected Body physBody = null;
 
+    /**
+     * The connector that keeps this sprite in sync with its physics body
+     */
+    protected InterpolatedConnector connector = null;
+
+    /**
+     * Has this entity been destroyed? Once true, it is out of the game for
+     * good, and its body will be (or has been) removed from the physics world
+     */
+    boolean destroyed = false;
+
+    /**
+     * Entities that have been destroyed, but whose bodies are still in the
+     * physics world. Box2D doesn't let us remove bodies during a step, so we
+     * collect them here and remove them once the step is done.
+     */
+    private static final ArrayList<PhysicsSprite> graveyard = new ArrayList<PhysicsSprite>();
+
+    /**
+     * The pool that takes this entity back when it is destroyed, or null if
+     * its body should be freed instead
+     */
+    SpritePool<?> pool = null;
+
+    /**
+     * Is this entity waiting in a SpritePool? It is already out of play, so
+     * destroying it does nothing.
+     */
+    boolean pooled = false;
+
+    /**
+     * Is PhysicsActivity watching this entity, so that it can be frozen when
+     * it is far from the camera?
+     */
+    boolean tracked = false;
+
+    /**
+     * Has PhysicsActivity frozen this entity?
+     */
+    boolean frozen = false;
+
+    /**
+     * Velocity of the body when it was frozen
+     */
+    final Vector2 frozenVelocity = new Vector2();
+
+    /**
+     * Angular velocity of the body when it was frozen
+     */
+    float frozenSpin;
+
     /**
      * Does this entity move by tilting the phone?
      */
     protected boolean isTilt = false;
 
+    /**
+     * Is this entity in Level's list of tilt entities? It can still be there
+     * for a step after it stops tilting, until the list is compacted.
+     */
+    boolean inTiltList = false;
+
     /**
      * Does this entity follow a path?
      */
@@ -140,6 +204,7 @@ abstract public class PhysicsSprite extends AnimatedSprite
     {
         registerEntityModifier(new LoopEntityModifier(new PathModifier(duration, path)));
         isPath = true;
+        PhysicsActivity.track(this);
     }
     
     /**
@@ -153,6 +218,7 @@ abstract public class PhysicsSprite extends AnimatedSprite
     {
         registerEntityModifier(new PathModifier(duration, path, null, listener));
         isPath = true;
+        PhysicsActivity.track(this);
     }
     
     /**
@@ -166,6 +232,7 @@ abstract public class PhysicsSprite extends AnimatedSprite
     {
         registerEntityModifier(new PathModifier(duration, path));
         isPath = true;
+        PhysicsActivity.track(this);
     }
     
     void travelTo(float x, float y) {
@@ -254,8 +321,11 @@ abstract public class PhysicsSprite extends AnimatedSprite
         physBody = PhysicsFactory.createBoxBody(Level.physics, this, type, fd);
         if (isBullet)
             physBody.setBullet(true);
-        Level.physics.registerPhysicsConnector(new PhysicsConnector(this, physBody, true, canRotate));
+        connector = new InterpolatedConnector(this, physBody, true, canRotate);
+        Level.physics.registerPhysicsConnector(connector);
         physBody.setUserData(this);
+        if (type != BodyType.StaticBody)
+            PhysicsActivity.track(this);
     }
 
     /**
@@ -285,8 +355,70 @@ abstract public class PhysicsSprite extends AnimatedSprite
         physBody = PhysicsFactory.createCircleBody(Level.physics, this, type, fd);
         if (isBullet)
             physBody.setBullet(true);
-        Level.physics.registerPhysicsConnector(new PhysicsConnector(this, physBody, true, canRotate));
+        connector = new InterpolatedConnector(this, physBody, true, canRotate);
+        Level.physics.registerPhysicsConnector(connector);
         physBody.setUserData(this);
+        if (type != BodyType.StaticBody)
+            PhysicsActivity.track(this);
+    }
+
+    /**
+     * Remove this entity from the game for good. It disappears and stops
+     * colliding right away, and its body, fixtures, connector, touch area and
+     * place in the scene are all released after the current physics step.
+     * 
+     * Use this for things that will never come back, such as killed enemies
+     * and collected goodies. It is safe to call more than once.
+     */
+    void destroy()
+    {
+        if (destroyed || pooled)
+            return;
+        destroyed = true;
+        setVisible(false);
+        if (physBody != null)
+            physBody.setActive(false);
+        graveyard.add(this);
+    }
+
+    /**
+     * Release everything held by the entities that were destroyed since the
+     * last call. This runs from the physics update, once the step is done.
+     */
+    static void flushDestroyed()
+    {
+        for (int i = 0; i < graveyard.size(); ++i) {
+            PhysicsSprite ps = graveyard.get(i);
+            // stop any paths, since they would try to move the body
+            ps.clearEntityModifiers();
+            // pooled entities keep their bodies, so they can be used again
+            if (ps.pool != null) {
+                ps.pool.reclaim(ps);
+                continue;
+            }
+            if (ps.connector != null) {
+                Level.physics.unregisterPhysicsConnector(ps.connector);
+                ps.connector = null;
+            }
+            if (ps.physBody != null) {
+                ps.physBody.setUserData(null);
+                Level.physics.destroyBody(ps.physBody);
+                ps.physBody = null;
+            }
+            Level.current.unregisterTouchArea(ps);
+            PhysicsActivity.untrack(ps);
+            ps.detachSelf();
+        }
+        graveyard.clear();
+    }
+
+    /**
+     * Forget about destroyed entities without releasing them. This is only
+     * correct when the whole physics world is being thrown away.
+     */
+    static void clearDestroyed()
+    {
+        graveyard.clear();
     }
 
     /**
@@ -314,6 +446,61 @@ abstract public class PhysicsSprite extends AnimatedSprite
         physBody.setAngularVelocity(0);
     }
 
+    /**
+     * Take an entity out of play so that it can be pooled. Its body stays in
+     * the physics world, but is inactive.
+     */
+    void retire()
+    {
+        setVisible(false);
+        physBody.setActive(false);
+        clearEntityModifiers();
+        Level.current.unregisterTouchArea(this);
+    }
+
+    /**
+     * Bring a retired entity back into play at a new position. This undoes
+     * anything that could have happened to it in its last life (paths, tilt,
+     * rotation, sound, being hidden or destroyed), so it behaves like a
+     * freshly made entity. Subclasses reset their own fields and fixtures,
+     * and then call this.
+     * 
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     */
+    void recycle(float x, float y)
+    {
+        // a pooled entity may have been frozen before it was retired
+        if (frozen) {
+            frozen = false;
+            setIgnoreUpdate(false);
+        }
+        clearEntityModifiers();
+        destroyed = false;
+        isPath = false;
+        isTilt = false;
+        sound = null;
+        setRotation(0);
+        super.setPosition(x, y);
+        v.x = (x + mWidth * 0.5f) / PhysicsConstants.PIXEL_TO_METER_RATIO_DEFAULT;
+        v.y = (y + mHeight * 0.5f) / PhysicsConstants.PIXEL_TO_METER_RATIO_DEFAULT;
+        physBody.setTransform(v, 0);
+        v.x = 0;
+        v.y = 0;
+        physBody.setLinearVelocity(v);
+        physBody.setAngularVelocity(0);
+        physBody.setActive(true);
+        // don't draw the sprite sliding from where it was retired
+        if (connector != null)
+            connector.snap();
+        setVisible(true);
+        // let the scene know that we are in a new part of the level
+        if (getParent() instanceof CullingScene)
+            ((CullingScene) getParent()).relocate(this);
+    }
+
 	public boolean isPath() {
 		return isPath;
 	}
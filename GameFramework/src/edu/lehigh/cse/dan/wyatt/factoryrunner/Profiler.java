@@ -0,0 +1,383 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+
+import org.anddev.andengine.engine.camera.hud.HUD;
+import org.anddev.andengine.engine.handler.timer.ITimerCallback;
+import org.anddev.andengine.engine.handler.timer.TimerHandler;
+import org.anddev.andengine.entity.text.ChangeableText;
+import org.anddev.andengine.util.Debug;
+
+/**
+ * The Profiler measures what each frame costs, so that jank can be seen on a
+ * phone without attaching a profiler.
+ *
+ * For every frame it records how long the frame was, how long the scene's
+ * update took, how much of that was physics, how many physics steps and
+ * contacts there were, how many entities and bodies the level has, and how
+ * many garbage collections have happened so far. The times of the last WINDOW
+ * frames are kept in histograms, so the 50th, 95th and 99th percentiles can
+ * be shown at any moment, and the raw numbers of those frames can be written
+ * to a CSV file.
+ *
+ * When enabled, a few lines of text on the HUD show the percentiles, and the
+ * Menu key writes the CSV file. When disabled (the default), the hooks in the
+ * game loop cost one check of a flag.
+ */
+class Profiler
+{
+    /**
+     * Number of frames that the percentiles and the CSV file cover
+     */
+    static final int WINDOW = 300;
+
+    /**
+     * Width of each histogram bin, in milliseconds
+     */
+    static final float BIN_MS = 0.1f;
+
+    /**
+     * Number of bins. Anything slower than the last bin goes in the last bin.
+     */
+    static final int BINS = 1000;
+
+    /**
+     * Seconds between refreshes of the overlay
+     */
+    static final float REFRESH = 0.25f;
+
+    /**
+     * A histogram of the last WINDOW samples
+     */
+    static final class Histogram
+    {
+        /**
+         * Number of samples in each bin
+         */
+        private final int[] counts = new int[BINS];
+
+        /**
+         * The bin of each of the last WINDOW samples, so that the oldest one
+         * can be taken out when a new one comes in
+         */
+        private final short[] recent = new short[WINDOW];
+
+        /**
+         * Number of samples recorded, ever
+         */
+        private int total = 0;
+
+        /**
+         * Add a sample, dropping the oldest one if the window is full
+         *
+         * @param ms
+         *            The sample, in milliseconds
+         */
+        void record(float ms)
+        {
+            int bin = (int) (ms / BIN_MS);
+            if (bin >= BINS)
+                bin = BINS - 1;
+            else if (bin < 0)
+                bin = 0;
+            int slot = total % WINDOW;
+            if (total >= WINDOW)
+                counts[recent[slot]]--;
+            recent[slot] = (short) bin;
+            counts[bin]++;
+            total++;
+        }
+
+        /**
+         * Find a percentile of the samples in the window
+         *
+         * @param p
+         *            The percentile, from 0 to 100
+         *
+         * @return the upper edge of the bin holding the percentile, in
+         *         milliseconds, or 0 if there are no samples
+         */
+        float percentile(int p)
+        {
+            int n = Math.min(total, WINDOW);
+            if (n == 0)
+                return 0;
+            int rank = (n * p + 99) / 100;
+            int seen = 0;
+            for (int i = 0; i < BINS; ++i) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return (i + 1) * BIN_MS;
+            }
+            return BINS * BIN_MS;
+        }
+
+        /**
+         * Forget every sample
+         */
+        void clear()
+        {
+            for (int i = 0; i < BINS; ++i)
+                counts[i] = 0;
+            total = 0;
+        }
+    }
+
+    /**
+     * True when the profiler is measuring
+     */
+    private static boolean enabled = false;
+
+    /**
+     * Histograms of frame time, update time, and physics time
+     */
+    static final Histogram frameTimes = new Histogram();
+    static final Histogram updateTimes = new Histogram();
+    static final Histogram physicsTimes = new Histogram();
+
+    /**
+     * The raw numbers of the last WINDOW frames, for the CSV file
+     */
+    private static final float[] frameMs = new float[WINDOW];
+    private static final float[] updateMs = new float[WINDOW];
+    private static final float[] physicsMs = new float[WINDOW];
+    private static final int[] steps = new int[WINDOW];
+    private static final int[] contacts = new int[WINDOW];
+    private static final int[] entities = new int[WINDOW];
+    private static final int[] bodies = new int[WINDOW];
+    private static final int[] gcs = new int[WINDOW];
+
+    /**
+     * Number of frames recorded since the profiler was enabled
+     */
+    private static int frames = 0;
+
+    /**
+     * Physics time, steps, and contacts of the frame in progress
+     */
+    private static long framePhysicsNanos = 0;
+    private static int frameSteps = 0;
+    private static int frameContacts = 0;
+
+    /**
+     * An object that only a weak reference points to. When it is gone, the
+     * garbage collector has run.
+     */
+    private static WeakReference<Object> gcSentinel = new WeakReference<Object>(new Object());
+
+    /**
+     * Number of garbage collections seen since the profiler was enabled
+     */
+    private static int gcCount = 0;
+
+    /**
+     * The overlay on the HUD, or null
+     */
+    private static ChangeableText overlay = null;
+
+    /**
+     * Builds the text of the overlay
+     */
+    private static final StringBuilder text = new StringBuilder(160);
+
+    /**
+     * Turn the profiler on or off. The overlay appears when the next level
+     * starts.
+     *
+     * @param on
+     *            True to start measuring
+     */
+    static public void setEnabled(boolean on)
+    {
+        if (on && !enabled) {
+            frameTimes.clear();
+            updateTimes.clear();
+            physicsTimes.clear();
+            frames = 0;
+            gcCount = 0;
+        }
+        enabled = on;
+    }
+
+    /**
+     * @return true if the profiler is measuring
+     */
+    static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Called by the physics world after each step
+     *
+     * @param nanos
+     *            How long the step took
+     */
+    static void countStep(long nanos)
+    {
+        framePhysicsNanos += nanos;
+        frameSteps++;
+    }
+
+    /**
+     * Called by the contact queue when it is drained
+     *
+     * @param n
+     *            Number of contacts that were handled
+     */
+    static void countContacts(int n)
+    {
+        frameContacts += n;
+    }
+
+    /**
+     * Called by the scene at the end of each update
+     *
+     * @param secondsElapsed
+     *            Length of the frame
+     * @param updateNanos
+     *            How long the scene's update took, physics included
+     */
+    static void endFrame(float secondsElapsed, long updateNanos)
+    {
+        if (gcSentinel.get() == null) {
+            gcCount++;
+            gcSentinel = new WeakReference<Object>(new Object());
+        }
+        float fMs = secondsElapsed * 1000;
+        float uMs = updateNanos / 1000000f;
+        float pMs = framePhysicsNanos / 1000000f;
+        frameTimes.record(fMs);
+        updateTimes.record(uMs);
+        physicsTimes.record(pMs);
+
+        int slot = frames % WINDOW;
+        frameMs[slot] = fMs;
+        updateMs[slot] = uMs;
+        physicsMs[slot] = pMs;
+        steps[slot] = frameSteps;
+        contacts[slot] = frameContacts;
+        entities[slot] = Level.current == null ? 0 : Level.current.getChildCount();
+        bodies[slot] = Level.physics == null ? 0 : Level.physics.getBodyCount();
+        gcs[slot] = gcCount;
+        frames++;
+
+        framePhysicsNanos = 0;
+        frameSteps = 0;
+        frameContacts = 0;
+    }
+
+    /**
+     * Put the overlay on the HUD of a new level, if the profiler is enabled
+     *
+     * @param hud
+     *            The level's HUD
+     */
+    static void onNewLevel(HUD hud)
+    {
+        overlay = null;
+        if (!enabled)
+            return;
+        overlay = new ChangeableText(4, 4, Controls.hudFont, "", 160);
+        overlay.setScaleCenter(0, 0);
+        overlay.setScale(0.4f);
+        hud.attachChild(overlay);
+        hud.registerUpdateHandler(new TimerHandler(REFRESH, true, new ITimerCallback() {
+            @Override
+            public void onTimePassed(TimerHandler th)
+            {
+                refresh();
+            }
+        }));
+    }
+
+    /**
+     * Show the newest numbers on the overlay
+     */
+    private static void refresh()
+    {
+        if (overlay == null || frames == 0)
+            return;
+        int last = (frames - 1) % WINDOW;
+        text.setLength(0);
+        text.append("frame ");
+        appendPercentiles(frameTimes);
+        text.append("\nupdate ");
+        appendPercentiles(updateTimes);
+        text.append("\nphysics ");
+        appendPercentiles(physicsTimes);
+        text.append("\nsteps ").append(steps[last]).append(" contacts ").append(contacts[last]);
+        text.append("\nentities ").append(entities[last]).append(" bodies ").append(bodies[last]);
+        text.append(" gc ").append(gcCount);
+        overlay.setText(text.toString());
+    }
+
+    /**
+     * Add "p50/p95/p99ms" of a histogram to the overlay text
+     */
+    private static void appendPercentiles(Histogram h)
+    {
+        appendMs(h.percentile(50));
+        text.append('/');
+        appendMs(h.percentile(95));
+        text.append('/');
+        appendMs(h.percentile(99));
+        text.append("ms");
+    }
+
+    /**
+     * Add a time to the overlay text, with one decimal
+     */
+    private static void appendMs(float ms)
+    {
+        int tenths = Math.round(ms * 10);
+        text.append(tenths / 10).append('.').append(tenths % 10);
+    }
+
+    /**
+     * Write the numbers of the last WINDOW frames to a CSV file, oldest
+     * first. This must run on the update thread.
+     *
+     * @return the file, or null if it couldn't be written
+     */
+    static File dumpCSV()
+    {
+        File dir = Framework.self().getExternalFilesDir(null);
+        if (dir == null)
+            dir = Framework.self().getFilesDir();
+        File f = new File(dir, "profile-" + System.currentTimeMillis() + ".csv");
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(f));
+            try {
+                out.println("frame,frame_ms,update_ms,physics_ms,steps,contacts,entities,bodies,gc_count");
+                int n = Math.min(frames, WINDOW);
+                for (int i = frames - n; i < frames; ++i) {
+                    int s = i % WINDOW;
+                    out.println(i + "," + frameMs[s] + "," + updateMs[s] + "," + physicsMs[s] + "," + steps[s] + ","
+                            + contacts[s] + "," + entities[s] + "," + bodies[s] + "," + gcs[s]);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            Debug.d("Could not write " + f);
+            return null;
+        }
+        Debug.d("Wrote profile to " + f);
+        return f;
+    }
+
+    /**
+     * Profiler is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private Profiler()
+    {
+    }
+}
@@ -0,0 +1,148 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+/**
+ * A RandomStream is a fast, splittable source of random numbers, using the
+ * SplitMix64 algorithm (the one behind java.util.SplittableRandom, which
+ * Android doesn't have).
+ *
+ * Unlike java.util.Random and Math.random, a stream is not synchronized, so
+ * it costs a few arithmetic operations per number. The price is that a stream
+ * must only be used by one thread. Code that needs random numbers on another
+ * thread, or that wants numbers that don't depend on what anybody else draws,
+ * should split() a stream of its own.
+ *
+ * Two streams made from the same seed produce the same numbers, which is what
+ * makes a level replayable (see Randoms).
+ */
+final class RandomStream
+{
+    /**
+     * The default gamma: the odd integer closest to 2^64 / golden ratio
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The state, which advances by gamma for every number
+     */
+    private long seed;
+
+    /**
+     * The step of this stream. It is always odd.
+     */
+    private final long gamma;
+
+    /**
+     * Make a stream
+     *
+     * @param seed
+     *            The seed. Streams with the same seed give the same numbers.
+     */
+    RandomStream(long seed)
+    {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Make a stream with a given step, for split()
+     */
+    private RandomStream(long seed, long gamma)
+    {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Scramble the bits of a long (the MurmurHash3 finalizer, with David
+     * Stafford's "Mix13" constants)
+     *
+     * @param z
+     *            The value to scramble
+     * @return the scrambled value
+     */
+    static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Turn a random long into a gamma for a new stream: odd, and with enough
+     * bit transitions that the stream's states aren't too regular
+     */
+    private static long mixGamma(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+    /**
+     * @return a random long
+     */
+    long nextLong()
+    {
+        seed += gamma;
+        return mix64(seed);
+    }
+
+    /**
+     * @return a random int
+     */
+    int nextInt()
+    {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Get a random int, with every value in range equally likely
+     *
+     * @param bound
+     *            One more than the largest value to return. Must be positive.
+     * @return a random int in [0, bound)
+     */
+    int nextInt(int bound)
+    {
+        int r = nextInt();
+        int m = bound - 1;
+        // powers of two only need the low bits
+        if ((bound & m) == 0)
+            return r & m;
+        // otherwise, reject the values that would make the low results more
+        // likely than the high ones
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1)
+            ;
+        return r;
+    }
+
+    /**
+     * @return a random float in [0, 1)
+     */
+    float nextFloat()
+    {
+        return (nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+    /**
+     * @return a random double in [0, 1), as from Math.random
+     */
+    double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Make a new stream whose numbers don't overlap with this one's. This
+     * draws from this stream, so the new stream depends on how many numbers
+     * were drawn before it.
+     *
+     * @return the new stream
+     */
+    RandomStream split()
+    {
+        long s = nextLong();
+        return new RandomStream(s, mixGamma(nextLong()));
+    }
+}
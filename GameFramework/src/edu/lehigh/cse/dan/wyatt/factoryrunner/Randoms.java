@@ -0,0 +1,118 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * Randoms hands out the random numbers of a level, as named RandomStreams.
+ *
+ * Every level has a seed, made from the run seed and the level number. Each
+ * named stream is seeded from the level seed and its name, so a stream gives
+ * the same numbers every time the level is played with the same run seed, no
+ * matter which other streams were used, or in what order. This makes it
+ * possible to replay an infinite run exactly, e.g., to profile it or to track
+ * down a bug: the seeds are logged when each level starts, and setRunSeed
+ * puts them back.
+ *
+ * The run seed is picked from the clock when the game starts, so levels with
+ * random parts are different every time the game is run, unless a run seed is
+ * given.
+ *
+ * stream() must be called on the update thread. A stream that another thread
+ * will use (e.g., the ChunkStreamer's planning thread) should be fetched on
+ * the update thread when the level is set up, and then only used by that
+ * thread.
+ */
+class Randoms
+{
+    /**
+     * The run seed
+     */
+    private static long runSeed = System.nanoTime();
+
+    /**
+     * The number of the current level
+     */
+    private static int level;
+
+    /**
+     * The seed of the current level
+     */
+    private static long levelSeed = RandomStream.mix64(runSeed);
+
+    /**
+     * Streams of the current level, by name
+     */
+    private static final HashMap<String, RandomStream> streams = new HashMap<String, RandomStream>();
+
+    /**
+     * Replay every level from now on with the numbers it had in an earlier
+     * run
+     *
+     * @param seed
+     *            The run seed, as logged by seedLevel
+     */
+    static void setRunSeed(long seed)
+    {
+        runSeed = seed;
+    }
+
+    /**
+     * @return the run seed
+     */
+    static long getRunSeed()
+    {
+        return runSeed;
+    }
+
+    /**
+     * Start the random numbers of a level. Games call this before setting up
+     * each level, and before any of the level's streams are used.
+     *
+     * @param whichLevel
+     *            The level number (0 for the infinite level)
+     */
+    static void seedLevel(int whichLevel)
+    {
+        level = whichLevel;
+        levelSeed = RandomStream.mix64(runSeed + RandomStream.mix64(whichLevel));
+        streams.clear();
+        Log.i("Randoms", "level " + whichLevel + ": run seed " + runSeed + ", level seed " + levelSeed);
+    }
+
+    /**
+     * @return the number of the current level, as given to seedLevel
+     */
+    static int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Get one of the streams of the current level
+     *
+     * @param name
+     *            The name of the stream. Each part of the game that uses random
+     *            numbers should have its own name.
+     * @return the stream, which is the same object every time it is asked
+     *         for until the next level starts
+     */
+    static RandomStream stream(String name)
+    {
+        RandomStream s = streams.get(name);
+        if (s == null) {
+            s = new RandomStream(levelSeed ^ RandomStream.mix64(name.hashCode()));
+            streams.put(name, s);
+        }
+        return s;
+    }
+
+    /**
+     * Randoms is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private Randoms()
+    {
+    }
+}
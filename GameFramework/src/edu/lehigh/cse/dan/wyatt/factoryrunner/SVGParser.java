@@ -1,147 +1,215 @@
 package edu.lehigh.cse.dan.wyatt.factoryrunner;
 
-import org.anddev.andengine.entity.primitive.Line;
-import org.anddev.andengine.extension.physics.box2d.PhysicsFactory;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.anddev.andengine.util.Debug;
 import org.anddev.andengine.util.SAXUtils;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
-import com.badlogic.gdx.physics.box2d.Body;
-import com.badlogic.gdx.physics.box2d.FixtureDef;
-
 /**
  * A rudimentary parser for SVG files.
- * 
+ *
+ * The parser turns each path of an SVG file into a compact array of vertices
+ * (x0, y0, x1, y1, ...), in SVG coordinates with any 'translate' clause
+ * already applied. The result is cached by file name, so a file is only parsed
+ * the first time it is used. Obstacle.loadSVG turns the vertices into lines and
+ * physics bodies.
+ *
+ * Paths may use the absolute and relative forms of the M, L, H, V, C, Q, and Z
+ * commands. Curves are flattened into as few straight segments as it takes to
+ * stay within the tolerance (see setTolerance), so flat stretches of a curve
+ * get few vertices and tight bends get more. Every M (and every drawing after
+ * a Z) starts a new path.
+ *
  * There are several known limitations:
- * 
- * First, it assumes that the path only uses relative lines and circles. That
- * is, it should start with "m", then have only "l" and "c" entities, and end
- * with "z". Any other stuff in the path will cause funny errors.
- * 
- * Second, it can't handle curves, so it fakes any curve it encounters by
- * drawing a straight line. This necessitates "swallowing" the first 2 x,y
- * points after a "c" directive, as such points are not endpoints.
- * 
- * Third, it looks for a 'transpose' clause, but I don't know if it will work
+ *
+ * First, the S, T, and A commands are not supported. Their parameters are
+ * skipped, so the outline will jump to the next supported command.
+ *
+ * Second, it looks for a 'transpose' clause, but I don't know if it will work
  * when other clauses are present too.
- * 
- * Fourth, it ignores the colors of lines that are specified in the .svg file
- * 
+ *
+ * Third, it ignores the colors of lines that are specified in the .svg file
+ *
  * @author spear
- * 
+ *
  */
 public class SVGParser extends DefaultHandler
 {
     /**
-     * The loadSVG method of the Obstacle class uses this field to set the red
-     * component of the color of lines being drawn
+     * The vertices of every SVG file that has been parsed, by file name
      */
-    float lineR;
+    private static final Hashtable<String, float[][]> cache = new Hashtable<String, float[][]>();
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to set the green
-     * component of the color of lines being drawn
+     * The vertices of each path in the file being parsed
      */
-    float lineG;
+    private final ArrayList<float[]> paths = new ArrayList<float[]>();
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to set the blue
-     * component of the color of lines being drawn
+     * Vertices of the path being parsed. This grows as needed, and is trimmed
+     * when the path is done.
      */
-    float lineB;
+    private float[] verts = new float[64];
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to specify the
-     * physics behavior of this object
+     * Number of floats in verts that are in use
      */
-    FixtureDef fixture;
+    private int vertCount = 0;
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to add an offset
-     * to the X position of the lines being drawn.
+     * internal cache of the X position of the SVG "transform" field
      */
-    public float userTransformX = 0f;
+    private float svgTransformX = 0f;
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to add an offset
-     * to the Y position of the lines being drawn.
+     * internal cache of the Y position of the SVG "transform" field
      */
-    public float userTransformY = 0f;
+    private float svgTransformY = 0f;
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to stretch the X
-     * dimension of the lines being drawn
+     * X coordinate of the current point, in SVG coordinates
      */
-    public float userStretchX = 1f;
+    private float curX = 0;
 
     /**
-     * The loadSVG method of the Obstacle class uses this field to stretch the Y
-     * dimension of the lines being drawn
+     * Y coordinate of the current point, in SVG coordinates
      */
-    public float userStretchY = 1f;
+    private float curY = 0;
 
     /**
-     * internal cache of the X position of the SVG "transform" field
+     * X coordinate of the start of the current subpath, where 'z' returns to
      */
-    private float svgTransformX = 0f;
+    private float startX = 0;
 
     /**
-     * internal cache of the Y position of the SVG "transform" field
+     * Y coordinate of the start of the current subpath, where 'z' returns to
      */
-    private float svgTransformY = 0f;
+    private float startY = 0;
 
     /**
-     * internal field to track the X coordinate of the last point we drew
+     * How far (in SVG units) a flattened curve may stray from the real curve.
+     * Smaller values give more accurate outlines, with more vertices.
      */
-    private float lastX = 0;
+    private static float tolerance = 0.5f;
 
     /**
-     * internal field to track the Y coordinate of the last point we drew
+     * Curves are never split more than this many times, so that a degenerate
+     * curve can't make an unbounded number of vertices
      */
-    private float lastY = 0;
+    private static final int MAX_DEPTH = 10;
 
     /**
-     * internal field to track the X coordinate of the current point
+     * Vertices closer than this (in SVG units) are treated as the same, and a
+     * vertex this close to a straight line is treated as being on it
      */
-    private float nextX = 0;
+    private static final float EPSILON = 0.001f;
 
     /**
-     * internal field to track the Y coordinate of the current point
+     * The path data being scanned
      */
-    private float nextY = 0;
+    private String data;
 
     /**
-     * track the state of the parser
-     * 
-     * This is a gross hack for handling the first point. Valid values are 0 for
-     * "read next x", 1 for "read next y", -2 for "read first x", and -1 for
-     * "read first y"
+     * Position of the scanner in data
      */
-    private int state = 0;
+    private int pos;
 
     /**
-     * internal field for faking the creation of curves. This gives the number
-     * of values to ignore when parsing.
+     * Powers of ten, for turning digits into floats without making Strings
      */
-    private int swallow = 0;
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
 
     /**
-     * internal field for managing whether we're parsing a curve or a line.
-     * Valid values are 0 for "uninitialized", 1 for "starting to read", 2 for
-     * "parsing curve", and 3 for "parsing line"
+     * Change how closely flattened curves must follow the real curves. This
+     * throws away any cached paths, so it should be called before the first
+     * call to Obstacle.loadSVG.
+     *
+     * @param svgUnits
+     *            The largest distance, in SVG units, between a curve and the
+     *            segments that replace it. The default is 0.5.
      */
-    private int mode = 0;
+    static public void setTolerance(float svgUnits)
+    {
+        if (svgUnits > 0 && svgUnits != tolerance) {
+            tolerance = svgUnits;
+            cache.clear();
+        }
+    }
 
     /**
-     * Internal field for building strings when the parser encounters
-     * 'characters' in the SVG file
+     * Get the paths of an SVG file, parsing it if this is the first request
+     * for it
+     *
+     * @param name
+     *            Name of the svg file to load. It should be in the assets
+     *            folder
+     *
+     * @return one array of vertices per path, or null if the file could not
+     *         be parsed
      */
-    private final StringBuilder sb = new StringBuilder();
+    static float[][] getPaths(String name)
+    {
+        float[][] result = cache.get(name);
+        if (result != null)
+            return result;
+        try {
+            InputStream inputStream = Framework.self().getAssets().open(name);
+            try {
+                result = parse(inputStream);
+            }
+            finally {
+                inputStream.close();
+            }
+            cache.put(name, result);
+            return result;
+        }
+        // if the read fails, just print a stack trace
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Parse an SVG document, without caching the result
+     *
+     * @param in
+     *            The document. The caller must close it.
+     *
+     * @return one array of vertices per path
+     */
+    static float[][] parse(InputStream in) throws Exception
+    {
+        // create a SAX parser for SVG files
+        final SAXParserFactory spf = SAXParserFactory.newInstance();
+        // startElement() matches local names, which desktop parsers only
+        // report when they are namespace-aware
+        spf.setNamespaceAware(true);
+        final SAXParser sp = spf.newSAXParser();
+        final XMLReader xmlReader = sp.getXMLReader();
+        SVGParser parser = new SVGParser();
+
+        // start parsing!
+        xmlReader.setContentHandler(parser);
+        xmlReader.parse(new InputSource(new BufferedInputStream(in)));
+        return parser.paths.toArray(new float[parser.paths.size()][]);
+    }
 
     /**
      * XML parser method for start of an element
-     * 
+     *
      * @param uri
      *            standard parameter to XML parsers
      * @param localName
@@ -170,173 +238,373 @@ public class SVGParser extends DefaultHandler
             // need to handle 'transform="translate(-82.375,-153.28318)"'
             // attribute
             String xlate = SAXUtils.getAttribute(attributes, "transform", null);
-            if (xlate != null) {
-                if (xlate.startsWith("translate(")) {
-                    String x2 = xlate.replace("translate(", "");
-                    x2 = x2.replace(")", ",");
-                    String delims = "[,]+";
-                    String[] points = x2.split(delims);
-                    try {
-                        svgTransformX = Float.valueOf(points[0]).floatValue();
-                        svgTransformY = Float.valueOf(points[1]).floatValue();
-                    }
-                    catch (NumberFormatException nfs) {
-                    }
-                }
+            if (xlate != null && xlate.startsWith("translate(")) {
+                data = xlate;
+                pos = "translate(".length();
+                if (skipToNumber())
+                    svgTransformX = readNumber();
+                if (skipToNumber())
+                    svgTransformY = readNumber();
             }
         }
 
         // read a path, subject to the limitations defined above
         else if (localName.equals("path")) {
-            String paths = SAXUtils.getAttributeOrThrow(attributes, "d");
-            String delims = "[ ,]+";
-            String[] points = paths.split(delims);
-            for (String s0 : points) {
-                String s = s0.trim();
-                // start of the path
-                if (s.equals("m")) {
-                    state = -2;
-                }
-                // switch to mode for drawing curves
-                else if (s.equals("c")) {
-                    mode = 2;
-                    swallow = 4;
-                }
-                // end of the path
-                else if (s.equals("z")) {
-                }
-                // switch to mode for drawing lines
-                else if (s.equals("l")) {
-                    mode = 3;
-                    swallow = 0;
+            data = SAXUtils.getAttributeOrThrow(attributes, "d");
+            pos = 0;
+            vertCount = 0;
+            // a leading 'm' is relative to the origin
+            curX = curY = startX = startY = 0;
+            parsePath();
+        }
+        else {
+            throw new SAXException("Unexpected start tag: '" + localName + "'.");
+        }
+    }
+
+    /**
+     * Walk through the path data, one command letter or number at a time
+     */
+    private void parsePath()
+    {
+        int len = data.length();
+        char cmd = 0;
+        while (pos < len) {
+            char c = data.charAt(pos);
+            // separators
+            if (c == ' ' || c == ',' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+                continue;
+            }
+            // a number: run the current command again with new parameters
+            if (c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')) {
+                if (cmd == 0) {
+                    readNumber();
+                    continue;
                 }
-                // handle content
-                else {
-                    // ignore first parameters of a curve entry
-                    if (swallow > 0) {
-                        swallow--;
+                boolean rel = cmd >= 'a';
+                float ox = rel ? curX : 0;
+                float oy = rel ? curY : 0;
+                switch (cmd) {
+                    case 'M':
+                    case 'm':
+                        moveTo(ox + nextNumber(), oy + nextNumber());
+                        // extra pairs after a move are lines
+                        cmd = rel ? 'l' : 'L';
+                        break;
+                    case 'L':
+                    case 'l':
+                        lineTo(ox + nextNumber(), oy + nextNumber());
+                        break;
+                    case 'H':
+                    case 'h':
+                        lineTo(ox + nextNumber(), curY);
+                        break;
+                    case 'V':
+                    case 'v':
+                        lineTo(curX, oy + nextNumber());
+                        break;
+                    case 'C':
+                    case 'c': {
+                        float x1 = ox + nextNumber();
+                        float y1 = oy + nextNumber();
+                        float x2 = ox + nextNumber();
+                        float y2 = oy + nextNumber();
+                        float x = ox + nextNumber();
+                        float y = oy + nextNumber();
+                        cubicTo(curX, curY, x1, y1, x2, y2, x, y, 0);
+                        break;
                     }
-                    // get the next point
-                    else {
-                        try {
-                            float val = Float.valueOf(s).floatValue();
-                            // read initial x
-                            if (state == -2) {
-                                state = -1;
-                                lastX = val;
-                            }
-                            // read initial y: we can't draw a line yet because
-                            // we only have one point
-                            else if (state == -1) {
-                                state = 0;
-                                lastY = val;
-                            }
-                            // read next x
-                            else if (state == 0) {
-                                nextX = lastX + val;
-                                state = 1;
-                            }
-                            // read next y, and then draw a line
-                            else if (state == 1) {
-                                state = 0;
-                                nextY = lastY + val;
-                                // draw the line
-                                addLine(userStretchX * (lastX + svgTransformX + userTransformX), userStretchY
-                                        * (lastY + svgTransformY + userTransformY), userStretchX
-                                        * (nextX + svgTransformX + userTransformX), userStretchY
-                                        * (nextY + svgTransformY + userTransformY));
-                                lastX = nextX;
-                                lastY = nextY;
-                                // if we are in curve mode, then reinitialize
-                                // the swallower
-                                if (mode == 2)
-                                    swallow = 4;
-                            }
-                        }
-                        // ignore errors
-                        catch (NumberFormatException nfs) {
-                        }
+                    case 'Q':
+                    case 'q': {
+                        float x1 = ox + nextNumber();
+                        float y1 = oy + nextNumber();
+                        float x = ox + nextNumber();
+                        float y = oy + nextNumber();
+                        quadTo(curX, curY, x1, y1, x, y, 0);
+                        break;
                     }
+                    // unsupported command: skip its parameters
+                    default:
+                        readNumber();
                 }
+                continue;
+            }
+            pos++;
+            if (c == 'z' || c == 'Z') {
+                closePath();
+                cmd = 0;
+            }
+            else if ("MmLlHhVvCcQq".indexOf(c) >= 0) {
+                cmd = c;
+            }
+            else if ("SsTtAa".indexOf(c) >= 0) {
+                Debug.d("SVG command '" + c + "' is not supported");
+                cmd = c;
             }
         }
-        else {
-            throw new SAXException("Unexpected start tag: '" + localName + "'.");
+        finishPath();
+    }
+
+    /**
+     * Read the next parameter of a command
+     *
+     * @return the parameter, or 0 if the command is missing parameters
+     */
+    private float nextNumber()
+    {
+        return skipToNumber() ? readNumber() : 0;
+    }
+
+    /**
+     * Start a new subpath
+     */
+    private void moveTo(float x, float y)
+    {
+        finishPath();
+        curX = startX = x;
+        curY = startY = y;
+    }
+
+    /**
+     * Extend the current subpath with a straight segment
+     */
+    private void lineTo(float x, float y)
+    {
+        if (vertCount == 0)
+            addVertex(curX, curY);
+        addVertex(x, y);
+        curX = x;
+        curY = y;
+    }
+
+    /**
+     * Return to the start of the current subpath, and end it
+     */
+    private void closePath()
+    {
+        if (vertCount > 0)
+            lineTo(startX, startY);
+        finishPath();
+        curX = startX;
+        curY = startY;
+    }
+
+    /**
+     * Save the current subpath, if it has at least one segment, and start an
+     * empty one
+     */
+    private void finishPath()
+    {
+        if (vertCount >= 4) {
+            float[] trimmed = new float[vertCount];
+            System.arraycopy(verts, 0, trimmed, 0, vertCount);
+            paths.add(trimmed);
         }
+        vertCount = 0;
     }
 
     /**
-     * XML parser method for characters
-     * 
-     * @param pCharacters
-     *            standard parameter to XML parsers
-     * @param pStart
-     *            standard parameter to XML parsers
-     * @param pLength
-     *            standard parameter to XML parsers
+     * Flatten a cubic Bezier curve. If the control points are close enough to
+     * the line between the endpoints, a single segment will do. Otherwise, the
+     * curve is split in half, and each half is flattened.
+     *
+     * The curve never strays more than 3/4 of the control points' distance
+     * from that line, so that is the error we compare to the tolerance.
      */
-    @Override
-    public void characters(final char[] pCharacters, final int pStart, final int pLength) throws SAXException
+    private void cubicTo(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, int depth)
     {
-        this.sb.append(pCharacters, pStart, pLength);
+        float d = Math.max(segmentDistance(x1, y1, x0, y0, x3, y3), segmentDistance(x2, y2, x0, y0, x3, y3));
+        if (depth >= MAX_DEPTH || 0.75f * d <= tolerance) {
+            lineTo(x3, y3);
+            return;
+        }
+        // de Casteljau split at t = 0.5
+        float x01 = (x0 + x1) / 2, y01 = (y0 + y1) / 2;
+        float x12 = (x1 + x2) / 2, y12 = (y1 + y2) / 2;
+        float x23 = (x2 + x3) / 2, y23 = (y2 + y3) / 2;
+        float xa = (x01 + x12) / 2, ya = (y01 + y12) / 2;
+        float xb = (x12 + x23) / 2, yb = (y12 + y23) / 2;
+        float xm = (xa + xb) / 2, ym = (ya + yb) / 2;
+        cubicTo(x0, y0, x01, y01, xa, ya, xm, ym, depth + 1);
+        cubicTo(xm, ym, xb, yb, x23, y23, x3, y3, depth + 1);
     }
 
     /**
-     * XML parser method for the end of an element
-     * 
-     * @param uri
-     *            standard parameter to XML parsers
-     * @param localName
-     *            standard parameter to XML parsers
-     * @param qName
-     *            standard parameter to XML parsers
+     * Flatten a quadratic Bezier curve, in the same way as cubicTo. A
+     * quadratic curve never strays more than half of its control point's
+     * distance from the line between its endpoints.
      */
-    @Override
-    public void endElement(String uri, String localName, String qName) throws SAXException
+    private void quadTo(float x0, float y0, float x1, float y1, float x2, float y2, int depth)
     {
-        // we could do different things depending on the tag, but all we really
-        // need
-        // to do is clear the characters StringBuilder
+        if (depth >= MAX_DEPTH || 0.5f * segmentDistance(x1, y1, x0, y0, x2, y2) <= tolerance) {
+            lineTo(x2, y2);
+            return;
+        }
+        float x01 = (x0 + x1) / 2, y01 = (y0 + y1) / 2;
+        float x12 = (x1 + x2) / 2, y12 = (y1 + y2) / 2;
+        float xm = (x01 + x12) / 2, ym = (y01 + y12) / 2;
+        quadTo(x0, y0, x01, y01, xm, ym, depth + 1);
+        quadTo(xm, ym, x12, y12, x2, y2, depth + 1);
+    }
 
-        // tags ignored: svg, defs, sodipodi:namedview, metadata, rdf:RDF,
-        // cc:Work, dc:format, dc:type, dc:title, g, path
-        sb.setLength(0);
+    /**
+     * Compute the distance from a point to a line segment
+     *
+     * @param px
+     *            X coordinate of the point
+     * @param py
+     *            Y coordinate of the point
+     * @param ax
+     *            X coordinate of the start of the segment
+     * @param ay
+     *            Y coordinate of the start of the segment
+     * @param bx
+     *            X coordinate of the end of the segment
+     * @param by
+     *            Y coordinate of the end of the segment
+     *
+     * @return the distance
+     */
+    private static float segmentDistance(float px, float py, float ax, float ay, float bx, float by)
+    {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float len2 = dx * dx + dy * dy;
+        float t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        if (t < 0)
+            t = 0;
+        else if (t > 1)
+            t = 1;
+        float ex = px - (ax + t * dx);
+        float ey = py - (ay + t * dy);
+        return (float) Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /**
+     * Append a vertex to the path being parsed. A vertex that repeats the
+     * previous one is dropped, and so is a previous vertex that lies on the
+     * straight line from the one before it to the new one, since neither
+     * changes the outline.
+     *
+     * @param x
+     *            X coordinate, before the 'translate' clause is applied
+     * @param y
+     *            Y coordinate, before the 'translate' clause is applied
+     */
+    private void addVertex(float x, float y)
+    {
+        x += svgTransformX;
+        y += svgTransformY;
+        if (vertCount >= 2) {
+            float px = verts[vertCount - 2];
+            float py = verts[vertCount - 1];
+            if (Math.abs(x - px) + Math.abs(y - py) < EPSILON)
+                return;
+            if (vertCount >= 4) {
+                float ax = verts[vertCount - 4];
+                float ay = verts[vertCount - 3];
+                // only merge if the middle vertex doesn't double back
+                if ((px - ax) * (x - px) + (py - ay) * (y - py) > 0
+                        && segmentDistance(px, py, ax, ay, x, y) < EPSILON)
+                    vertCount -= 2;
+            }
+        }
+        if (vertCount + 2 > verts.length) {
+            float[] bigger = new float[verts.length * 2];
+            System.arraycopy(verts, 0, bigger, 0, vertCount);
+            verts = bigger;
+        }
+        verts[vertCount++] = x;
+        verts[vertCount++] = y;
+    }
+
+    /**
+     * Move the scanner to the start of the next number, if there is one
+     * before the next command letter
+     *
+     * @return true if the scanner is at a number
+     */
+    private boolean skipToNumber()
+    {
+        int len = data.length();
+        while (pos < len) {
+            char c = data.charAt(pos);
+            if (c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9'))
+                return true;
+            if (c != ' ' && c != ',' && c != '\t' && c != '\n' && c != '\r')
+                return false;
+            pos++;
+        }
+        return false;
     }
 
     /**
-     * Internal method used by the SVG parser to actually draw a line.
-     * 
-     * Note that this is a hack. We create a simple line, and give it a color
-     * and a physics body. Then we create an invisible PhysicsSprite that wraps
-     * the body so that collision detection can safely cast the line's body's
-     * getUserData() to a PhysicsSprite.
-     * 
-     * @param x1
-     *            X coordinate of first endpoint
-     * @param y1
-     *            Y coordinate of first endpoint
-     * @param x2
-     *            X coordinate of second endpoint
-     * @param y2
-     *            Y coordinate of second endpoint
-     */
-    private void addLine(float x1, float y1, float x2, float y2)
+     * Read a number (e.g., "-12.5e-3") at the scanner's position, without
+     * creating any Strings
+     *
+     * @return the number
+     */
+    private float readNumber()
     {
-        // draw a line
-        Line line = new Line(x1, y1, x2, y2, 2);
-        line.setColor(lineR, lineG, lineB);
-        // make a physics entity for the line
-        Body b = PhysicsFactory.createLineBody(Level.physics, line, fixture);
-        // wrap it all in a fake PhysicsSprite
-        PhysicsSprite phony = new PhysicsSprite(1, 1, 1, 1, MenuManager.ttrInvis, PhysicsSprite.TYPE_SVG) {
-            @Override
-            void onCollide(PhysicsSprite other)
-            {
+        int len = data.length();
+        boolean negative = false;
+        char c = data.charAt(pos);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp = 0;
+        boolean dot = false;
+        while (pos < len) {
+            c = data.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                // keep 18 significant digits; scale for the rest
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (dot)
+                        exp--;
+                }
+                else if (!dot) {
+                    exp++;
+                }
             }
-        };
-        phony.physBody = b;
-        b.setUserData(phony);
-        // put the line on the screen
-        Level.current.attachChild(line);
+            // a second '.' starts a new number, as in "1.5.5"
+            else if (c == '.' && !dot) {
+                dot = true;
+            }
+            else {
+                break;
+            }
+            pos++;
+        }
+        if (pos < len && (data.charAt(pos) == 'e' || data.charAt(pos) == 'E')) {
+            int save = pos;
+            pos++;
+            boolean expNegative = false;
+            if (pos < len && (data.charAt(pos) == '-' || data.charAt(pos) == '+')) {
+                expNegative = data.charAt(pos) == '-';
+                pos++;
+            }
+            if (pos < len && data.charAt(pos) >= '0' && data.charAt(pos) <= '9') {
+                int e = 0;
+                while (pos < len && data.charAt(pos) >= '0' && data.charAt(pos) <= '9')
+                    e = e * 10 + (data.charAt(pos++) - '0');
+                exp += expNegative ? -e : e;
+            }
+            // not an exponent after all
+            else {
+                pos = save;
+            }
+        }
+        double val = mantissa;
+        if (exp < 0)
+            val = -exp < POW10.length ? val / POW10[-exp] : val / Math.pow(10, -exp);
+        else if (exp > 0)
+            val = exp < POW10.length ? val * POW10[exp] : val * Math.pow(10, exp);
+        return (float) (negative ? -val : val);
     }
-}
\ No newline at end of file
+}
@@ -78,62 +78,82 @@ public class SampleActivity extends Framework
     @Override
     public void onLoadResources()
     {
-        Media.registerSound("badsound.ogg");
-        Media.registerSound("goodsound.ogg");
-        Media.registerMusic("gametune.ogg", true);
-        Media.registerImage("greenball.png");
-        Media.registerImage("blueball.png");
-        Media.registerImage("redball.png");
-        Media.registerImage("mustardball.png");
-        Media.registerImage("purpleball.png");
-        Media.registerImage("greyball.png");
-        Media.registerImage("invis.png");
-        Media.registerImage("red.png");
-        Media.registerImage("back.png");
-        Media.registerImage("mid.png");
-        Media.registerImage("front.png");
-        Media.registerAnimatableImage("winkie.png", 2, 1);
-        
-        // Art from Kevin
-        Media.registerAnimatableImage("hero.png", 6, 1);
-        Media.registerAnimatableImage("boss.png", 2, 1);
-        Media.registerImage("background.png");
-        Media.registerImage("chains.png");
-        Media.registerImage("downbox.png");
-        Media.registerImage("forklift.png");
-        Media.registerImage("ground.png");
-        Media.registerImage("ground_hole.png");
-        Media.registerImage("i-beam.png");
-        Media.registerImage("ramp.png");
-        Media.registerImage("shelf.png");
-        Media.registerImage("trapdoor.png");
-        Media.registerImage("upbox.png");
-        Media.registerImage("plainbox.png");
-        Media.registerImage("level_select.png");
+        // the splash screen needs these right away
+        Media.beginPacking();
         Media.registerImage("metal_bg.png");
-        Media.registerImage("splash_text.png");
         Media.registerImage("splash.png");
+        Media.endPacking();
+
+        // everything else loads in the background while the splash screen is
+        // up, starting with what the menus and help screens need
+        AssetLoader.queueImage("plainbox.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("level_select.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("splash_text.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueAnimatableImage("hero.png", 6, 1, AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueAnimatableImage("boss.png", 2, 1, AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("upbox.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("downbox.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("trapdoor.png", AssetLoader.PRIORITY_HIGH);
+        AssetLoader.queueImage("ramp.png", AssetLoader.PRIORITY_HIGH);
+
+        // Art from Kevin
+        AssetLoader.queueImage("background.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("chains.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("forklift.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("ground.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("ground_hole.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("i-beam.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("shelf.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueImage("invis.png", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueSound("badsound.ogg", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueSound("goodsound.ogg", AssetLoader.PRIORITY_NORMAL);
+        AssetLoader.queueMusic("gametune.ogg", true, AssetLoader.PRIORITY_NORMAL);
+
+        AssetLoader.queueImage("greenball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("blueball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("redball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("mustardball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("purpleball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("greyball.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("red.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("back.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("mid.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueImage("front.png", AssetLoader.PRIORITY_LOW);
+        AssetLoader.queueAnimatableImage("winkie.png", 2, 1, AssetLoader.PRIORITY_LOW);
+        AssetLoader.start();
     }
 
     private void addDecorations(int start, int end, int num) {
     	if(num > 0)
 	    	for(int x = start; x < end; x += (end-start)/num) {
-	    		int rnd = (int) (Math.random()*3);
+	    		int rnd = Randoms.stream("decorations").nextInt(3);
 	    		Log.d("DECORATE", "rnd: " + rnd + ", x:" + x);
-	    		switch(rnd) {
-	    		case 0:
-	    			Level.addDecoration(x, 0, CHAINS_WIDTH, CHAINS_HEIGHT, "chains.png");
-	    			break;
-	    		case 1:
-	    			Level.addDecoration(x, 0, I_BEAM_WIDTH, I_BEAM_HEIGHT, "i-beam.png");
-	    			break;
-	    		case 2:
-	    			Level.addDecoration(x, Level.FLOOR_TOP-SHELF_HEIGHT, SHELF_WIDTH, SHELF_HEIGHT, "shelf.png");
-	    			break;
-	    		}
+	    		addDecoration(rnd, x);
 	    	}
     }
 
+    /**
+     * Draw one of the decorations
+     * 
+     * @param which
+     * 		0 for chains, 1 for an i-beam, 2 for a shelf
+     * @param x
+     * 		X coordinate of the left edge of the decoration
+     */
+    private void addDecoration(int which, int x) {
+		switch(which) {
+		case 0:
+			Level.addDecoration(x, 0, CHAINS_WIDTH, CHAINS_HEIGHT, "chains.png");
+			break;
+		case 1:
+			Level.addDecoration(x, 0, I_BEAM_WIDTH, I_BEAM_HEIGHT, "i-beam.png");
+			break;
+		case 2:
+			Level.addDecoration(x, Level.FLOOR_TOP-SHELF_HEIGHT, SHELF_WIDTH, SHELF_HEIGHT, "shelf.png");
+			break;
+		}
+    }
+
     private void prepareStart(int length, String message, int upbox, int downbox, int trapdoor, int ramp) {
 		Level.reset(length, getCameraHeight(), 0, 0, false, 0, 10);
 		Level.addBackgroundLayer("background.png", -1f/PARALLAX_FACTOR, 0, 0);
@@ -160,198 +180,26 @@ public class SampleActivity extends Framework
         Level.setVictoryDestination(1);
     }
     
-    private void prepareEnd(int length) {
-    	prepareEnd(length, 5);
-    }
-    
     /**
      * Every game must provide this to actually create the levels
+     * 
+     * The levels are described in levels/levels.txt, which LevelCompiler turns
+     * into assets/levels.bin
      */
     public void configureLevel(int whichLevel)
     {
-    	
-    	if (whichLevel == 1) {
-    		
-    		int length = 900;
-    		prepareStart(length, "Swipe boxes up \n  to clear path", 1, 0, 0, 0);
-    		
-    		Obstacle.addUpboxObstacle(300);
-    		Obstacle.addUpboxObstacle(500);
-    		Obstacle.addUpboxObstacle(700);
-    		
-    		prepareEnd(length);	
-    	}
-    	
-    	else if (whichLevel == 2) {
-    		
-    		int length = 900;
-    		prepareStart(length, "Swipe boxes down \n     to cover pits", 0, 1, 0, 0);
-    		
-    		Obstacle.addDownboxObstacle(400);
-    		Obstacle.addDownboxObstacle(600);
-    		Obstacle.addDownboxObstacle(800);
-    		
-    		prepareEnd(length);		
-		}
+    	if (!LevelLoader.open(whichLevel))
+    		return;
+    	Randoms.seedLevel(whichLevel);
 
-		else if (whichLevel == 3) {
+    	int length = LevelLoader.getLength();
+    	prepareStart(length, LevelLoader.getMessage(), LevelLoader.getPopup(LevelFormat.POPUP_UPBOX),
+    			LevelLoader.getPopup(LevelFormat.POPUP_DOWNBOX), LevelLoader.getPopup(LevelFormat.POPUP_TRAPDOOR),
+    			LevelLoader.getPopup(LevelFormat.POPUP_RAMP));
 
-			int length = 900;
-			prepareStart(length, "Swipe trapdoor right \n      to kill enemy", 0, 0, 1, 0);
+    	LevelLoader.addEntities();
 
-			Obstacle.addTrapdoorObstacle(300);
-			Obstacle.addTrapdoorObstacle(500);
-			Obstacle.addTrapdoorObstacle(700);
-
-			prepareEnd(length);
-		}
-
-		else if (whichLevel == 4) {
-
-			int length = 1300;
-			prepareStart(length, "    Swipe ramps down to \n jump over enemies or pits", 0, 0, 0, 1);
-
-			Obstacle.addRampObstacle(400, Obstacle.ENEMY_AFTER);
-			Obstacle.addRampObstacle(700, Obstacle.ENEMY_AFTER);
-			Obstacle.addRampObstacle(1000, Obstacle.ENEMY_AFTER);
-
-			prepareEnd(length);
-		}
-
-		else if (whichLevel == 5) {
-
-			int length = 1300;
-			prepareStart(length, "Just boxes", 1, 1, 0, 0);
-
-			Obstacle.addUpboxObstacle(300);
-			Obstacle.addDownboxObstacle(400);
-			Obstacle.addUpboxObstacle(600);
-			Obstacle.addUpboxObstacle(700);
-			Obstacle.addDownboxObstacle(900);
-			Obstacle.addDownboxObstacle(1000);
-			Obstacle.addUpboxObstacle(1100);
-
-			prepareEnd(length);
-		}
-    	
-		else if (whichLevel == 6) {
-
-			int length = 1500;
-			prepareStart(length, "All going down", 0, 1, 0, 1);
-
-			Obstacle.addDownboxObstacle(400);
-			Obstacle.addRampObstacle(500, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(800);
-			Obstacle.addDownboxObstacle(900);
-			Obstacle.addRampObstacle(1000, Obstacle.ENEMY_AFTER);
-
-			prepareEnd(length);
-		}
-    	
-		else if (whichLevel == 7) {
-
-			int length = 1600;
-			prepareStart(length, "Ramps and traps", 0, 0, 1, 1);
-			
-			Obstacle.addTrapdoorObstacle(300);
-			Obstacle.addRampObstacle(400, Obstacle.ENEMY_AFTER);
-			Obstacle.addTrapdoorObstacle(550);
-			Obstacle.addTrapdoorObstacle(700);
-			Obstacle.addRampObstacle(800, Obstacle.ENEMY_AFTER);
-			
-			prepareEnd(length);
-		}
-    	
-		else if (whichLevel == 8) {
-
-			int length = 1100;
-			prepareStart(length, "Let's see if you learned", 1, 1, 1, 1);
-
-			Obstacle.addUpboxObstacle(300);
-			Obstacle.addTrapdoorObstacle(400);
-			Obstacle.addDownboxObstacle(500);
-			Obstacle.addRampObstacle(600, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(800);
-			Obstacle.addUpboxObstacle(900);
-			
-			prepareEnd(length);
-		}
-    	
-		else if (whichLevel == 9) {
-
-			int length = 1800;
-			prepareStart(length, "Get Ready", 1, 1, 1, 1);
-
-			
-			Obstacle.addTrapdoorObstacle(300);
-			Obstacle.addDownboxObstacle(400);
-			Obstacle.addUpboxObstacle(500);
-			Obstacle.addDownboxObstacle(600);
-			Obstacle.addTrapdoorObstacle(700);
-			Obstacle.addRampObstacle(800, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(1100);
-			Obstacle.addDownboxObstacle(1200);
-			Obstacle.addTrapdoorObstacle(1300);
-			Obstacle.addUpboxObstacle(1400);
-			Obstacle.addRampObstacle(1500, Obstacle.ENEMY_AFTER);
-			
-			prepareEnd(length);
-		}
-    	
-		else if (whichLevel == 10) {
-
-			int length = 5900;
-			prepareStart(length, "Good Luck", 1, 1, 1, 1);
-
-			Obstacle.addUpboxObstacle(300);
-			Obstacle.addDownboxObstacle(400);
-			Obstacle.addTrapdoorObstacle(600);
-			Obstacle.addRampObstacle(700, Obstacle.ENEMY_AFTER);
-			
-			Obstacle.addTrapdoorObstacle(1100);
-			Obstacle.addTrapdoorObstacle(1200);
-			Obstacle.addRampObstacle(1400, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(1600);
-			Obstacle.addUpboxObstacle(1700);
-			Obstacle.addTrapdoorObstacle(1800);
-			Obstacle.addRampObstacle(1900, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(2200);
-			
-			Obstacle.addDownboxObstacle(2400);
-			Obstacle.addTrapdoorObstacle(2500);
-			Obstacle.addUpboxObstacle(2600);
-			Obstacle.addTrapdoorObstacle(2700);
-			Obstacle.addDownboxObstacle(2800);
-			
-			Obstacle.addDownboxObstacle(3000);
-			Obstacle.addTrapdoorObstacle(3100);
-			Obstacle.addDownboxObstacle(3200);
-			Obstacle.addTrapdoorObstacle(3300);
-			Obstacle.addDownboxObstacle(3400);
-			
-			Obstacle.addRampObstacle(3600, Obstacle.ENEMY_AFTER);
-			Obstacle.addUpboxObstacle(3800);
-			Obstacle.addDownboxObstacle(3900);
-			
-			Obstacle.addRampObstacle(4000, Obstacle.ENEMY_AFTER);
-			Obstacle.addTrapdoorObstacle(4200);
-			
-			Obstacle.addTrapdoorObstacle(4400);
-			Obstacle.addDownboxObstacle(4500);
-			Obstacle.addUpboxObstacle(4600);
-			Obstacle.addDownboxObstacle(4700);
-			Obstacle.addTrapdoorObstacle(4800);
-			Obstacle.addRampObstacle(4900, Obstacle.ENEMY_AFTER);
-			Obstacle.addDownboxObstacle(5200);
-			Obstacle.addDownboxObstacle(5300);
-			Obstacle.addTrapdoorObstacle(5400);
-			Obstacle.addUpboxObstacle(5500);
-			Obstacle.addRampObstacle(5600, Obstacle.ENEMY_AFTER);
-
-			prepareEnd(length);
-		} //else if (whichLevel == 11) {
-			//configureInfiniteLevel();
-		//}
+    	prepareEnd(length, LevelLoader.getSpeed());
     }
 
 
@@ -371,11 +219,26 @@ public class SampleActivity extends Framework
 	}
     
     /**
-     * Configure the start or middle of an infinite level.  The length of the level
-     * is defined by the constant INFINITE_LEVEL_LENGTH.  If +x+ is 0, then a start
-     * message will automatically appear and the background will be set, etc.  If
-     * +x+ is greater than 0 then obstacles before +x+ will be cleared to conserve
-     * memory and more will be added.
+     * Chunks are shorter than INFINITE_LEVEL_LENGTH, so they usually get a
+     * fraction of an obstacle or decoration.  These carry the fractions over
+     * to the next chunk.  Only the planning thread uses them once the level
+     * is streaming.
+     */
+    private float obstacleCredit;
+    private float decorationCredit;
+
+    /**
+     * Random numbers for planning chunks.  Only the planning thread uses
+     * this once the level is streaming.
+     */
+    private RandomStream chunkRandom;
+
+    /**
+     * Configure the start or middle of an infinite level.  If +x+ is 0, then a
+     * start message will automatically appear, the background will be set, and
+     * the ChunkStreamer will start building the level around the camera.  If
+     * +x+ is greater than 0 then the level is already streaming, and this only
+     * changes how hard the chunks after +x+ are.
      * 
      * @param speed
      * 		The new speed of the hero.  Faster is harder.
@@ -384,41 +247,122 @@ public class SampleActivity extends Framework
      * 		beginning
      */
     public void configureInfiniteLevel(int speed, int x) {
-    	final int startX = x+getCameraWidth();
-    	final int endX = startX + INFINITE_LEVEL_LENGTH;
-    	Hero h = null;
-    	
     	Log.i("OO", "Configuring infinite level of speed " + speed);
+    	// the chunks requested from here on get the new difficulty
+    	ChunkStreamer.setDifficulty(speed, x + getCameraWidth());
+    	if(x > 0)
+    		return;
 
-    	if(x == 0) {
-	        getEngine().clearUpdateHandlers();
-			Level.reset(Integer.MAX_VALUE, getCameraHeight(), 0, 0, false, 0, 10);
-			Level.addBackgroundLayer("background.png", -1f/PARALLAX_FACTOR, 0, 0);
-			PopUpScene.printTimedMessage("Get Ready!", 2, 1, 1, 1, 1);
-			addDecorations(getCameraWidth(), endX, endX/2000);
-			h = Hero.addHero(0, Level.FLOOR_TOP-Hero.HEIGHT, Hero.WIDTH, Hero.HEIGHT, "hero.png", 1, 0, 0);
-    	} else {
-    		// Draw the floor a little bit before because otherwise the clearEarlyObstacles will remove the old floor and make it ugly.
-    		Obstacle.clearEarlyObstacles(x);
-    		addDecorations(startX, endX, INFINITE_LEVEL_LENGTH/2000);
-    	}
-    	
-		Obstacle.addSquareObstacle(x, Level.FLOOR_TOP, INFINITE_LEVEL_LENGTH + getCameraWidth()*2, Level.FLOOR_HEIGHT, "ground.png", null, 0, 1, 0, 1);    	
+        getEngine().clearUpdateHandlers();
+		Level.reset(Integer.MAX_VALUE, getCameraHeight(), 0, 0, false, 0, 10);
+		Level.addBackgroundLayer("background.png", -1f/PARALLAX_FACTOR, 0, 0);
+		PopUpScene.printTimedMessage("Get Ready!", 2, 1, 1, 1, 1);
+		obstacleCredit = 0;
+		decorationCredit = 0;
+		// the infinite level is level 0, as far as random numbers go
+		Randoms.seedLevel(0);
+		chunkRandom = Randoms.stream("chunks");
+		ChunkStreamer.start(new ChunkStreamer.ChunkBuilder() {
+			@Override
+			public void plan(ChunkPlan plan) {
+				planInfiniteChunk(plan);
+			}
+
+			@Override
+			public void build(ChunkPlan plan, int i) {
+				buildInfiniteEntry(plan, i);
+			}
+		});
+
+		// Add the hero after the first chunks so it is on top of them
+		Hero h = Hero.addHero(0, Level.FLOOR_TOP-Hero.HEIGHT, Hero.WIDTH, Hero.HEIGHT, "hero.png", 1, 0, 0);
+		h.setVelocity(speed, 0);
+		h.animate(120, true);
+		Hero.addRabbit(200, 160, speed, 0);
     	
+    	getEngine().setScene(Level.current);
+    }
+
+    /**
+     * Kinds of entries in a plan of the infinite level, besides the
+     * LevelFormat.ENTITY_XXX obstacles
+     */
+    private static final int PLAN_FLOOR = 0;
+    private static final int PLAN_DECORATION = -1;
+
+    /**
+     * Plan one chunk of the infinite level: floor, obstacles, and
+     * decorations.  The ChunkStreamer calls this on its planning thread, a
+     * few chunks before the camera gets to +plan.startX+, so it only fills in
+     * the plan.
+     * 
+     * @param plan
+     * 		The empty plan of the chunk
+     */
+    private void planInfiniteChunk(ChunkPlan plan) {
+    	int startX = plan.startX;
+    	int endX = plan.endX;
+    	plan.add(PLAN_FLOOR, 0, startX);
+		
+		// Leave the first screen empty so the player can get ready
+		if(startX < CAMERA_WIDTH)
+			return;
+		
+		// the level gets one step harder every INFINITE_LEVEL_LENGTH pixels
+		int speed = plan.difficulty + Math.max(0, startX - plan.difficultyX) / INFINITE_LEVEL_LENGTH;
 		// false sense of security...
-		if(speed < 8)
-			Obstacle.addRandomObstacles(startX, endX, speed+1);
-		else
-			Obstacle.addRandomObstacles(startX, endX, (int) (Math.random()*4.5)+8);
-    	Obstacle.addInfiniteTriggerObstacle(endX, speed+1);
-    	
-    	if(x == 0) {
-			h.setVelocity(speed, 0);
-			h.animate(120, true);
-			Hero.addRabbit(200, 160, speed, 0);
+		int perLength = (speed < 8) ? speed+1 : (int) (chunkRandom.nextFloat()*4.5f)+8;
+		obstacleCredit += perLength * (endX-startX) / (float) INFINITE_LEVEL_LENGTH;
+		int obstacles = (int) obstacleCredit;
+		obstacleCredit -= obstacles;
+		// the same mix as Obstacle.addRandomObstacles
+		if(obstacles > 0)
+			for(int x = startX; x < endX; x += (endX-startX)/obstacles) {
+				switch(chunkRandom.nextInt(4)) {
+				case 0:
+					plan.add(LevelFormat.ENTITY_UPBOX, 0, x);
+					break;
+				case 1:
+					plan.add(LevelFormat.ENTITY_DOWNBOX, 0, x);
+					break;
+				case 2:
+					plan.add(LevelFormat.ENTITY_RAMP, LevelFormat.RAMP_ENEMY_AFTER, x);
+					break;
+				case 3:
+					plan.add(LevelFormat.ENTITY_TRAPDOOR, 0, x);
+					break;
+				}
+			}
+		
+		decorationCredit += (endX-startX) / 2000f;
+		int decorations = (int) decorationCredit;
+		decorationCredit -= decorations;
+		if(decorations > 0)
+			for(int x = startX; x < endX; x += (endX-startX)/decorations)
+				plan.add(PLAN_DECORATION, chunkRandom.nextInt(3), x);
+    }
+
+    /**
+     * Make one entry of a plan from planInfiniteChunk.  The ChunkStreamer
+     * calls this on the update thread.
+     * 
+     * @param plan
+     * 		The plan of the chunk
+     * @param i
+     * 		Index of the entry
+     */
+    private void buildInfiniteEntry(ChunkPlan plan, int i) {
+    	int x = plan.getX(i);
+    	switch(plan.getKind(i)) {
+    	case PLAN_FLOOR:
+			Obstacle.addSquareObstacle(x, Level.FLOOR_TOP, plan.endX-x, Level.FLOOR_HEIGHT, "ground.png", null, 0, 1, 0, 1);
+			break;
+    	case PLAN_DECORATION:
+    		addDecoration(plan.getArg(i), x);
+    		break;
+		default:
+			LevelLoader.addEntity(plan.getKind(i), plan.getArg(i), x);
     	}
-    	
-    	getEngine().setScene(Level.current);
     }
     
     
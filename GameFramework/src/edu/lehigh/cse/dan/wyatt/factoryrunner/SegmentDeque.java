@@ -0,0 +1,188 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+
+import org.anddev.andengine.entity.IEntity;
+
+/**
+ * A SegmentDeque holds the segments of a level that is built from left to
+ * right, in order of x, so that everything behind a point can be found by
+ * looking at the front of the deque instead of walking the whole scene.
+ *
+ * Each segment remembers the entities that were made for it, and the pool (if
+ * any) that each one came from. Segments are only ever added at the back, and
+ * each one must start where the last one ended, so the deque is always sorted.
+ *
+ * The deque is a ring of array slots, so adding at the back and removing from
+ * the front never move the other segments. ArrayDeque would do the same, but
+ * it isn't available before Android 2.3. Removed segments are kept and reused,
+ * so a level that streams forever doesn't make a new one for every step.
+ */
+class SegmentDeque
+{
+    /**
+     * A stretch of the level, and everything that was made for it
+     */
+    static final class Segment
+    {
+        /**
+         * X coordinate of the left edge of this segment
+         */
+        int startX;
+
+        /**
+         * X coordinate of the right edge of this segment
+         */
+        int endX;
+
+        /**
+         * The entities in this segment
+         */
+        final ArrayList<IEntity> entities = new ArrayList<IEntity>();
+
+        /**
+         * The pool that each entity came from, or null
+         */
+        final ArrayList<SpritePool<IEntity>> homes = new ArrayList<SpritePool<IEntity>>();
+
+        /**
+         * Record that an entity belongs to this segment
+         *
+         * @param e
+         *            The entity
+         * @param home
+         *            The pool it goes back to when the segment is retired, or
+         *            null if it isn't pooled
+         */
+        void add(IEntity e, SpritePool<IEntity> home)
+        {
+            entities.add(e);
+            homes.add(home);
+        }
+    }
+
+    /**
+     * The slots of the ring. The length is always a power of two.
+     */
+    private Segment[] ring = new Segment[8];
+
+    /**
+     * Slot of the first segment
+     */
+    private int head;
+
+    /**
+     * Number of segments in the deque
+     */
+    private int count;
+
+    /**
+     * Segments that were removed, so that we don't need to make new ones
+     */
+    private final ArrayList<Segment> spare = new ArrayList<Segment>();
+
+    /**
+     * Start a new segment at the back of the deque
+     *
+     * @param startX
+     *            X coordinate of the left edge of the segment. It must not be
+     *            less than the right edge of the last segment.
+     * @param endX
+     *            X coordinate of the right edge of the segment
+     * @return an empty segment, which is now the last one
+     */
+    Segment addLast(int startX, int endX)
+    {
+        if (count > 0 && startX < last().endX)
+            throw new IllegalArgumentException("segment at " + startX + " is before the end of the deque");
+        if (count == ring.length) {
+            Segment[] bigger = new Segment[ring.length * 2];
+            for (int i = 0; i < count; ++i)
+                bigger[i] = get(i);
+            ring = bigger;
+            head = 0;
+        }
+        Segment s = spare.isEmpty() ? new Segment() : spare.remove(spare.size() - 1);
+        s.startX = startX;
+        s.endX = endX;
+        ring[(head + count) & (ring.length - 1)] = s;
+        count++;
+        return s;
+    }
+
+    /**
+     * @return the segment furthest to the left, or null if there are none
+     */
+    Segment first()
+    {
+        return count == 0 ? null : ring[head];
+    }
+
+    /**
+     * @return the segment furthest to the right, or null if there are none
+     */
+    Segment last()
+    {
+        return count == 0 ? null : ring[(head + count - 1) & (ring.length - 1)];
+    }
+
+    /**
+     * Get a segment by its place in the deque
+     *
+     * @param i
+     *            0 for the first segment, size() - 1 for the last
+     * @return the segment
+     */
+    Segment get(int i)
+    {
+        return ring[(head + i) & (ring.length - 1)];
+    }
+
+    /**
+     * @return the number of segments
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Take the first segment out of the deque. Its entities are left alone;
+     * pass the segment to recycle() once they have been dealt with.
+     *
+     * @return the segment that was first, or null if there are none
+     */
+    Segment removeFirst()
+    {
+        if (count == 0)
+            return null;
+        Segment s = ring[head];
+        ring[head] = null;
+        head = (head + 1) & (ring.length - 1);
+        count--;
+        return s;
+    }
+
+    /**
+     * Keep a removed segment for addLast to use again
+     *
+     * @param s
+     *            A segment from removeFirst
+     */
+    void recycle(Segment s)
+    {
+        s.entities.clear();
+        s.homes.clear();
+        spare.add(s);
+    }
+
+    /**
+     * Forget every segment, without touching their entities
+     */
+    void clear()
+    {
+        while (count > 0)
+            recycle(removeFirst());
+        spare.clear();
+    }
+}
@@ -0,0 +1,344 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+
+import org.anddev.andengine.engine.Engine;
+import org.anddev.andengine.engine.camera.hud.HUD;
+import org.anddev.andengine.entity.scene.Scene.ITouchArea;
+import org.anddev.andengine.util.Debug;
+
+/**
+ * The Simulator plays a level without drawing it, as fast as the phone can
+ * step it, while a script performs swipes at given frames. It reports whether
+ * the level was won or lost and how many frames that took, so that a change
+ * to the framework can be checked against every level in a few seconds, and
+ * the time per frame can be compared between builds.
+ *
+ * A run happens on the update thread, inside a single update, so the renderer
+ * waits until it is done and nothing is drawn in between. Sound and music are
+ * muted for the run, and pop-up messages are dismissed as soon as they
+ * appear. Winning or losing doesn't move on to another level; instead the run
+ * stops, and the level is set up again from scratch, ready to play, with the
+ * menus set as if the player had chosen it.
+ *
+ * scriptFor() makes a script that clears every obstacle of a level, and
+ * runAllLater() plays each level with its script, so a change that breaks a
+ * level shows up in the log as a level that was lost. Framework.debugKeys
+ * turns on a key that starts it.
+ *
+ * Box2D and AndEngine need the Android runtime, so the Simulator runs in the
+ * game (e.g., from a debug button or an instrumentation test), not on a
+ * desktop JVM.
+ */
+class Simulator
+{
+    /**
+     * Directions for a scripted swipe
+     */
+    static final int SWIPE_UP = 0;
+    static final int SWIPE_DOWN = 1;
+    static final int SWIPE_LEFT = 2;
+    static final int SWIPE_RIGHT = 3;
+
+    /**
+     * Game time that passes in each simulated frame
+     */
+    static final float FRAME_TIME = 1.0f / 60;
+
+    /**
+     * Frames to play before giving up on a level, when running every level:
+     * two minutes of game time, which is far longer than any level takes
+     */
+    static final int MAX_FRAMES = 60 * 120;
+
+    /**
+     * A swipe to perform during a run
+     */
+    static final class Swipe
+    {
+        /**
+         * Frame on which to swipe
+         */
+        final int frame;
+
+        /**
+         * Scene coordinates where the swipe starts
+         */
+        final float x;
+        final float y;
+
+        /**
+         * One of the SWIPE_XXX directions
+         */
+        final int direction;
+
+        /**
+         * Describe a swipe
+         *
+         * @param frame
+         *            Frame on which to swipe
+         * @param x
+         *            X coordinate where the swipe starts
+         * @param y
+         *            Y coordinate where the swipe starts
+         * @param direction
+         *            One of the SWIPE_XXX directions
+         */
+        Swipe(int frame, float x, float y, int direction)
+        {
+            this.frame = frame;
+            this.x = x;
+            this.y = y;
+            this.direction = direction;
+        }
+    }
+
+    /**
+     * What happened during a run
+     */
+    static final class Result
+    {
+        /**
+         * The level that was played
+         */
+        int level;
+
+        /**
+         * True if the level was won, false if it was lost or ran out of
+         * frames
+         */
+        boolean won;
+
+        /**
+         * True if the level ended (won or lost) before running out of frames
+         */
+        boolean finished;
+
+        /**
+         * Number of frames that were simulated
+         */
+        int frames;
+
+        /**
+         * Number of physics steps that were taken
+         */
+        int steps;
+
+        /**
+         * Real time that the run took, in nanoseconds
+         */
+        long nanos;
+
+        @Override
+        public String toString()
+        {
+            String outcome = !finished ? "timed out" : won ? "won" : "lost";
+            return "level " + level + " " + outcome + " after " + frames + " frames (" + steps + " steps) in "
+                    + nanos / 1000000 + "ms, " + (frames == 0 ? 0 : nanos / 1000 / frames) + "us/frame";
+        }
+    }
+
+    /**
+     * The run in progress, or null when the game is being played normally
+     */
+    private static Result running = null;
+
+    /**
+     * Check if a run is in progress
+     *
+     * @return true if the level is being simulated
+     */
+    static boolean isRunning()
+    {
+        return running != null;
+    }
+
+    /**
+     * Called by the MenuManager when the level is won or lost. During a run,
+     * this records the outcome, and the MenuManager must not move on.
+     *
+     * @param won
+     *            True if the level was won
+     *
+     * @return true if a run is in progress, and the outcome was recorded
+     */
+    static boolean report(boolean won)
+    {
+        if (running == null)
+            return false;
+        if (!running.finished) {
+            running.finished = true;
+            running.won = won;
+        }
+        return true;
+    }
+
+    /**
+     * Play a level without drawing it. This must be called on the update
+     * thread; use runLater() from anywhere else.
+     *
+     * @param level
+     *            The level to play
+     * @param script
+     *            Swipes to perform, in order of frame
+     * @param maxFrames
+     *            Give up after this many frames
+     *
+     * @return what happened
+     */
+    static Result run(int level, Swipe[] script, int maxFrames)
+    {
+        Framework fw = Framework.self();
+        Engine engine = fw.getEngine();
+        float soundVolume = engine.getSoundManager().getMasterVolume();
+        float musicVolume = engine.getMusicManager().getMasterVolume();
+        engine.getSoundManager().setMasterVolume(0);
+        engine.getMusicManager().setMasterVolume(0);
+
+        Result r = new Result();
+        r.level = level;
+        running = r;
+        try {
+            setUp(level);
+            int next = 0;
+            long start = System.nanoTime();
+            while (r.frames < maxFrames && !r.finished) {
+                // nobody is watching, so messages are dismissed right away
+                if (Level.current.hasChildScene())
+                    Level.current.clearChildScene();
+                while (next < script.length && script[next].frame <= r.frames)
+                    perform(script[next++]);
+                Level.current.onUpdate(FRAME_TIME);
+                fw.myCamera.onUpdate(FRAME_TIME);
+                r.frames++;
+            }
+            r.nanos = System.nanoTime() - start;
+            r.steps = Level.physics.getStepCount();
+        }
+        finally {
+            running = null;
+            engine.getSoundManager().setMasterVolume(soundVolume);
+            engine.getMusicManager().setMasterVolume(musicVolume);
+        }
+
+        // leave the level ready to play, and make sure the menus know that
+        // it is being played, as if it had just been chosen
+        fw.menuManager.playLevel(level);
+        Debug.d("Simulator: " + r);
+        return r;
+    }
+
+    /**
+     * Play a level without drawing it, as soon as the update thread is free.
+     * The result is logged.
+     *
+     * @param level
+     *            The level to play
+     * @param script
+     *            Swipes to perform, in order of frame
+     * @param maxFrames
+     *            Give up after this many frames
+     */
+    static void runLater(final int level, final Swipe[] script, final int maxFrames)
+    {
+        Framework.self().getEngine().runOnUpdateThread(new Runnable() {
+            @Override
+            public void run()
+            {
+                Simulator.run(level, script, maxFrames);
+            }
+        });
+    }
+
+    /**
+     * Make a script that clears every obstacle of a level. The obstacles are
+     * read from the level file, so the script keeps up with changes to the
+     * levels. Every obstacle is swiped on the first frame, long before the
+     * hero reaches it, at the center of the part of it that takes the swipe
+     * (see Obstacle.addUpboxObstacle and friends).
+     *
+     * @param level
+     *            The level to clear
+     *
+     * @return the swipes, or an empty script if there is no such level
+     */
+    static Swipe[] scriptFor(int level)
+    {
+        if (!LevelLoader.open(level))
+            return new Swipe[0];
+        Swipe[] script = new Swipe[LevelLoader.getEntityCount()];
+        for (int i = 0; i < script.length; ++i) {
+            int x = LevelLoader.getEntityX(i);
+            switch (LevelLoader.getEntityKind(i)) {
+                case LevelFormat.ENTITY_UPBOX:
+                    script[i] = new Swipe(1, x + Obstacle.BOX_WIDTH / 2, Level.FLOOR_TOP - Obstacle.BOX_HEIGHT / 2,
+                            SWIPE_UP);
+                    break;
+                case LevelFormat.ENTITY_DOWNBOX:
+                    script[i] = new Swipe(1, x + Obstacle.BOX_WIDTH / 2, Level.FLOOR_TOP - Obstacle.FORKLIFT_HEIGHT + 10
+                            - Obstacle.BOX_HEIGHT / 2, SWIPE_DOWN);
+                    break;
+                case LevelFormat.ENTITY_TRAPDOOR:
+                    script[i] = new Swipe(1, x + Obstacle.TRAPDOOR_WIDTH / 2, Level.FLOOR_TOP + 10, SWIPE_RIGHT);
+                    break;
+                default:
+                    script[i] = new Swipe(1, x + Obstacle.RAMP_WIDTH / 2, Obstacle.RAMP_HEIGHT / 2, SWIPE_DOWN);
+                    break;
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Play every level with the script from scriptFor(), one after the other,
+     * as soon as the update thread is free. The results are logged. The
+     * scripts are made on the update thread too, since the LevelLoader
+     * belongs to it.
+     */
+    static void runAllLater()
+    {
+        Framework.self().getEngine().runOnUpdateThread(new Runnable() {
+            @Override
+            public void run()
+            {
+                for (int level = 1; level <= Framework.self().getNumLevels(); ++level)
+                    Simulator.run(level, scriptFor(level), MAX_FRAMES);
+            }
+        });
+    }
+
+    /**
+     * Build a level from scratch, the same way the MenuManager does
+     */
+    private static void setUp(int level)
+    {
+        Framework fw = Framework.self();
+        fw.getEngine().clearUpdateHandlers();
+        fw.myCamera.setHUD(new HUD());
+        fw.configureLevel(level);
+    }
+
+    /**
+     * Perform a scripted swipe on the obstacle under its starting point
+     */
+    private static void perform(Swipe s)
+    {
+        ArrayList<ITouchArea> areas = Level.current.getTouchAreas();
+        for (int i = areas.size() - 1; i >= 0; --i) {
+            ITouchArea a = areas.get(i);
+            if (a instanceof Obstacle && a.contains(s.x, s.y)) {
+                ((Obstacle) a).swipe(s.direction);
+                return;
+            }
+        }
+        Debug.d("Simulator: nothing to swipe at " + s.x + "," + s.y + " on frame " + s.frame);
+    }
+
+    /**
+     * Simulator is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private Simulator()
+    {
+    }
+}
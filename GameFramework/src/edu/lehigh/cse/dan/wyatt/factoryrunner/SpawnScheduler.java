@@ -0,0 +1,336 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+
+import org.anddev.andengine.engine.handler.IUpdateHandler;
+import org.anddev.andengine.util.Debug;
+
+/**
+ * The SpawnScheduler runs the reproduction of every enemy in a level (see
+ * Enemy.setReproductions) from one update handler.
+ *
+ * Each enemy that reproduces used to have a TimerHandler of its own, and each
+ * of its offspring made another one, so a family could grow to spawn ^
+ * reproductions enemies and timers, and every timer that went off made its
+ * offspring right away, bodies and all. Now the enemies that are waiting to
+ * reproduce sit in a timer wheel: a ring of slots, one per TICK, where each
+ * slot holds the enemies that are due at that tick (or a whole number of
+ * turns of the wheel later). Advancing the wheel only looks at the slots that
+ * come due, so a thousand waiting enemies cost nothing until their turn.
+ *
+ * When an enemy reproduces, its offspring are queued instead of being made on
+ * the spot. At most spawnsPerFrame of them are made in each frame, and none
+ * are made while the level has maxEnemies enemies alive. Requests that don't
+ * fit are dropped, so a burst of reproductions thins out instead of stalling
+ * the frame. The limits count enemies, not time, so a level plays out the same
+ * way on every phone (see InputTape).
+ */
+class SpawnScheduler
+{
+    /**
+     * Length of one tick of the wheel, in seconds
+     */
+    static final float TICK = 0.05f;
+
+    /**
+     * Number of slots in the wheel. It must be a power of two.
+     */
+    private static final int SLOTS = 64;
+
+    /**
+     * Most reproductions that can wait in the queue
+     */
+    private static final int QUEUE = 64;
+
+    /**
+     * Most enemies that may be alive before reproduction stops
+     */
+    private static int maxEnemies = 64;
+
+    /**
+     * Most offspring to make in one frame
+     */
+    private static int spawnsPerFrame = 4;
+
+    /**
+     * The first enemy in each slot of the wheel. The rest follow through
+     * Enemy.wheelNext.
+     */
+    private static final Enemy[] wheel = new Enemy[SLOTS];
+
+    /**
+     * Number of ticks since the level started
+     */
+    private static long tick;
+
+    /**
+     * Time since the last tick
+     */
+    private static float sinceTick;
+
+    /**
+     * The enemies that come due in the current tick
+     */
+    private static final ArrayList<Enemy> due = new ArrayList<Enemy>();
+
+    /**
+     * The queue of reproductions, as a ring: the parent, how many offspring
+     * it still has to make, and how many times each of them may reproduce
+     */
+    private static final Enemy[] parents = new Enemy[QUEUE];
+    private static final int[] counts = new int[QUEUE];
+    private static final int[] generations = new int[QUEUE];
+
+    /**
+     * Slot of the first reproduction in the queue
+     */
+    private static int head;
+
+    /**
+     * Number of reproductions in the queue
+     */
+    private static int queued;
+
+    /**
+     * Number of offspring that were made, and that were dropped, in this
+     * level
+     */
+    private static int spawned;
+    private static int dropped;
+
+    /**
+     * True once the update handler is registered with the current level
+     */
+    private static boolean registered;
+
+    /**
+     * Runs update() once per frame
+     */
+    private static final IUpdateHandler handler = new IUpdateHandler() {
+        @Override
+        public void onUpdate(float pSecondsElapsed)
+        {
+            update(pSecondsElapsed);
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+    };
+
+    /**
+     * Set the limits on reproduction. Takes effect right away.
+     *
+     * @param maxAlive
+     *            Most enemies that may be alive at once before reproduction
+     *            stops. 64 is the default.
+     * @param perFrame
+     *            Most offspring to make in one frame. 4 is the default.
+     */
+    static void setLimits(int maxAlive, int perFrame)
+    {
+        maxEnemies = maxAlive;
+        spawnsPerFrame = perFrame;
+    }
+
+    /**
+     * Make an enemy reproduce after a while. An enemy that is already
+     * waiting is moved to the new time.
+     *
+     * @param e
+     *            The enemy
+     * @param delay
+     *            Seconds until it reproduces
+     */
+    static void schedule(Enemy e, float delay)
+    {
+        // outside of a level (e.g., in the benchmarks) there is nothing to
+        // register with, and whoever schedules calls update() itself
+        if (!registered && Level.current != null) {
+            Level.current.registerUpdateHandler(handler);
+            registered = true;
+        }
+        unschedule(e);
+        int ticks = (int) Math.ceil(delay / TICK);
+        e.wakeTick = tick + (ticks < 1 ? 1 : ticks);
+        int s = (int) (e.wakeTick & (SLOTS - 1));
+        e.wheelNext = wheel[s];
+        if (wheel[s] != null)
+            wheel[s].wheelPrev = e;
+        e.wheelPrev = null;
+        wheel[s] = e;
+        e.inWheel = true;
+    }
+
+    /**
+     * Forget everything an enemy was going to do, because it is gone
+     *
+     * @param e
+     *            The enemy
+     */
+    static void cancel(Enemy e)
+    {
+        unschedule(e);
+        for (int i = 0; i < queued; ++i) {
+            int s = (head + i) % QUEUE;
+            if (parents[s] == e)
+                parents[s] = null;
+        }
+    }
+
+    /**
+     * Queue the offspring of one reproduction
+     *
+     * @param parent
+     *            The enemy that is reproducing
+     * @param count
+     *            Number of offspring
+     * @param generation
+     *            Number of times that each of them may reproduce
+     */
+    static void request(Enemy parent, int count, int generation)
+    {
+        if (queued == QUEUE || Enemy.alive >= maxEnemies) {
+            dropped += count;
+            return;
+        }
+        int s = (head + queued) % QUEUE;
+        parents[s] = parent;
+        counts[s] = count;
+        generations[s] = generation;
+        queued++;
+    }
+
+    /**
+     * Take an enemy out of the wheel, if it is in it. Offspring that it has
+     * already asked for are still made.
+     *
+     * @param e
+     *            The enemy
+     */
+    static void unschedule(Enemy e)
+    {
+        if (!e.inWheel)
+            return;
+        if (e.wheelPrev != null)
+            e.wheelPrev.wheelNext = e.wheelNext;
+        else
+            wheel[(int) (e.wakeTick & (SLOTS - 1))] = e.wheelNext;
+        if (e.wheelNext != null)
+            e.wheelNext.wheelPrev = e.wheelPrev;
+        e.wheelNext = null;
+        e.wheelPrev = null;
+        e.inWheel = false;
+    }
+
+    /**
+     * Advance the wheel, and make the queued offspring. The update handler
+     * calls this once per frame.
+     *
+     * @param elapsed
+     *            Seconds since the last update
+     */
+    static void update(float elapsed)
+    {
+        sinceTick += elapsed;
+        while (sinceTick >= TICK) {
+            sinceTick -= TICK;
+            advance();
+        }
+        spawn();
+    }
+
+    /**
+     * Move the wheel on by one tick, and let the enemies that are due
+     * reproduce. Enemies in the slot that are due on a later turn of the
+     * wheel stay where they are.
+     */
+    private static void advance()
+    {
+        tick++;
+        for (Enemy e = wheel[(int) (tick & (SLOTS - 1))]; e != null;) {
+            Enemy next = e.wheelNext;
+            if (e.wakeTick == tick) {
+                unschedule(e);
+                due.add(e);
+            }
+            e = next;
+        }
+        // reproducing may put enemies back in the wheel, so it waits until
+        // the slot has been walked
+        for (int i = 0; i < due.size(); ++i)
+            due.get(i).reproduce();
+        due.clear();
+    }
+
+    /**
+     * Make as many queued offspring as the limits allow
+     */
+    private static void spawn()
+    {
+        int budget = spawnsPerFrame;
+        while (queued > 0 && budget > 0) {
+            Enemy parent = parents[head];
+            // parents that died since they reproduced lose their offspring,
+            // and so does everyone once the level is full
+            if (parent == null || Enemy.alive >= maxEnemies) {
+                if (parent != null)
+                    dropped += counts[head];
+                pop();
+                continue;
+            }
+            parent.spawnChild(generations[head]);
+            spawned++;
+            budget--;
+            if (--counts[head] == 0)
+                pop();
+        }
+    }
+
+    /**
+     * Remove the first reproduction from the queue
+     */
+    private static void pop()
+    {
+        parents[head] = null;
+        head = (head + 1) % QUEUE;
+        queued--;
+    }
+
+    /**
+     * Forget everything from the last level. This must run before any enemy
+     * of the new level is told to reproduce.
+     */
+    static void onNewLevel()
+    {
+        if (spawned > 0 || dropped > 0)
+            Debug.d("SpawnScheduler: " + spawned + " offspring made, " + dropped + " dropped");
+        for (int i = 0; i < SLOTS; ++i) {
+            for (Enemy e = wheel[i]; e != null;) {
+                Enemy next = e.wheelNext;
+                e.wheelNext = null;
+                e.wheelPrev = null;
+                e.inWheel = false;
+                e = next;
+            }
+            wheel[i] = null;
+        }
+        while (queued > 0)
+            pop();
+        head = 0;
+        tick = 0;
+        sinceTick = 0;
+        spawned = 0;
+        dropped = 0;
+        registered = false;
+    }
+
+    /**
+     * SpawnScheduler is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private SpawnScheduler()
+    {
+    }
+}
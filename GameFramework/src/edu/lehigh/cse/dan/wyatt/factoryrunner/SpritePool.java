@@ -0,0 +1,305 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.util.ArrayList;
+
+import org.anddev.andengine.entity.IEntity;
+
+/**
+ * A SpritePool keeps entities that are out of play, so that they can be put
+ * back into play instead of making a new sprite and a new Box2D body.
+ *
+ * Every entity in a pool must be interchangeable with the others: same class,
+ * image, size, and physics. Entities that are released are hidden and their
+ * bodies are deactivated (see PhysicsSprite.retire), but they stay attached
+ * to the scene and their bodies stay in the physics world. Entities that are
+ * obtained again are reset to a fresh state at their new position (see
+ * PhysicsSprite.recycle, which subclasses extend to reset their own fields).
+ * Entities that aren't PhysicsSprites (e.g., decorations) are just hidden and
+ * shown.
+ *
+ * A pool can make its own entities, using a Factory. Such a pool also takes
+ * back the entities it made when they are destroyed, instead of letting
+ * PhysicsSprite.flushDestroyed free their bodies. A pool without a Factory
+ * only holds what it is given, and its owner creates entities when the pool
+ * is empty and counts them with adopt().
+ *
+ * A growable pool makes as many entities as are asked for. A fixed pool never
+ * has more than its capacity in play or waiting, and obtain() returns null
+ * when all of them are in play.
+ *
+ * The bodies in a pool belong to the physics world of the level that made
+ * them, so a pool must never outlive its level.
+ *
+ * @param <T>
+ *            The type of entity in the pool
+ */
+class SpritePool<T extends IEntity>
+{
+    /**
+     * Interface for the code that makes a new entity when the pool is empty
+     */
+    interface Factory<T>
+    {
+        /**
+         * Make a new entity and attach it to the current level
+         *
+         * @param x
+         *            X coordinate of top left corner
+         * @param y
+         *            Y coordinate of top left corner
+         * @return the new entity
+         */
+        T make(float x, float y);
+    }
+
+    /**
+     * Name of the pool, for the log
+     */
+    private final String name;
+
+    /**
+     * Most entities that a fixed pool will make
+     */
+    private final int capacity;
+
+    /**
+     * Can the pool make more than capacity entities?
+     */
+    private final boolean growable;
+
+    /**
+     * The code that makes new entities, or null if the owner makes them
+     */
+    private final Factory<T> factory;
+
+    /**
+     * Entities that are waiting to be used again
+     */
+    private final ArrayList<T> free = new ArrayList<T>();
+
+    /**
+     * Number of entities that are in play right now
+     */
+    private int live;
+
+    /**
+     * Highest value of live
+     */
+    private int peak;
+
+    /**
+     * Number of requests that were served from the pool
+     */
+    private int hits;
+
+    /**
+     * Number of requests that found the pool empty
+     */
+    private int misses;
+
+    /**
+     * Create an empty pool
+     *
+     * @param name
+     *            Name of the pool, for the log
+     * @param capacity
+     *            Most entities to make, if the pool isn't growable
+     * @param growable
+     *            true to make as many entities as are needed
+     * @param factory
+     *            The code that makes new entities, or null if the owner of the
+     *            pool makes them
+     */
+    SpritePool(String name, int capacity, boolean growable, Factory<T> factory)
+    {
+        this.name = name;
+        this.capacity = capacity;
+        this.growable = growable;
+        this.factory = factory;
+    }
+
+    /**
+     * Get an entity at a new position, either from the pool or, if the pool
+     * is empty, from the factory
+     *
+     * @param x
+     *            X coordinate of top left corner
+     * @param y
+     *            Y coordinate of top left corner
+     * @return an entity that is in play, or null if the pool is empty and
+     *         can't (or doesn't know how to) make a new one
+     */
+    T obtain(float x, float y)
+    {
+        if (!free.isEmpty()) {
+            T e = free.remove(free.size() - 1);
+            hits++;
+            if (e instanceof PhysicsSprite) {
+                ((PhysicsSprite) e).pooled = false;
+                ((PhysicsSprite) e).recycle(x, y);
+            }
+            else {
+                e.setPosition(x, y);
+                if (e.getParent() instanceof CullingScene)
+                    ((CullingScene) e.getParent()).relocate(e);
+                e.setVisible(true);
+            }
+            onLive();
+            return e;
+        }
+        misses++;
+        if (factory == null || (!growable && live >= capacity))
+            return null;
+        T e = factory.make(x, y);
+        if (e instanceof PhysicsSprite)
+            ((PhysicsSprite) e).pool = this;
+        onLive();
+        return e;
+    }
+
+    /**
+     * Make entities ahead of time, so that the first requests don't have to
+     * wait for new bodies. The new entities start out released.
+     *
+     * @param count
+     *            Number of entities that should be waiting in the pool
+     */
+    void fill(int count)
+    {
+        if (factory == null)
+            return;
+        if (!growable && count > capacity - live)
+            count = capacity - live;
+        while (free.size() < count) {
+            T e = factory.make(-1000, -1000);
+            if (e instanceof PhysicsSprite) {
+                ((PhysicsSprite) e).pool = this;
+                ((PhysicsSprite) e).pooled = true;
+                ((PhysicsSprite) e).retire();
+            }
+            else {
+                e.setVisible(false);
+            }
+            free.add(e);
+        }
+    }
+
+    /**
+     * Count an entity that the owner of the pool had to make because obtain()
+     * returned null, as being in play. The pool doesn't hold on to it or take
+     * it back when it is destroyed; the owner keeps track of it, and later
+     * gives it to release() or discard().
+     */
+    void adopt()
+    {
+        onLive();
+    }
+
+    /**
+     * Take an entity out of play, and keep it for later. Releasing a
+     * PhysicsSprite that is already in the pool does nothing.
+     *
+     * @param e
+     *            An entity that came from obtain() or adopt()
+     */
+    void release(T e)
+    {
+        if (e instanceof PhysicsSprite) {
+            PhysicsSprite ps = (PhysicsSprite) e;
+            if (ps.pooled)
+                return;
+            ps.pooled = true;
+            ps.retire();
+        }
+        else {
+            e.setVisible(false);
+        }
+        free.add(e);
+        live--;
+    }
+
+    /**
+     * Release a destroyed entity that this pool made. This is called from
+     * PhysicsSprite.flushDestroyed, once the physics step is over.
+     *
+     * @param ps
+     *            The entity
+     */
+    @SuppressWarnings("unchecked")
+    void reclaim(PhysicsSprite ps)
+    {
+        release((T) ps);
+    }
+
+    /**
+     * Forget about an entity that can't be used again (e.g., because its body
+     * was destroyed)
+     *
+     * @param e
+     *            An entity that came from obtain() or adopt()
+     */
+    void discard(T e)
+    {
+        live--;
+    }
+
+    /**
+     * Update the statistics when an entity goes into play
+     */
+    private void onLive()
+    {
+        live++;
+        if (live > peak)
+            peak = live;
+    }
+
+    /**
+     * @return the number of entities in play
+     */
+    int getLive()
+    {
+        return live;
+    }
+
+    /**
+     * @return the number of entities waiting in the pool
+     */
+    int getFree()
+    {
+        return free.size();
+    }
+
+    /**
+     * @return the most entities that were ever in play at once
+     */
+    int getPeak()
+    {
+        return peak;
+    }
+
+    /**
+     * @return the number of requests that were served from the pool
+     */
+    int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that found the pool empty
+     */
+    int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Describe the pool for the log
+     */
+    @Override
+    public String toString()
+    {
+        return name + ": " + live + " live, " + free.size() + " free, " + peak + " peak, " + hits + " hits, "
+                + misses + " misses";
+    }
+}
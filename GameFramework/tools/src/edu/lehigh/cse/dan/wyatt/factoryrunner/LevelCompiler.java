@@ -0,0 +1,302 @@
+package edu.lehigh.cse.dan.wyatt.factoryrunner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+/**
+ * LevelCompiler turns a human-readable level description into the binary
+ * format described by LevelFormat. It runs on the desktop, not on the phone,
+ * so it lives in the tools folder, which the Android build doesn't compile.
+ * From the GameFramework folder, compile it along with LevelFormat, and run
+ * it:
+ *
+ * javac -d tools-classes src/edu/lehigh/cse/dan/wyatt/factoryrunner/LevelFormat.java
+ * tools/src/edu/lehigh/cse/dan/wyatt/factoryrunner/LevelCompiler.java
+ *
+ * java -cp tools-classes edu.lehigh.cse.dan.wyatt.factoryrunner.LevelCompiler
+ * levels/levels.txt assets/levels.bin
+ *
+ * The description is line-based. Blank lines and lines starting with '#' are
+ * ignored. Each level starts with "level N" and ends with "end". Inside of a
+ * level, these lines are allowed:
+ *
+ * length N -- how long the level is, in pixels (required)
+ *
+ * speed N -- how fast the rabbit runs (default 5)
+ *
+ * message "text" -- the message shown at the start; \n starts a new line
+ *
+ * popups upbox downbox trapdoor ramp -- which obstacles the message explains
+ *
+ * upbox X, downbox X, trapdoor X -- an obstacle at X
+ *
+ * ramp X [enemy-after] -- a ramp at X, optionally with an enemy after it
+ *
+ * Mistakes are reported with their line number, and no output is written.
+ */
+final class LevelCompiler
+{
+    /**
+     * A level, as it is being parsed
+     */
+    private static final class Level
+    {
+        int number;
+        int length = -1;
+        int speed = LevelFormat.DEFAULT_SPEED;
+        int popups;
+        String message;
+        ArrayList<int[]> entities = new ArrayList<int[]>();
+    }
+
+    /**
+     * Entry point for the command-line tool
+     *
+     * @param args
+     *            The input file and the output file
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2) {
+            System.err.println("usage: LevelCompiler <levels.txt> <levels.bin>");
+            System.exit(1);
+        }
+        byte[] out;
+        try {
+            out = compile(args[0]);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        FileOutputStream fos = new FileOutputStream(args[1]);
+        try {
+            fos.write(out);
+        }
+        finally {
+            fos.close();
+        }
+        System.out.println("wrote " + out.length + " bytes to " + args[1]);
+    }
+
+    /**
+     * Compile a level description
+     *
+     * @param fileName
+     *            The description to read
+     *
+     * @return the compiled level file
+     */
+    static byte[] compile(String fileName) throws IOException
+    {
+        ArrayList<Level> levels = new ArrayList<Level>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        try {
+            Level current = null;
+            int lineNo = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+                String where = fileName + ":" + lineNo + ": ";
+                String[] words = line.split("\\s+");
+                String cmd = words[0];
+
+                if (current == null) {
+                    if (!cmd.equals("level") || words.length != 2)
+                        throw new IllegalArgumentException(where + "expected 'level N'");
+                    current = new Level();
+                    current.number = number(where, words[1]);
+                    for (Level l : levels)
+                        if (l.number == current.number)
+                            throw new IllegalArgumentException(where + "level " + l.number + " is defined twice");
+                }
+                else if (cmd.equals("end")) {
+                    if (current.length < 0)
+                        throw new IllegalArgumentException(where + "level " + current.number + " has no length");
+                    levels.add(current);
+                    current = null;
+                }
+                else if (cmd.equals("length")) {
+                    current.length = number(where, arg(where, words, 1));
+                }
+                else if (cmd.equals("speed")) {
+                    current.speed = number(where, arg(where, words, 1));
+                }
+                else if (cmd.equals("message")) {
+                    current.message = message(where, line.substring(cmd.length()).trim());
+                }
+                else if (cmd.equals("popups")) {
+                    for (int i = 1; i < words.length; ++i)
+                        current.popups |= popup(where, words[i]);
+                }
+                else if (cmd.equals("upbox")) {
+                    current.entities.add(entity(LevelFormat.ENTITY_UPBOX, 0, where, words));
+                }
+                else if (cmd.equals("downbox")) {
+                    current.entities.add(entity(LevelFormat.ENTITY_DOWNBOX, 0, where, words));
+                }
+                else if (cmd.equals("trapdoor")) {
+                    current.entities.add(entity(LevelFormat.ENTITY_TRAPDOOR, 0, where, words));
+                }
+                else if (cmd.equals("ramp")) {
+                    int after = 0;
+                    if (words.length > 3)
+                        throw new IllegalArgumentException(where + "expected 'ramp X [enemy-after]'");
+                    if (words.length == 3) {
+                        if (!words[2].equals("enemy-after"))
+                            throw new IllegalArgumentException(where + "unknown ramp option '" + words[2] + "'");
+                        after = LevelFormat.RAMP_ENEMY_AFTER;
+                    }
+                    current.entities.add(new int[] { LevelFormat.ENTITY_RAMP, after,
+                            number(where, arg(where, words, 1)) });
+                }
+                else {
+                    throw new IllegalArgumentException(where + "unknown command '" + cmd + "'");
+                }
+            }
+            if (current != null)
+                throw new IllegalArgumentException(fileName + ": level " + current.number + " has no 'end'");
+        }
+        finally {
+            in.close();
+        }
+        return write(levels);
+    }
+
+    /**
+     * Lay out the parsed levels in the binary format
+     *
+     * @param levels
+     *            The levels to write
+     *
+     * @return the compiled level file
+     */
+    private static byte[] write(ArrayList<Level> levels) throws IOException
+    {
+        // write the records first, so we know where each one starts
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(records);
+        int base = LevelFormat.HEADER_SIZE + LevelFormat.TABLE_ENTRY_SIZE * levels.size();
+        int[] offsets = new int[levels.size()];
+        for (int i = 0; i < levels.size(); ++i) {
+            Level l = levels.get(i);
+            offsets[i] = base + rec.size();
+            rec.writeInt(l.length);
+            rec.writeShort(l.speed);
+            rec.writeByte(l.popups);
+            byte[] msg = l.message == null ? new byte[0] : l.message.getBytes("UTF-8");
+            rec.writeShort(msg.length);
+            rec.write(msg);
+            rec.writeInt(l.entities.size());
+            for (int[] e : l.entities) {
+                rec.writeByte(e[0]);
+                rec.writeByte(e[1]);
+                rec.writeInt(e[2]);
+            }
+        }
+        rec.flush();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(LevelFormat.MAGIC);
+        out.writeShort(LevelFormat.VERSION);
+        out.writeShort(levels.size());
+        for (int i = 0; i < levels.size(); ++i) {
+            out.writeInt(levels.get(i).number);
+            out.writeInt(offsets[i]);
+        }
+        records.writeTo(out);
+        out.flush();
+        return file.toByteArray();
+    }
+
+    /**
+     * Parse an entity line of the form "kind X"
+     */
+    private static int[] entity(int kind, int arg, String where, String[] words)
+    {
+        if (words.length != 2)
+            throw new IllegalArgumentException(where + "expected '" + words[0] + " X'");
+        return new int[] { kind, arg, number(where, words[1]) };
+    }
+
+    /**
+     * Get a required word from a line
+     */
+    private static String arg(String where, String[] words, int i)
+    {
+        if (words.length <= i)
+            throw new IllegalArgumentException(where + "'" + words[0] + "' needs a value");
+        return words[i];
+    }
+
+    /**
+     * Parse a non-negative number
+     */
+    private static int number(String where, String word)
+    {
+        try {
+            int n = Integer.parseInt(word);
+            if (n >= 0)
+                return n;
+        }
+        catch (NumberFormatException e) {
+        }
+        throw new IllegalArgumentException(where + "'" + word + "' is not a valid number");
+    }
+
+    /**
+     * Parse a popup name into its flag
+     */
+    private static int popup(String where, String word)
+    {
+        if (word.equals("upbox"))
+            return LevelFormat.POPUP_UPBOX;
+        if (word.equals("downbox"))
+            return LevelFormat.POPUP_DOWNBOX;
+        if (word.equals("trapdoor"))
+            return LevelFormat.POPUP_TRAPDOOR;
+        if (word.equals("ramp"))
+            return LevelFormat.POPUP_RAMP;
+        throw new IllegalArgumentException(where + "unknown popup '" + word + "'");
+    }
+
+    /**
+     * Parse a quoted message, turning \n into a newline
+     */
+    private static String message(String where, String quoted)
+    {
+        if (quoted.length() < 2 || quoted.charAt(0) != '"' || quoted.charAt(quoted.length() - 1) != '"')
+            throw new IllegalArgumentException(where + "the message must be in double quotes");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < quoted.length() - 1; ++i) {
+            char c = quoted.charAt(i);
+            if (c == '\\' && i + 1 < quoted.length() - 1) {
+                char n = quoted.charAt(++i);
+                sb.append(n == 'n' ? '\n' : n);
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * LevelCompiler is a pure static class, and should never be constructed
+     * explicitly
+     */
+    private LevelCompiler()
+    {
+    }
+}